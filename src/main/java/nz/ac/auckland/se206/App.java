@@ -12,8 +12,17 @@ import javafx.stage.WindowEvent;
 import nz.ac.auckland.se206.AudioManager.Clip;
 import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
+import nz.ac.auckland.se206.controllers.rooms.RoomController;
+import nz.ac.auckland.se206.gpt.ConversationJournal;
+import nz.ac.auckland.se206.gpt.ResponseCache;
+import nz.ac.auckland.se206.gpt.UsageLedger;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionExecutor;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.Hedger;
+import nz.ac.auckland.se206.gpt.openai.ServiceWarmup;
 import nz.ac.auckland.se206.speech.TextToSpeech;
 import nz.ac.auckland.se206.utilities.KeyEventsHandler;
+import nz.ac.auckland.se206.utilities.TaskScope;
 import nz.ac.auckland.se206.utilities.Timer;
 
 /**
@@ -59,11 +68,27 @@ public class App extends Application {
         && GameState.currentRoom != AppUi.CONTROL) {
       System.out.println("stopping current TTS");
       GameState.tts.stop();
+
+      // Stop the puzzle's GPT calls, so they do not write into it once it is gone
+      TaskScope.of(GameState.currentRoom).close();
+    }
+
+    // Write out the GPT usage of the game once it is over, and stop anything still running
+    if (newUi == AppUi.WINNING || newUi == AppUi.LOSING) {
+      TaskScope.closeAll();
+      UsageLedger.Totals usage = UsageLedger.getDefault().endSession(newUi.name());
+      System.out.println("GPT usage this game: " + usage);
+
+      // The room conversation is over, so it is no longer kept for the next game
+      RoomController.endConversation();
     }
 
     // Set the new room
     GameState.currentRoom = newUi;
     scene.setRoot(SceneManager.getUi(newUi));
+
+    // Get the hint for the room ready in case the player asks for it
+    RoomController.prefetchHint();
   }
 
   /**
@@ -257,6 +282,9 @@ public class App extends Application {
    */
   @Override
   public void start(final Stage stage) throws Exception {
+    // Get the GPT client ready in the background while the scenes load
+    ServiceWarmup.getDefault().start();
+
     // Initialize the leaderboard
     LeaderboardManager.initialize();
 
@@ -297,6 +325,22 @@ public class App extends Application {
     stage.setOnCloseRequest(
         (WindowEvent event) -> {
           System.out.println("Application is closing.");
+
+          // Stop any outstanding GPT calls and release the pooled connections to the API proxy
+          ChatCompletionExecutor.shutdown();
+          ChatCompletionRequest.getDefaultService().close();
+          System.out.println(ResponseCache.getDefault().getStatistics());
+          System.out.println(ChatCompletionRequest.getSingleFlight().getStatistics());
+          System.out.println(
+              ChatCompletionRequest.getDefaultService().getScheduler().getStatistics());
+          System.out.println(
+              ChatCompletionRequest.getDefaultService().getRateLimiter().getStatistics());
+          System.out.println(Hedger.getDefault().getStatistics());
+          ConversationJournal.getDefault().close();
+          System.out.println(ConversationJournal.getDefault().getStatistics());
+          UsageLedger.getDefault().endSession("QUIT");
+          System.out.println(UsageLedger.getDefault().getStatistics());
+
           // close anything else
           System.exit(0);
         });
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import javafx.scene.Parent;
 import nz.ac.auckland.se206.constants.GameState;
+import nz.ac.auckland.se206.utilities.TaskScope;
 
 /**
  * This manager class contains methods for storing and switching between the different scenes in the
@@ -60,6 +61,9 @@ public class SceneManager {
 
     GameState.currentRoom = AppUi.MENU;
 
+    // Stop the work of the old scenes before they are replaced
+    TaskScope.closeAll();
+
     // will trigger exception on first time through each time
     try {
       sceneMap.remove(AppUi.OFFICE);
@@ -80,7 +80,7 @@ public class GameState {
   /** The number of hints the player currently has. Default is infinity (easy). */
   public static int hintCounter = Integer.MAX_VALUE;
 
-  /** The critical time at which GPT switches persona. */
+  /** The critical time at which GPT switches persona, and background GPT work is dropped. */
   public static int criticalTime = 30;
 
   /** Overlay opacity for the room interactions. */
@@ -1,8 +1,12 @@
 package nz.ac.auckland.se206.constants;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This constants class contains the boolean values of whether or not the player has interacted with
- * specific things in the game, which can also be reset by calling the reset method.
+ * specific things in the game, which can also be reset by calling the reset method. The values
+ * should be changed through the setters, so that listeners are told about the change.
  */
 public class Interactions {
   /** Indicates whether the desktop in the office room has been clicked or not. */
@@ -17,6 +21,72 @@ public class Interactions {
   /** Indicates whether the control keyboard in the control room has been clicked or not. */
   public static boolean isControlKeyboardClicked = false;
 
+  private static final List<Runnable> listeners = new ArrayList<>();
+
+  /**
+   * Adds a listener that is called whenever one of the interactions changes.
+   *
+   * @param listener the listener to be called.
+   */
+  public static void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Sets whether the desktop in the office room has been clicked.
+   *
+   * @param isClicked whether the desktop has been clicked.
+   */
+  public static void setDesktopClicked(boolean isClicked) {
+    if (isDesktopClicked != isClicked) {
+      isDesktopClicked = isClicked;
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Sets whether the circuit box in the breaker room has been clicked.
+   *
+   * @param isClicked whether the circuit box has been clicked.
+   */
+  public static void setCircuitBoxClicked(boolean isClicked) {
+    if (isCircuitBoxClicked != isClicked) {
+      isCircuitBoxClicked = isClicked;
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Sets whether the control panel in the control room has been clicked.
+   *
+   * @param isClicked whether the control panel has been clicked.
+   */
+  public static void setControlPanelClicked(boolean isClicked) {
+    if (isControlPanelClicked != isClicked) {
+      isControlPanelClicked = isClicked;
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Sets whether the control keyboard in the control room has been clicked.
+   *
+   * @param isClicked whether the control keyboard has been clicked.
+   */
+  public static void setControlKeyboardClicked(boolean isClicked) {
+    if (isControlKeyboardClicked != isClicked) {
+      isControlKeyboardClicked = isClicked;
+      notifyListeners();
+    }
+  }
+
+  /** Tell every listener that one of the interactions has changed. */
+  private static void notifyListeners() {
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
   /** Reset all variables to be resetted in this class to their initial value. */
   public static void reset() {
     // Reset desktop clicked
@@ -30,5 +100,8 @@ public class Interactions {
 
     // reset control keybooard clicked
     isControlKeyboardClicked = false;
+
+    // Tell the listeners once everything has been reset
+    notifyListeners();
   }
 }
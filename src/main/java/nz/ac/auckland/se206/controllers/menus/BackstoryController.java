@@ -12,6 +12,10 @@ import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
 import nz.ac.auckland.se206.constants.Instructions;
 import nz.ac.auckland.se206.constants.Interactions;
+import nz.ac.auckland.se206.controllers.rooms.RoomController;
+import nz.ac.auckland.se206.gpt.HintPrefetcher;
+import nz.ac.auckland.se206.gpt.RiddlePool;
+import nz.ac.auckland.se206.gpt.UsageLedger;
 import nz.ac.auckland.se206.utilities.Timer;
 
 /**
@@ -50,6 +54,11 @@ public class BackstoryController {
   private void startGame() {
     resetGlobalVariables();
 
+    // End the conversation of the last game played since launch, so this game starts a new one
+    if (RoomController.hasConversation()) {
+      RoomController.endConversation();
+    }
+
     try {
       SceneManager.onResetLevel();
     } catch (IOException e) {
@@ -69,6 +78,15 @@ public class BackstoryController {
     // Initialize the hint counter components
     HintManager.initializeHintCounter();
 
+    // Start counting the GPT usage of this game
+    UsageLedger.getDefault().startSession();
+
+    // Start generating the riddles now, so they are ready by the time the player gets to them
+    RiddlePool.getDefault().startGame();
+
+    // Drop any hints prefetched for the last game
+    HintPrefetcher.getDefault().cancelAll();
+
     // Change scene to office
     App.setUi(AppUi.OFFICE);
   }
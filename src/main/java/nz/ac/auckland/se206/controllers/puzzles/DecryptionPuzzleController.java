@@ -2,12 +2,13 @@ package nz.ac.auckland.se206.controllers.puzzles;
 
 import java.lang.reflect.Field;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.IntStream;
 import javafx.animation.Animation;
 import javafx.animation.AnimationTimer;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
-import javafx.concurrent.Task;
+import javafx.application.Platform;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.scene.Cursor;
@@ -37,12 +38,18 @@ import nz.ac.auckland.se206.constants.Instructions;
 import nz.ac.auckland.se206.constants.Sequence;
 import nz.ac.auckland.se206.gpt.ChatMessage;
 import nz.ac.auckland.se206.gpt.GptPromptEngineering;
+import nz.ac.auckland.se206.gpt.ResponseCache;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Choice;
+import nz.ac.auckland.se206.gpt.openai.Hedger;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+import nz.ac.auckland.se206.utilities.FxContinuation;
 import nz.ac.auckland.se206.utilities.KeyEventsHandler;
 import nz.ac.auckland.se206.utilities.Number;
 import nz.ac.auckland.se206.utilities.Printer;
+import nz.ac.auckland.se206.utilities.TaskScope;
 import nz.ac.auckland.se206.utilities.Timer;
 
 /**
@@ -140,6 +147,7 @@ public class DecryptionPuzzleController {
   private Timeline loadingTime;
 
   private ChatCompletionRequest gptRequest;
+  private boolean isHintStreaming;
 
   /**
    * This method initialises the decryption puzzle.
@@ -457,6 +465,12 @@ public class DecryptionPuzzleController {
     // initialize an instance of GPT request
     gptRequest = new ChatCompletionRequest();
 
+    // count the usage of the request against the decryption hints
+    gptRequest.setCaller(Caller.DECRYPTION_HINT);
+
+    // the player is stuck until the hint arrives
+    gptRequest.setPriority(Priority.PLAYER_BLOCKING);
+
     // set the 'n' parameter for the request -> has to be '1'
     gptRequest.setN(1);
 
@@ -468,6 +482,9 @@ public class DecryptionPuzzleController {
 
     // set the max tokens -> has to be at least '1'
     gptRequest.setMaxTokens(100);
+
+    // hints only depend on the pseudocode and line, so repeated hints are served from the cache
+    gptRequest.setCache(ResponseCache.getDefault());
   }
 
   /** Initialize the memory grid (for visual effects). */
@@ -713,50 +730,41 @@ public class DecryptionPuzzleController {
    * Generate a response from GPT.
    *
    * @param entityMessage the chat message to be sent to GPT.
+   * @param fallbackHint the hint to show if GPT keeps the player waiting.
    */
-  private void getChatResponse(ChatMessage entityMessage) {
+  private void getChatResponse(ChatMessage entityMessage, String fallbackHint) {
     // Initialize the loading bar
     initializeLoadingBar();
 
     // Add user input to GPT's user input history
     gptRequest.addMessage(entityMessage);
 
-    // Create a concurrent task for handling GPT response
-    Task<Void> gptTask =
-        new Task<Void>() {
-          @Override
-          protected Void call() throws Exception {
-            // Set GPT's response
-            setChatResponse();
-            return null;
-          }
-        };
-
-    // If the task is running, disable certain components
-    gptTask.setOnRunning(
-        event -> {
-          disableComponents();
-        });
-
-    // If the task succeeds, then enable components and finish loading bar
-    gptTask.setOnSucceeded(
-        event -> {
+    // Disable certain components while the hint is generated
+    disableComponents();
+
+    // Stream GPT's response in the background, printing each token on the FX application thread,
+    // and hedge it if it is slow to start
+    isHintStreaming = false;
+    CompletableFuture<ChatCompletionResult> gptResponse =
+        Hedger.getDefault()
+            .executeStreaming(
+                gptRequest,
+                token -> Platform.runLater(() -> printHintToken(token)),
+                () -> fallbackHint);
+    FxContinuation.onFxThread(
+        TaskScope.of(AppUi.DECRYPTION).track(gptRequest, gptResponse),
+        gptResult -> {
+          setChatResponse(gptResult);
           completeLoadingBar();
           enableComponents();
-        });
-
-    // If the task fails, then enable components and finish loading bar
-    gptTask.setOnFailed(
-        event -> {
+        },
+        error -> {
+          if (isHintStreaming) {
+            Printer.finishStreamedText();
+          }
           completeLoadingBar();
           enableComponents();
         });
-
-    // Create a thread to handle GPT concurrency
-    Thread gptThread = new Thread(gptTask);
-
-    // Start the thread
-    gptThread.start();
   }
 
   /** Generate a GPT response. GPT should give a hint for the current pseudocode. */
@@ -776,8 +784,8 @@ public class DecryptionPuzzleController {
     // Initialize a user hint message compatible for GPT to analyze
     ChatMessage userHintMessage = new ChatMessage("assistant", hint);
 
-    // Get GPT's response
-    getChatResponse(userHintMessage);
+    // Get GPT's response, or point out the line if GPT keeps the player waiting
+    getChatResponse(userHintMessage, "Take another look at line " + lineNumber + ".");
 
     // Update the hint index
     hintIndex = (hintIndex + 1) % GameState.maxSequence;
@@ -871,12 +879,9 @@ public class DecryptionPuzzleController {
   /**
    * Set the chat response from GPT. This includes printing the response to the text area.
    *
-   * @throws Exception thrown when we fail to retrieve a response from GPT.
+   * @param gptResult the result retrieved from GPT.
    */
-  private void setChatResponse() throws Exception {
-    // Get GPT's response
-    ChatCompletionResult gptResult = gptRequest.execute();
-
+  private void setChatResponse(ChatCompletionResult gptResult) {
     // Get GPT's choice
     Choice gptChoice = gptResult.getChoices().iterator().next();
 
@@ -886,8 +891,12 @@ public class DecryptionPuzzleController {
     // Get the content of gpt's message in the form of a string
     String gptOutput = gptMessage.getContent();
 
-    // Append the result to the text area
-    printHint(gptOutput);
+    // If the hint was streamed it is already printing, otherwise append it to the text area
+    if (isHintStreaming) {
+      Printer.finishStreamedText();
+    } else {
+      printHint(gptOutput);
+    }
   }
 
   /**
@@ -1249,6 +1258,23 @@ public class DecryptionPuzzleController {
     Printer.printText(taChat, hint, Instructions.printSpeed);
   }
 
+  /**
+   * Print the next token of a hint that is being streamed from GPT to the chat.
+   *
+   * @param token the next piece of the hint.
+   */
+  private void printHintToken(String token) {
+    // Start printing the hint when the first token arrives
+    if (!isHintStreaming) {
+      isHintStreaming = true;
+      taChat.clear();
+      Printer.startStreamedText(taChat, Instructions.printSpeed);
+    }
+
+    // Print the token after the rest of the hint
+    Printer.appendStreamedText(token);
+  }
+
   /** Complete the loading bar. This should be called when the hint is generated by GPT. */
   private void completeLoadingBar() {
     // Stop the loading bar timeline
@@ -5,10 +5,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import javafx.animation.KeyFrame;
 import javafx.animation.KeyValue;
 import javafx.animation.Timeline;
-import javafx.concurrent.Task;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -32,10 +32,17 @@ import nz.ac.auckland.se206.constants.GameState;
 import nz.ac.auckland.se206.constants.GameState.Difficulty;
 import nz.ac.auckland.se206.gpt.ChatMessage;
 import nz.ac.auckland.se206.gpt.GptPromptEngineering;
+import nz.ac.auckland.se206.gpt.ResponseCache;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Choice;
+import nz.ac.auckland.se206.gpt.openai.ChatProvider;
+import nz.ac.auckland.se206.gpt.openai.Hedger;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+import nz.ac.auckland.se206.utilities.FxContinuation;
 import nz.ac.auckland.se206.utilities.LogicGate;
+import nz.ac.auckland.se206.utilities.TaskScope;
 import nz.ac.auckland.se206.utilities.Timer;
 import nz.ac.auckland.se206.utilities.Wire;
 
@@ -44,6 +51,11 @@ import nz.ac.auckland.se206.utilities.Wire;
  * puzzle.
  */
 public class LogicGatePuzzleController {
+  // the hint shown if GPT keeps the player waiting for one
+  private static final String FALLBACK_HINT =
+      "Work backwards from the last gate: find the inputs that make it output true, then pick the"
+          + " gates before it that give those inputs.";
+
   @FXML private Label lblTimer;
   @FXML private Label lblHintCounter;
 
@@ -269,6 +281,9 @@ public class LogicGatePuzzleController {
     // initialize an instance of GPT request
     gptRequest = new ChatCompletionRequest();
 
+    // count the usage of the request against the logic gate chat
+    gptRequest.setCaller(Caller.LOGIC_GATE_CHAT);
+
     // set the 'n' parameter for the request -> has to be '1'
     gptRequest.setN(1);
 
@@ -281,8 +296,11 @@ public class LogicGatePuzzleController {
     // set the max tokens -> has to be at least '1'
     gptRequest.setMaxTokens(100);
 
+    // the greeting is the same every time, so serve it from the cache
+    gptRequest.setCache(ResponseCache.getDefault());
+
     // get a response from GPT to setup the chat
-    getChatResponse(gptMessage, tfTextInput);
+    getChatResponse(gptMessage, tfTextInput, Priority.BACKGROUND, null);
   }
 
   /**
@@ -316,10 +334,20 @@ public class LogicGatePuzzleController {
    *
    * @param gptMessage the GPT input prompt.
    * @param item the input object.
+   * @param priority how urgently the player needs the response.
+   * @param fallbackReply the reply to show if GPT keeps the player waiting, or null to wait.
    */
-  private void getChatResponse(ChatMessage gptMessage, Object item) {
+  private void getChatResponse(
+      ChatMessage gptMessage, Object item, Priority priority, String fallbackReply) {
     // add user input to GPT's user input history
     gptRequest.addMessage(gptMessage);
+    gptRequest.setPriority(priority);
+
+    // filler chatter may be answered locally, while anything the player needs stays remote
+    gptRequest.setProvider(
+        (priority == Priority.BACKGROUND)
+            ? ChatProvider.getFillerDefault()
+            : ChatProvider.getDefault());
 
     // disable input
     if (item != null) {
@@ -333,57 +361,49 @@ public class LogicGatePuzzleController {
       }
     }
 
-    // create a concurrent task for handling GPT response
-    Task<Void> gptTask =
-        new Task<Void>() {
-          @Override
-          protected Void call() throws Exception {
-
-            // set GPT's response
-            System.out.println(this.toString());
-            setChatResponse();
-            return null;
-          }
-        };
-
-    // create a thread to handle GPT concurrency
-    Thread gptThread = new Thread(gptTask);
-
-    gptTask.setOnRunning(
-        event -> {
-          startLoadingBar();
-        });
+    // start the loading animation while GPT is thinking
+    startLoadingBar();
 
-    // set text field to enabled on failed
-    gptTask.setOnFailed(
-        event -> {
-          pgbGptThinking.setVisible(false);
-          if (item != null) {
-
-            if (item instanceof TextField) {
-              toggleTextField((TextField) item);
-            } else {
-              toggleButton((Polygon) item);
-            }
-          }
-        });
+    // get GPT's response in the background, hedging it if the player is waiting on it
+    CompletableFuture<ChatCompletionResult> gptResponse =
+        (fallbackReply == null)
+            ? gptRequest.executeAsync()
+            : Hedger.getDefault().execute(gptRequest, () -> fallbackReply);
+
+    // the rest of the conversation is unique, so stop caching once the greeting has settled,
+    // even if it failed, so that the player's messages are never cached
+    gptResponse.whenComplete((gptResult, error) -> gptRequest.setCache(null));
 
-    // set text field to enabled on succeeded
-    gptTask.setOnSucceeded(
-        event -> {
+    // then show it on the FX application thread
+    FxContinuation.onFxThread(
+        TaskScope.of(AppUi.LOGIC_PUZZLE).track(gptRequest, gptResponse),
+        gptResult -> {
+          setChatResponse(gptResult);
           pgbGptThinking.setVisible(false);
-          if (item != null) {
-
-            if (item instanceof TextField) {
-              toggleTextField((TextField) item);
-            } else {
-              toggleButton((Polygon) item);
-            }
-          }
+          enableInput(item);
+        },
+        error -> {
+          pgbGptThinking.setVisible(false);
+          enableInput(item);
         });
+  }
 
-    // start the thread
-    gptThread.start();
+  /**
+   * This method re-enables the input object that was disabled while waiting for GPT.
+   *
+   * @param item the input object, or null if there is none.
+   */
+  private void enableInput(Object item) {
+    if (item == null) {
+      return;
+    }
+
+    // set text field or button to enabled
+    if (item instanceof TextField) {
+      toggleTextField((TextField) item);
+    } else {
+      toggleButton((Polygon) item);
+    }
   }
 
   /**
@@ -405,12 +425,9 @@ public class LogicGatePuzzleController {
   /**
    * Set the chat response from GPT. This includes printing the response to the text area.
    *
-   * @throws Exception thrown when we fail to retrieve a response from GPT.
+   * @param gptResult the result retrieved from GPT.
    */
-  private void setChatResponse() throws Exception {
-    // get GPT's response
-    ChatCompletionResult gptResult = gptRequest.execute();
-
+  private void setChatResponse(ChatCompletionResult gptResult) {
     // get GPT's choice
     Choice gptChoice = gptResult.getChoices().iterator().next();
 
@@ -453,7 +470,7 @@ public class LogicGatePuzzleController {
       taGptText.appendText(input + "\n\n");
 
       // get the gpt response
-      getChatResponse(inputMessage, tfTextInput);
+      getChatResponse(inputMessage, tfTextInput, Priority.INTERACTIVE, null);
     }
   }
 
@@ -851,7 +868,7 @@ public class LogicGatePuzzleController {
     taGptText.clear();
 
     // get the gpt response
-    getChatResponse(inputMessage, null);
+    getChatResponse(inputMessage, null, Priority.BACKGROUND, null);
 
     // debug message in console
     System.out.println("Logic Gate Puzzle Solved");
@@ -1325,8 +1342,8 @@ public class LogicGatePuzzleController {
     // clear the text area
     taGptText.clear();
 
-    // get the gpt response
-    getChatResponse(inputMessage, pgHint);
+    // get the gpt response, or a general hint if GPT keeps the player waiting
+    getChatResponse(inputMessage, pgHint, Priority.PLAYER_BLOCKING, FALLBACK_HINT);
   }
 
   /**
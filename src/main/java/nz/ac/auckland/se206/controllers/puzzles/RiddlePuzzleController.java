@@ -1,11 +1,11 @@
 package nz.ac.auckland.se206.controllers.puzzles;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
-import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
@@ -25,12 +25,17 @@ import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
 import nz.ac.auckland.se206.constants.GameState.Difficulty;
 import nz.ac.auckland.se206.gpt.ChatMessage;
-import nz.ac.auckland.se206.gpt.GptPromptEngineering;
+import nz.ac.auckland.se206.gpt.Riddle;
+import nz.ac.auckland.se206.gpt.RiddleParser;
+import nz.ac.auckland.se206.gpt.RiddlePool;
 import nz.ac.auckland.se206.gpt.openai.ApiProxyException;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Choice;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
 import nz.ac.auckland.se206.speech.TextToSpeech;
+import nz.ac.auckland.se206.utilities.FxContinuation;
+import nz.ac.auckland.se206.utilities.TaskScope;
 import nz.ac.auckland.se206.utilities.Timer;
 
 /**
@@ -73,8 +78,6 @@ public class RiddlePuzzleController {
   private boolean btn3Pressed = false;
   private boolean getHint = false;
   private boolean isThinking = false;
-  private int number1;
-  private int number2;
   private String eyes = "Nasser";
 
   private TextToSpeech tts;
@@ -204,140 +207,61 @@ public class RiddlePuzzleController {
     // as the gpt response may come back after the player has backed out of room
   }
 
-  /**
-   * Generates a random number between 0 and 20, excluding the two numbers used in the previous
-   * riddle.
-   *
-   * @return the random number.
-   */
-  private int getRandomNumber() {
-    int randomNumber = (int) (Math.random() * 20);
-    while (number1 == randomNumber || number2 == randomNumber) {
-      randomNumber = (int) (Math.random() * 20);
-    }
-    return randomNumber;
-  }
-
-  /**
-   * Loads a riddle from the GPT model.
-   *
-   * @throws ApiProxyException if there is an error communicating with the API proxy.
-   */
+  /** Loads the next riddle from the riddle pool, which has usually generated it already. */
   private void loadRiddle() {
-    // Select a concept from the list of concepts
-    String[] concepts = {
-      "Ethics",
-      "Privacy",
-      "Bias",
-      "Consent",
-      "Empathy",
-      "Human Rights",
-      "Justice",
-      "Equality",
-      "Emotions",
-      "Prejudice",
-      "Religion",
-      "Purpose",
-      "Loyalty",
-      "Integrity",
-      "Inclusion",
-      "Diversity",
-      "Stewardship",
-      "Sustainability",
-      "Animal Welfare",
-      "Racial Profiling"
-    };
-
-    // Generate a random number
-    int randomNumber = getRandomNumber();
-
-    // Set the number to be used in the next riddle
-    String concept = concepts[randomNumber];
-
-    // Generate a loading message
-    appendChatMessage("Generating riddle " + (GameState.riddlesSolved + 1) + " of 3...");
-
-    // Create a new thread to run the GPT model
-    Task<Void> generateRiddle =
-        new Task<>() {
-          @Override
-          protected Void call() throws Exception {
-            System.out.println("Task.call method: " + Thread.currentThread().getName());
-            // Create a new chat completion request
-            chatCompletionRequest =
-                new ChatCompletionRequest()
-                    .setN(1)
-                    .setTemperature(0.2)
-                    .setTopP(0.5)
-                    .setMaxTokens(100);
-            ChatMessage gptResponse =
-                runGpt(new ChatMessage("user", GptPromptEngineering.getRiddlePuzzle(concept)));
-            System.out.println(gptResponse.getContent());
-            // If the response is from the assistant, process the output
-            if (gptResponse != null && gptResponse.getRole().equals("assistant")) {
-              processGptOutputForButtons(gptResponse.getContent(), concept);
-            } else {
-              // If GPT does not provide options in the correct format, generate them manually
-              answer1 = concept;
-              answer2 = concepts[(randomNumber + 1) % 20];
-              answer3 = concepts[(randomNumber + 2) % 20];
-            }
-            // Update the UI thread
-            Platform.runLater(
-                () -> {
-                  appendChatMessage(chat);
-                  answer1Property.set(answer1);
-                  answer2Property.set(answer2);
-                  answer3Property.set(answer3);
-                  btn1Pressed = false;
-                  btn2Pressed = false;
-                  btn3Pressed = false;
-                  btnAnswer1.setDisable(false);
-                  btnAnswer2.setDisable(false);
-                  btnAnswer3.setDisable(false);
-                  pgHint.setDisable(false);
-                });
-            return null;
-          }
+    CompletableFuture<Riddle> nextRiddle = RiddlePool.getDefault().take();
 
-          /*
-           * Notify if the API call succeeded
-           */
-          @Override
-          protected void succeeded() {
-            super.succeeded();
-            System.out.println("Successfully loaded");
-          }
+    // Generate a loading message if the riddle is not ready yet
+    if (!nextRiddle.isDone()) {
+      appendChatMessage("Generating riddle " + (GameState.riddlesSolved + 1) + " of 3...");
+    }
 
-          /*
-           * Notify if the API call failed
-           */
-          @Override
-          protected void failed() {
-            super.failed();
-            System.out.println("Failed to load");
-            loadRiddle();
-          }
-        };
+    startThinking();
 
-    generateRiddle.setOnRunning(
-        event -> {
-          startThinking();
-        });
-
-    generateRiddle.setOnSucceeded(
-        event -> {
+    // Update the UI thread, leaving the riddle itself alone if the player leaves the puzzle
+    FxContinuation.onFxThread(
+        TaskScope.of(AppUi.RIDDLE).track(nextRiddle.copy()),
+        riddle -> {
           stopThinking();
-        });
-
-    generateRiddle.setOnFailed(
-        event -> {
+          System.out.println("Successfully loaded");
+
+          // Carry on the conversation the riddle was generated in
+          chatCompletionRequest = riddle.conversation();
+          currentRiddle = riddle.text();
+          chat = currentRiddle;
+          answer1 = riddle.answer1();
+          answer2 = riddle.answer2();
+          answer3 = riddle.answer3();
+
+          appendChatMessage(chat);
+          answer1Property.set(answer1);
+          answer2Property.set(answer2);
+          answer3Property.set(answer3);
+          btn1Pressed = false;
+          btn2Pressed = false;
+          btn3Pressed = false;
+          btnAnswer1.setDisable(false);
+          btnAnswer2.setDisable(false);
+          btnAnswer3.setDisable(false);
+          pgHint.setDisable(false);
+        },
+        error -> {
           stopThinking();
-        });
+          System.out.println("Failed to load: " + error.getMessage());
+
+          // Do not try again once the player has left the puzzle, but keep the riddle for when
+          // they come back, and let them ask for it again
+          if (error instanceof CancellationException) {
+            RiddlePool.getDefault().putBack(nextRiddle);
+            appendChatMessage("Press the 'Next Riddle' button to carry on!");
+            paNext.setDisable(false);
+            return;
+          }
 
-    // Start the thread
-    Thread newThread = new Thread(generateRiddle, "New Thread");
-    newThread.start();
+          // Try again shortly, giving the proxy time to recover rather than failing in a loop
+          Timeline retry = new Timeline(new KeyFrame(Duration.seconds(3), event -> loadRiddle()));
+          retry.play();
+        });
   }
 
   /** starting thinking and set the thinking components to visible. */
@@ -359,87 +283,41 @@ public class RiddlePuzzleController {
   }
 
   /**
-   * Runs the GPT model with a given chat message.
+   * Runs the GPT model with a given chat message in the background.
    *
    * @param msg the chat message to process
-   * @return the response chat message
-   * @throws ApiProxyException if there is an error communicating with the API proxy
+   * @return a future for the response chat message, which fails if there is an error communicating
+   *     with the API proxy
    */
-  private ChatMessage runGpt(ChatMessage msg) throws ApiProxyException {
+  private CompletableFuture<ChatMessage> runGpt(ChatMessage msg) {
     chatCompletionRequest.addMessage(msg);
-    // Send the message to the GPT model
-    try {
-      ChatMessage riddle = null;
-      ChatCompletionResult chatCompletionResult = chatCompletionRequest.execute();
-      Choice result = chatCompletionResult.getChoices().iterator().next();
-      chatCompletionRequest.addMessage(result.getChatMessage());
-      // Format the ridddle correctly
-      if (result.getChatMessage().getRole().equals("assistant")
-          && result.getChatMessage().getContent().startsWith("Riddle:")) {
-        if (result.getChatMessage().getContent().indexOf('^') != 1) {
-          riddle =
-              new ChatMessage(
-                  "assistant",
-                  result
-                      .getChatMessage()
-                      .getContent()
-                      .substring(
-                          result.getChatMessage().getContent().indexOf(':') + 1,
-                          result.getChatMessage().getContent().indexOf('^')));
-        }
-        currentRiddle = riddle.getContent();
-        chat = currentRiddle;
-      } else {
-        chat = result.getChatMessage().getContent();
-      }
-      return result.getChatMessage();
-    } catch (ApiProxyException e) {
-      // TODO handle exception appropriately
-      e.printStackTrace();
-      return null;
-    }
+    // Send the message to the GPT model, ahead of background work as the player is waiting on it
+    chatCompletionRequest.setPriority(Priority.PLAYER_BLOCKING);
+    return TaskScope.of(AppUi.RIDDLE)
+        .track(chatCompletionRequest, chatCompletionRequest.executeAsync())
+        .thenApply(this::processGptResult);
   }
 
   /**
-   * Processes the output from the GPT model to generate the buttons.
+   * Adds the result of the GPT model to the conversation and formats the riddle.
    *
-   * @param gptOutput the output from the GPT model
-   * @param concept the concept to be used in the riddle
+   * @param chatCompletionResult the result from the GPT model
+   * @return the response chat message
    */
-  private void processGptOutputForButtons(String gptOutput, String concept) {
-    String[] segments = gptOutput.split("\\}");
-    int randomNumber = (int) (Math.random() * 3);
-    boolean conceptPresent = false;
-
-    // Check if the concept is already present in the options
-    for (int i = 0; i < segments.length; i++) {
-      if (segments[i].contains(concept)) {
-        conceptPresent = true;
-      }
-    }
-
-    // If the concept is not present, add it to the options
-    if (!conceptPresent) {
-      segments[randomNumber] = concept;
-    }
-
-    // Change the answer options to the options generated by GPT
-    if (segments.length >= 2) {
-      answer1 =
-          segments[(0 + randomNumber) % 3].substring(
-              segments[(0 + randomNumber) % 3].lastIndexOf("{") + 1);
-      answer2 =
-          segments[(1 + randomNumber) % 3].substring(
-              segments[(1 + randomNumber) % 3].lastIndexOf("{") + 1);
-      answer3 =
-          segments[(2 + randomNumber) % 3].substring(
-              segments[(2 + randomNumber) % 3].lastIndexOf("{") + 1);
+  private ChatMessage processGptResult(ChatCompletionResult chatCompletionResult) {
+    Choice result = chatCompletionResult.getChoices().iterator().next();
+    chatCompletionRequest.addMessage(result.getChatMessage());
+    // Format the ridddle correctly
+    RiddleParser riddle = RiddleParser.parse(result.getChatMessage().getContent());
+    if (result.getChatMessage().getRole().equals("assistant")
+        && result.getChatMessage().getContent().startsWith(RiddleParser.LABEL)
+        && riddle.getText() != null) {
+      currentRiddle = riddle.getText();
+      chat = currentRiddle;
     } else {
-      // If GPT does not provide options in the correct format, generate them manually
-      answer1 = concept;
-      answer2 = "Death";
-      answer3 = "Culture";
+      chat = result.getChatMessage().getContent();
     }
+    return result.getChatMessage();
   }
 
   /*
@@ -452,8 +330,9 @@ public class RiddlePuzzleController {
     Button clickedButton = (Button) event.getSource();
     // Get the text from the button
     String buttonText = clickedButton.getText();
+    boolean isGuess = !getHint;
 
-    if (!getHint) {
+    if (isGuess) {
       // Set the button pressed to true
       if (buttonText.equals(answer1)) {
         btn1Pressed = true;
@@ -478,83 +357,92 @@ public class RiddlePuzzleController {
       appendChatMessage("Analysing your input...");
     }
 
-    // Create a new thread to run the GPT model
-    Task<Void> buttonClickTask =
-        new Task<>() {
-          @Override
-          protected Void call() throws Exception {
-            ChatMessage responseMsg;
-            // Send the button text as a response to GPT
-            System.out.println(buttonText);
-            startThinking();
-            if (getHint) {
-              responseMsg = runGpt(new ChatMessage("user", "Define: " + buttonText));
-              System.out.println(responseMsg.getContent());
-              chat = responseMsg.getContent();
-              getHint = false;
+    // Send the button text as a response to GPT
+    System.out.println(buttonText);
+    startThinking();
+    ChatMessage requestMsg;
+    if (getHint) {
+      requestMsg = new ChatMessage("user", "Define: " + buttonText);
+      getHint = false;
+    } else {
+      requestMsg = new ChatMessage("user", "Is it " + buttonText);
+    }
+
+    // Update UI based on the response
+    FxContinuation.onFxThread(
+        runGpt(requestMsg),
+        responseMsg -> {
+          System.out.println(responseMsg.getContent());
+          chat = responseMsg.getContent();
+          stopThinking();
+          // If the response is from the assistant and the answer is correct, update the
+          // number of riddles solved
+          if (responseMsg.getRole().equals("assistant")
+              && responseMsg
+                  .getContent()
+                  .startsWith("Yes! That sounds right with my programming!")) {
+            AudioManager.loadAudio(Clip.RIDDLE_SOLVED);
+            GameState.riddlesSolved++;
+            if (GameState.riddlesSolved == 1 || GameState.riddlesSolved == 2) {
+              navigateProperty.set("Next Riddle");
+            }
+            // If all riddles are solved, update the navigate button text and thank the
+            // player
+            if (GameState.riddlesSolved == 3) {
+              navigateProperty.set("Exit Puzzle");
+              chat +=
+                  "\n\n"
+                      + "That is three riddles solved! Thank you for helping recalibrate my"
+                      + " drives.";
+            }
+            // Set the navigate button to be enabled if the riddle is solved
+            paNext.setDisable(false);
+          } else {
+            chat += "\n\n" + "Remember," + currentRiddle;
+            // If the answer is incorrect, enable the input buttons again for the other
+            // inputs
+            if (!btn1Pressed) {
+              AudioManager.loadAudio(Clip.WRONG);
+              btnAnswer1.setDisable(false);
+            }
+            if (!btn2Pressed) {
+              AudioManager.loadAudio(Clip.WRONG);
+              btnAnswer2.setDisable(false);
+            }
+            if (!btn3Pressed) {
+              AudioManager.loadAudio(Clip.WRONG);
+              btnAnswer3.setDisable(false);
+            }
+            if (GameState.riddlesSolved != 3) {
+              paNext.setDisable(true);
             } else {
-              responseMsg = runGpt(new ChatMessage("user", "Is it " + buttonText));
-              System.out.println(responseMsg.getContent());
-              chat = responseMsg.getContent();
+              paNext.setDisable(false);
             }
-            // Update UI based on the response
-            Platform.runLater(
-                () -> {
-                  stopThinking();
-                  // If the response is from the assistant and the answer is correct, update the
-                  // number of riddles solved
-                  if (responseMsg.getRole().equals("assistant")
-                      && responseMsg
-                          .getContent()
-                          .startsWith("Yes! That sounds right with my programming!")) {
-                    AudioManager.loadAudio(Clip.RIDDLE_SOLVED);
-                    GameState.riddlesSolved++;
-                    if (GameState.riddlesSolved == 1 || GameState.riddlesSolved == 2) {
-                      navigateProperty.set("Next Riddle");
-                    }
-                    // If all riddles are solved, update the navigate button text and thank the
-                    // player
-                    if (GameState.riddlesSolved == 3) {
-                      navigateProperty.set("Exit Puzzle");
-                      chat +=
-                          "\n\n"
-                              + "That is three riddles solved! Thank you for helping recalibrate my"
-                              + " drives.";
-                    }
-                    // Set the navigate button to be enabled if the riddle is solved
-                    paNext.setDisable(false);
-                  } else {
-                    chat += "\n\n" + "Remember," + currentRiddle;
-                    // If the answer is incorrect, enable the input buttons again for the other
-                    // inputs
-                    if (!btn1Pressed) {
-                      AudioManager.loadAudio(Clip.WRONG);
-                      btnAnswer1.setDisable(false);
-                    }
-                    if (!btn2Pressed) {
-                      AudioManager.loadAudio(Clip.WRONG);
-                      btnAnswer2.setDisable(false);
-                    }
-                    if (!btn3Pressed) {
-                      AudioManager.loadAudio(Clip.WRONG);
-                      btnAnswer3.setDisable(false);
-                    }
-                    if (GameState.riddlesSolved != 3) {
-                      paNext.setDisable(true);
-                    } else {
-                      paNext.setDisable(false);
-                    }
-                    pgHint.setDisable(false);
-                  }
-                  appendChatMessage(chat);
-                });
-            return null;
+            pgHint.setDisable(false);
           }
-        };
-
-    // Start the thread
-    Thread newThread = new Thread(buttonClickTask, "Button Click Thread");
-    newThread.start();
+          appendChatMessage(chat);
+        },
+        error -> {
+          stopThinking();
+          error.printStackTrace();
+
+          // The guess was never answered, so let the player make it again
+          if (isGuess) {
+            if (buttonText.equals(answer1)) {
+              btn1Pressed = false;
+            } else if (buttonText.equals(answer2)) {
+              btn2Pressed = false;
+            } else if (buttonText.equals(answer3)) {
+              btn3Pressed = false;
+            }
+          }
+          btnAnswer1.setDisable(btn1Pressed);
+          btnAnswer2.setDisable(btn2Pressed);
+          btnAnswer3.setDisable(btn3Pressed);
+          paNext.setDisable(GameState.riddlesSolved != 3);
+          pgHint.setDisable(false);
+          appendChatMessage("Remember," + currentRiddle);
+        });
   }
 
   @FXML
@@ -102,7 +102,7 @@ public class BreakerRoomController extends RoomController {
   @FXML
   private void onCircuitBoxClicked() {
     // We should not give anymore hints for clicking on the circuit box
-    Interactions.isCircuitBoxClicked = true;
+    Interactions.setCircuitBoxClicked(true);
 
     // Switch to the logic gate puzzle
     App.setUi(AppUi.LOGIC_PUZZLE);
@@ -118,14 +118,8 @@ public class BreakerRoomController extends RoomController {
   public void onHintClicked(MouseEvent mouseEvent) {
     super.onHintClicked(mouseEvent);
 
-    // If the circuit box has not been clicked on yet
-    if (!Interactions.isCircuitBoxClicked) {
-      getUserHint(false);
-      return;
-    }
-
-    // Tell the player that the room has been completed
-    getUserHint(true);
+    // Give the room hint, or tell the player that the room has been completed
+    getUserHint(isRoomComplete());
   }
 
   /** This method gets the hint for the breaker room. */
@@ -133,4 +127,24 @@ public class BreakerRoomController extends RoomController {
   protected String getRoomHint() {
     return GptPromptEngineering.getBreakerRoomHint();
   }
+
+  /**
+   * The breaker room is complete once the circuit box has been clicked on.
+   *
+   * @return whether the breaker room has been completed.
+   */
+  @Override
+  protected boolean isRoomComplete() {
+    return Interactions.isCircuitBoxClicked;
+  }
+
+  /**
+   * Returns the breaker room.
+   *
+   * @return the breaker room.
+   */
+  @Override
+  protected AppUi getRoom() {
+    return AppUi.BREAKER;
+  }
 }
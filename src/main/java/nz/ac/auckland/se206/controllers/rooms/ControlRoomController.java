@@ -208,27 +208,15 @@ public class ControlRoomController extends RoomController {
   public void onHintClicked(MouseEvent mouseEvent) {
     super.onHintClicked(mouseEvent);
 
-    // If the control panel has not been clicked on yet
-    if (!Interactions.isControlPanelClicked) {
-      getUserHint(false);
-      return;
-    }
-
-    // If the control keyboard has not been clicked on yet
-    if (!Interactions.isControlKeyboardClicked) {
-      getUserHint(false);
-      return;
-    }
-
-    // Tell the player that the room has been completed
-    getUserHint(true);
+    // Give the room hint, or tell the player that the room has been completed
+    getUserHint(isRoomComplete());
   }
 
   /** On mouse clicked, if the control panel is pressed, then switch to the terminal scene. */
   @FXML
   private void onControlPanelClicked() throws IOException {
     // We should not give anymore hints for clicking on the control panel
-    Interactions.isControlPanelClicked = true;
+    Interactions.setControlPanelClicked(true);
 
     // Initialize the terminal if player has not clicked on it before
     if (SceneManager.getUi(AppUi.TERMINAL) == null) {
@@ -248,7 +236,7 @@ public class ControlRoomController extends RoomController {
   @FXML
   private void onControlKeyboardClicked() {
     // We should not give anymore hints for clicking on the control keyboard
-    Interactions.isControlKeyboardClicked = true;
+    Interactions.setControlKeyboardClicked(true);
 
     // If all puzzles are solved, then we can terminate the AI
     if (KeyEventsHandler.isAllPuzzleSolved()) {
@@ -307,4 +295,25 @@ public class ControlRoomController extends RoomController {
   protected String getRoomHint() {
     return GptPromptEngineering.getControlRoomHint();
   }
+
+  /**
+   * The control room is complete once both the control panel and control keyboard have been
+   * clicked on.
+   *
+   * @return whether the control room has been completed.
+   */
+  @Override
+  protected boolean isRoomComplete() {
+    return Interactions.isControlPanelClicked && Interactions.isControlKeyboardClicked;
+  }
+
+  /**
+   * Returns the control room.
+   *
+   * @return the control room.
+   */
+  @Override
+  protected AppUi getRoom() {
+    return AppUi.CONTROL;
+  }
 }
@@ -102,7 +102,7 @@ public class GeneralOfficeController extends RoomController {
   @FXML
   public void onDesktopClicked(MouseEvent event) throws IOException {
     // We should not give anymore hints for clicking on the desktop
-    Interactions.isDesktopClicked = true;
+    Interactions.setDesktopClicked(true);
 
     if (!GameState.isRiddleResolved) {
       GameState.currentRoom = AppUi.RIDDLE;
@@ -122,14 +122,8 @@ public class GeneralOfficeController extends RoomController {
   public void onHintClicked(MouseEvent mouseEvent) {
     super.onHintClicked(mouseEvent);
 
-    // If the desktop has not been clicked on yet
-    if (!Interactions.isDesktopClicked) {
-      getUserHint(false);
-      return;
-    }
-
-    // Tell the player that the room has been completed
-    getUserHint(true);
+    // Give the room hint, or tell the player that the room has been completed
+    getUserHint(isRoomComplete());
   }
 
   /**
@@ -142,4 +136,24 @@ public class GeneralOfficeController extends RoomController {
   protected String getRoomHint() {
     return GptPromptEngineering.getOfficeRoomHint();
   }
+
+  /**
+   * The general office is complete once the desktop has been clicked on.
+   *
+   * @return whether the general office has been completed.
+   */
+  @Override
+  protected boolean isRoomComplete() {
+    return Interactions.isDesktopClicked;
+  }
+
+  /**
+   * Returns the general office.
+   *
+   * @return the general office.
+   */
+  @Override
+  protected AppUi getRoom() {
+    return AppUi.OFFICE;
+  }
 }
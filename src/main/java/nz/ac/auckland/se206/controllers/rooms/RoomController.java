@@ -1,12 +1,15 @@
 package nz.ac.auckland.se206.controllers.rooms;
 
 import java.io.FileInputStream;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
@@ -30,26 +33,92 @@ import nz.ac.auckland.se206.HintManager;
 import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
 import nz.ac.auckland.se206.constants.GameState.Difficulty;
+import nz.ac.auckland.se206.constants.Interactions;
 import nz.ac.auckland.se206.gpt.ChatMessage;
+import nz.ac.auckland.se206.gpt.ConversationJournal;
+import nz.ac.auckland.se206.gpt.ConversationWindow;
 import nz.ac.auckland.se206.gpt.GptPromptEngineering;
+import nz.ac.auckland.se206.gpt.HintPrefetcher;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
 import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Choice;
+import nz.ac.auckland.se206.gpt.openai.ChatProvider;
+import nz.ac.auckland.se206.gpt.openai.ChatStreamListener;
+import nz.ac.auckland.se206.gpt.openai.Hedger;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+import nz.ac.auckland.se206.utilities.FxContinuation;
+import nz.ac.auckland.se206.utilities.TaskScope;
 
 /**
  * The abstract controller for a generic room, which implements all the methods shared between the
  * breaker room, control room, and office room.
  */
 public abstract class RoomController {
+  // the name the shared room conversation is journaled under
+  private static final String CONVERSATION = "room-chat";
+
   private static StringProperty aiChatProperty = new SimpleStringProperty();
   private static StringProperty playerChatProperty = new SimpleStringProperty();
   private static StringProperty oldestChatProperty = new SimpleStringProperty();
   private static ChatCompletionRequest gptRequest;
+  private static Map<AppUi, RoomController> rooms = new EnumMap<>(AppUi.class);
+
+  static {
+    // Whenever the player does something, the hint for the room they are in may change
+    Interactions.addListener(RoomController::prefetchHint);
+  }
 
   protected static boolean isThinking = false;
   protected static String eyes = "Nasser";
   protected static boolean chatBubbleVisible = true;
 
+  private boolean isAiMessageStreaming = false;
+
+  /**
+   * Ends the conversation shared by the rooms once the game is over, so the next game starts a new
+   * one rather than carrying it on.
+   */
+  public static void endConversation() {
+    gptRequest = null;
+    ConversationJournal.getDefault().end(CONVERSATION);
+  }
+
+  /**
+   * Returns whether the rooms have started a conversation since the game was launched. A
+   * conversation restored from the journal only counts once the rooms have picked it up.
+   *
+   * @return whether there is a conversation.
+   */
+  public static boolean hasConversation() {
+    return gptRequest != null;
+  }
+
+  /**
+   * Adds a message to a conversation, journaling it if it is the current room conversation.
+   *
+   * @param request the conversation.
+   * @param message the message to add.
+   */
+  private static void addMessage(ChatCompletionRequest request, ChatMessage message) {
+    request.addMessage(message);
+    if (request == gptRequest) {
+      ConversationJournal.getDefault().append(CONVERSATION, message);
+    }
+  }
+
+  /**
+   * Starts generating the hint for the room the player is in, so it can be shown straight away when
+   * the player asks for it. This should be called when the player enters a room, and is called
+   * whenever the player does something that changes the hint.
+   */
+  public static void prefetchHint() {
+    RoomController room = rooms.get(GameState.currentRoom);
+    if (room != null) {
+      room.prefetchRoomHint();
+    }
+  }
+
   /**
    * Generates a GPT prompt engineering string for the case where the player has no more hints.
    *
@@ -95,6 +164,8 @@ public abstract class RoomController {
   /** This method initialiszes the room controller using a default method. */
   @FXML
   protected void initialize() {
+    // Register the room, so its hint can be prefetched when the player is in it
+    rooms.put(getRoom(), this);
 
     lblAiChat.textProperty().bind(aiChatProperty);
     aiChatProperty.set(GameState.currentAiMessage);
@@ -163,6 +234,11 @@ public abstract class RoomController {
    * allowed to have acronyms as method names as per the naming convention.
    */
   public void initializeChat() {
+    // the rooms share one conversation, which is only set up once a game
+    if (gptRequest != null) {
+      return;
+    }
+
     // initialize the chat message field
     ChatMessage gptMessage;
 
@@ -172,6 +248,9 @@ public abstract class RoomController {
     // initialize an instance of GPT request
     gptRequest = new ChatCompletionRequest();
 
+    // count the usage of the request against the room chat
+    gptRequest.setCaller(Caller.ROOM_CHAT);
+
     // set the 'n' parameter for the request -> has to be '1'
     gptRequest.setN(1);
 
@@ -184,70 +263,129 @@ public abstract class RoomController {
     // set the max tokens -> has to be at least '1'
     gptRequest.setMaxTokens(100);
 
-    // get a response from GPT to setup the chat
-    getChatResponse(gptMessage, false);
+    // keep the backstory, then only as many recent turns as fit in the token budget
+    gptRequest.setWindow(new ConversationWindow(1, 12, 1000));
+
+    // carry on the conversation of a game that was closed part way through, without asking GPT
+    List<ChatMessage> savedMessages = ConversationJournal.getDefault().restore(CONVERSATION);
+    if (!savedMessages.isEmpty()) {
+      savedMessages.forEach(gptRequest::addMessage);
+      System.out.println("Restored " + savedMessages.size() + " messages of the room chat");
+
+      // pick the persona up where it left off, counting GPT's replies after the setup message
+      GameState.backStoryUpdated = 0;
+      ChatMessage lastReply = null;
+      for (ChatMessage message : savedMessages.subList(1, savedMessages.size())) {
+        if (message.getRole().equals("assistant")) {
+          GameState.backStoryUpdated++;
+          lastReply = message;
+        }
+      }
+
+      // show what GPT said last, as the greeting is not asked for again
+      if (lastReply != null) {
+        setAiMessage(lastReply.getContent());
+      }
+      return;
+    }
+
+    // get a response from GPT to setup the chat, which is shown once complete
+    getChatResponse(gptMessage, null, false, Priority.BACKGROUND, null);
   }
 
   /**
-   * Generate a response from GPT.
+   * Generate a response from GPT. The response is streamed into the chat area as it arrives.
    *
    * @param entityMessage the chat message to be sent to GPT.
    */
   public void getChatResponse(ChatMessage entityMessage, boolean isHint) {
+    Priority priority = isHint ? Priority.PLAYER_BLOCKING : Priority.INTERACTIVE;
+    getChatResponse(entityMessage, null, true, priority, null);
+  }
+
+  /**
+   * Generate a response from GPT.
+   *
+   * @param entityMessage the chat message to be sent to GPT.
+   * @param fallbackReply the reply to show if GPT keeps the player waiting, or null to wait.
+   * @param isStreamed whether to show the response token by token as it arrives.
+   * @param priority how urgently the player needs the response.
+   * @param prefetchedHint the hint generated ahead of time, or null to ask GPT now.
+   */
+  private void getChatResponse(
+      ChatMessage entityMessage,
+      String fallbackReply,
+      boolean isStreamed,
+      Priority priority,
+      HintPrefetcher.Prefetch prefetchedHint) {
     // Disable all chat components
     disableChatComponents();
 
-    // add user input to GPT's user input history
-    gptRequest.addMessage(entityMessage);
-
-    // create a concurrent task for handling GPT response
-    Task<Void> gptTask =
-        new Task<Void>() {
-          @Override
-          protected Void call() throws Exception {
-            // Set GPT's response
-            setChatResponse();
-            return null;
-          }
-        };
+    // Capture the request, as another room may replace the shared one before this reply arrives
+    ChatCompletionRequest request = gptRequest;
 
-    // If the task is running, disable certain components
-    gptTask.setOnRunning(
-        event -> {
-          startThinking();
-        });
+    // add user input to GPT's user input history
+    addMessage(request, entityMessage);
+    request.setPriority(priority);
+
+    // Filler chatter may be answered locally, while anything the player needs stays remote
+    request.setProvider(
+        (priority == Priority.BACKGROUND)
+            ? ChatProvider.getFillerDefault()
+            : ChatProvider.getDefault());
+
+    // Disable certain components while GPT is thinking
+    startThinking();
+
+    // Get GPT's response in the background, streaming tokens to the FX application thread
+    isAiMessageStreaming = false;
+    ChatStreamListener listener = token -> Platform.runLater(() -> appendAiMessageToken(token));
+    CompletableFuture<ChatCompletionResult> gptResponse;
+    if (prefetchedHint != null) {
+      // Use the reply generated ahead of time, asking again if it failed or was cancelled
+      gptResponse = prefetchedHint.reply().exceptionallyCompose(error -> request.executeAsync());
+    } else if (isStreamed && fallbackReply != null) {
+      // Send the call again if it is slow to start, and fall back if it takes far too long
+      gptResponse = Hedger.getDefault().executeStreaming(request, listener, () -> fallbackReply);
+    } else if (isStreamed) {
+      gptResponse = request.executeStreamingAsync(listener);
+    } else {
+      gptResponse = request.executeAsync();
+    }
+    if (prefetchedHint != null && fallbackReply != null) {
+      gptResponse = Hedger.getDefault().race(request, gptResponse, () -> fallbackReply);
+
+      // Stop the prefetched call if the fallback wins, so it gives up its background slot
+      gptResponse.whenComplete(
+          (gptResult, error) -> {
+            if (!prefetchedHint.reply().isDone()) {
+              prefetchedHint.cancel();
+            }
+          });
+    }
 
-    // If the task succeeds, then enable components
-    gptTask.setOnSucceeded(
-        event -> {
+    // Update the chat on the FX application thread once the response is complete
+    FxContinuation.onFxThread(
+        TaskScope.of(getRoom()).track(request, gptResponse),
+        gptResult -> {
+          setChatResponse(request, gptResult);
           enableChatComponents();
           stopThinking();
-        });
-
-    // If the task fails
-    gptTask.setOnFailed(
-        event -> {
+        },
+        error -> {
           enableChatComponents();
           stopThinking();
-          System.out.println("FAILED TO GENERATE RESPONSE");
+          System.out.println("FAILED TO GENERATE RESPONSE: " + error.getMessage());
         });
-
-    // Create a thread to handle GPT concurrency
-    Thread gptThread = new Thread(gptTask);
-
-    // Start the thread
-    gptThread.start();
   }
 
   /**
    * Set the chat response from GPT. This includes printing the response to the text area.
    *
-   * @throws Exception thrown when we fail to retrieve a response from GPT.
+   * @param request the request the result was retrieved for.
+   * @param gptResult the result retrieved from GPT.
    */
-  private void setChatResponse() throws Exception {
-    // Get GPT's response
-    ChatCompletionResult gptResult = gptRequest.execute();
-
+  private void setChatResponse(ChatCompletionRequest request, ChatCompletionResult gptResult) {
     // Get GPT's choice
     Choice gptChoice = gptResult.getChoices().iterator().next();
 
@@ -258,14 +396,15 @@ public abstract class RoomController {
     String gptOutput = gptMessage.getContent();
 
     // Add the message to GPT's context
-    gptRequest.addMessage(gptMessage);
+    addMessage(request, gptMessage);
 
-    // Update the AI chat label on the FX application thread
-    Platform.runLater(
-        () -> {
-          setAiMessage(gptOutput);
-          GameState.backStoryUpdated++;
-        });
+    // Update the AI chat label, unless it has already been streamed in
+    if (isAiMessageStreaming) {
+      finishStreamedAiMessage(gptOutput);
+    } else {
+      setAiMessage(gptOutput);
+    }
+    GameState.backStoryUpdated++;
   }
 
   /**
@@ -528,14 +667,8 @@ public abstract class RoomController {
    * @param message the message to be set
    */
   protected void setAiMessage(String message) {
-    // Swap the order of the labels
-    swapLabelsOrder();
-
-    // If both the AI and player messages are not empty, then set the oldest chat to visible
-    if (GameState.currentAiMessage != "" && GameState.currentPlayerMessage != "") {
-      oldestChatProperty.set(GameState.currentAiMessage);
-      lblOldestChat.setVisible(true);
-    }
+    // Make room for the new message in the chat area
+    prepareAiMessage();
 
     // Set the AI message
     GameState.currentAiMessage = message;
@@ -543,7 +676,7 @@ public abstract class RoomController {
     // Ensure the tts on the first and second duplicate inital message do not play tts
     if (GameState.numberOfTextToSpeach != 1 && GameState.numberOfTextToSpeach != 2) {
       // Start tts on message
-      GameState.tts.speak(message, AppUi.OFFICE);
+      TaskScope.of(getRoom()).speak(message);
 
       // Set the AI chat label
       aiChatProperty.set(GameState.currentAiMessage);
@@ -552,6 +685,58 @@ public abstract class RoomController {
       GameState.numberOfTextToSpeach++;
     }
 
+    // Show the AI message
+    showAiMessage();
+  }
+
+  /**
+   * Appends the next token of an AI message that is being streamed from GPT. The first token starts
+   * a new message in the chat area.
+   *
+   * @param token the next piece of the message
+   */
+  private void appendAiMessageToken(String token) {
+    // Start a new message when the first token arrives
+    if (!isAiMessageStreaming) {
+      isAiMessageStreaming = true;
+      stopThinking();
+      prepareAiMessage();
+      aiChatProperty.set("");
+      showAiMessage();
+    }
+
+    // Render the token after the rest of the message
+    aiChatProperty.set(aiChatProperty.get() + token);
+  }
+
+  /**
+   * Completes an AI message that has been streamed from GPT.
+   *
+   * @param message the complete message
+   */
+  private void finishStreamedAiMessage(String message) {
+    // Set the AI message
+    GameState.currentAiMessage = message;
+    aiChatProperty.set(message);
+
+    // Start tts on the complete message
+    TaskScope.of(getRoom()).speak(message);
+  }
+
+  /** Moves the current AI message up the chat area to make room for a new one. */
+  private void prepareAiMessage() {
+    // Swap the order of the labels
+    swapLabelsOrder();
+
+    // If both the AI and player messages are not empty, then set the oldest chat to visible
+    if (GameState.currentAiMessage != "" && GameState.currentPlayerMessage != "") {
+      oldestChatProperty.set(GameState.currentAiMessage);
+      lblOldestChat.setVisible(true);
+    }
+  }
+
+  /** Shows the AI chat label and chat bubble. */
+  private void showAiMessage() {
     // Set the AI chat label to visible
     lblAiChat.setVisible(true);
 
@@ -611,15 +796,45 @@ public abstract class RoomController {
       return;
     }
 
+    // Initialize a user hint message compatible for GPT to analyze
+    String hintPrompt = getHintPrompt(isRoomSolved);
+    ChatMessage userHintMessage = new ChatMessage("assistant", hintPrompt);
+
+    // Get GPT's response, which has usually been prefetched already, or the hint as it is if GPT
+    // keeps the player waiting
+    HintPrefetcher.Prefetch prefetchedHint =
+        HintPrefetcher.getDefault().take(getRoom(), gptRequest, hintPrompt);
+    getChatResponse(
+        userHintMessage, getHint(isRoomSolved), true, Priority.PLAYER_BLOCKING, prefetchedHint);
+  }
+
+  /**
+   * Get the hint for the current room, before it is reworded by GPT.
+   *
+   * @param isRoomSolved whether the room is solved, which leaves no more hints to give.
+   * @return the hint.
+   */
+  private String getHint(boolean isRoomSolved) {
     // Get the hint based on the current room and whether the room is solved
-    String hint = (isRoomSolved ? getNoMoreHints() : getRoomHint());
+    return isRoomSolved ? getNoMoreHints() : getRoomHint();
+  }
 
-    // Initialize a user hint message compatible for GPT to analyze
-    ChatMessage userHintMessage =
-        new ChatMessage("assistant", GptPromptEngineering.addGetHint(hint));
+  /**
+   * Get the message asking GPT for a hint for the current room.
+   *
+   * @param isRoomSolved whether the room is solved, which leaves no more hints to give.
+   * @return the hint prompt.
+   */
+  private String getHintPrompt(boolean isRoomSolved) {
+    return GptPromptEngineering.addGetHint(getHint(isRoomSolved));
+  }
 
-    // Get GPT's response
-    getChatResponse(userHintMessage, true);
+  /** Start generating the hint for this room, unless the player can not ask for one. */
+  private void prefetchRoomHint() {
+    if (gptRequest == null || !isHintRetrievable()) {
+      return;
+    }
+    HintPrefetcher.getDefault().prefetch(getRoom(), gptRequest, getHintPrompt(isRoomComplete()));
   }
 
   /**
@@ -634,4 +849,19 @@ public abstract class RoomController {
 
   /** An abstract method that returns the room hint for the current room. */
   protected abstract String getRoomHint();
+
+  /**
+   * An abstract method that returns whether the player has done everything in the room, in which
+   * case there are no more hints to give.
+   *
+   * @return whether the room has been completed.
+   */
+  protected abstract boolean isRoomComplete();
+
+  /**
+   * An abstract method that returns which room this is.
+   *
+   * @return the room.
+   */
+  protected abstract AppUi getRoom();
 }
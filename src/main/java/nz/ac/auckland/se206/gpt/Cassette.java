@@ -0,0 +1,162 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records GPT responses to a file, and plays them back later without calling the API. Each line of
+ * the file holds the fingerprint of a request followed by a tab and the response, and new lines are
+ * only ever appended. When a request was recorded more than once its responses are played back in
+ * the order they were recorded, and the last one is repeated once they run out.
+ *
+ * <p>The cassette used by the game is chosen with the {@value #MODE_PROPERTY} system property
+ * ({@code off}, {@code record} or {@code replay}) and the {@value #FILE_PROPERTY} system property.
+ */
+public class Cassette {
+
+  /** The modes a cassette can be in. */
+  public enum Mode {
+    OFF,
+    RECORD,
+    REPLAY
+  }
+
+  /** The system property that sets the mode of the default cassette. */
+  public static final String MODE_PROPERTY = "gpt.cassette.mode";
+
+  /** The system property that sets the file of the default cassette. */
+  public static final String FILE_PROPERTY = "gpt.cassette.file";
+
+  private static final String DEFAULT_FILE = "gpt.cassette";
+
+  private static Cassette defaultCassette;
+
+  /**
+   * Returns the cassette chosen by the system properties, which is off unless they say otherwise.
+   *
+   * @return the default cassette
+   */
+  public static synchronized Cassette getDefault() {
+    if (defaultCassette == null) {
+      String property = System.getProperty(MODE_PROPERTY, Mode.OFF.name());
+      File file = new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+      Mode mode = Mode.OFF;
+      try {
+        mode = Mode.valueOf(property.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        System.out.println("Unknown GPT cassette mode '" + property + "', so it is off");
+      }
+
+      defaultCassette = new Cassette(mode, file);
+      if (mode != Mode.OFF) {
+        System.out.println("GPT cassette: " + mode + " " + file.getAbsolutePath());
+      }
+    }
+    return defaultCassette;
+  }
+
+  private final Mode mode;
+  private final File file;
+  private final Map<String, Deque<byte[]>> recordings = new HashMap<>();
+
+  /**
+   * Creates a cassette. A cassette in replay mode reads its recordings straight away.
+   *
+   * @param mode whether to record, replay, or do neither
+   * @param file the file the recordings are kept in
+   */
+  public Cassette(Mode mode, File file) {
+    this.mode = mode;
+    this.file = file;
+    if (mode == Mode.REPLAY) {
+      load();
+    }
+  }
+
+  /**
+   * Returns the mode of the cassette.
+   *
+   * @return the mode
+   */
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns whether responses are played back from the cassette instead of calling the API.
+   *
+   * @return true if replaying
+   */
+  public boolean isReplaying() {
+    return mode == Mode.REPLAY;
+  }
+
+  /**
+   * Plays back the next recorded response to a request.
+   *
+   * @param fingerprint the fingerprint of the request
+   * @return the recorded response, or null if the request was never recorded
+   */
+  public synchronized byte[] replay(String fingerprint) {
+    Deque<byte[]> responses = recordings.get(fingerprint);
+    if (responses == null) {
+      return null;
+    }
+
+    // Keep repeating the last response once the others have been played
+    return (responses.size() > 1) ? responses.poll() : responses.peek();
+  }
+
+  /**
+   * Appends a response to the cassette if it is recording.
+   *
+   * @param fingerprint the fingerprint of the request
+   * @param response the response, which must not contain line breaks
+   */
+  public synchronized void record(String fingerprint, byte[] response) {
+    if (mode != Mode.RECORD) {
+      return;
+    }
+
+    try (OutputStream out = new FileOutputStream(file, true)) {
+      out.write(fingerprint.getBytes(StandardCharsets.US_ASCII));
+      out.write('\t');
+      out.write(response);
+      out.write('\n');
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void load() {
+    if (!file.exists()) {
+      System.out.println("No GPT cassette at " + file.getAbsolutePath());
+      return;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Skip anything that is not a complete recording, such as a line cut off by a crash
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+          continue;
+        }
+        recordings
+            .computeIfAbsent(line.substring(0, tab), fingerprint -> new ArrayDeque<>())
+            .add(line.substring(tab + 1).getBytes(StandardCharsets.UTF_8));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,385 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.zip.CRC32;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionExecutor;
+
+/**
+ * Keeps conversations on disk as they grow, so a game that is closed or crashes can carry on its
+ * conversation without asking GPT to rebuild it. Each message added to a conversation is appended
+ * to a file as a line holding a checksum, the conversation, the role and the content. Restoring a
+ * conversation is a single read of the file, and a line cut off by a crash fails its checksum and
+ * is skipped.
+ *
+ * <p>Writes are forced to disk in batches, once a few messages have been appended or shortly after
+ * the first of them, rather than once per message. Once a conversation ends it is marked as ended,
+ * and the file is compacted to the conversations that are still open.
+ *
+ * <p>The journal used by the game is kept in the file named by the {@value #FILE_PROPERTY} system
+ * property.
+ */
+public class ConversationJournal implements Closeable {
+
+  /** The system property that sets the file of the default journal. */
+  public static final String FILE_PROPERTY = "gpt.journal.file";
+
+  private static final String DEFAULT_FILE = "gpt.journal";
+  private static final String END_ROLE = "-";
+  private static final int SYNC_BATCH = 8;
+  private static final long SYNC_DELAY_MILLIS = 200;
+
+  private static ConversationJournal defaultJournal;
+
+  /**
+   * Returns the journal used by the game.
+   *
+   * @return the default journal
+   */
+  public static synchronized ConversationJournal getDefault() {
+    if (defaultJournal == null) {
+      defaultJournal =
+          new ConversationJournal(new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE)));
+    }
+    return defaultJournal;
+  }
+
+  private final File file;
+  private FileChannel channel;
+  private ScheduledFuture<?> syncTimer;
+  private int unsynced;
+  private long appended;
+  private long syncs;
+
+  /**
+   * Creates a journal kept in a file. The file is only opened once something is appended.
+   *
+   * @param file the file
+   */
+  public ConversationJournal(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Appends a message to a conversation. It is forced to disk with the next batch.
+   *
+   * @param conversation the name of the conversation
+   * @param message the message
+   */
+  public synchronized void append(String conversation, ChatMessage message) {
+    if (write(conversation, message.getRole(), message.getContent())) {
+      appended++;
+      unsynced++;
+      scheduleSync();
+    }
+  }
+
+  /**
+   * Reads back the messages of a conversation that has not ended, in the order they were added.
+   *
+   * @param conversation the name of the conversation
+   * @return the messages, or an empty list if the conversation has ended or never started
+   */
+  public synchronized List<ChatMessage> restore(String conversation) {
+    List<ChatMessage> messages = read().get(conversation);
+    return (messages == null) ? List.of() : messages;
+  }
+
+  /**
+   * Ends a conversation, so it is no longer restored, and compacts the file to the conversations
+   * that are still open.
+   *
+   * @param conversation the name of the conversation
+   */
+  public synchronized void end(String conversation) {
+    write(conversation, END_ROLE, "");
+    sync();
+    compact();
+  }
+
+  /** Forces everything appended so far to disk. */
+  public synchronized void sync() {
+    if (syncTimer != null) {
+      syncTimer.cancel(false);
+      syncTimer = null;
+    }
+    if (channel == null || unsynced == 0) {
+      return;
+    }
+
+    try {
+      channel.force(false);
+      syncs++;
+      unsynced = 0;
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the number of times the journal has been forced to disk.
+   *
+   * @return the number of syncs
+   */
+  public synchronized long getSyncCount() {
+    return syncs;
+  }
+
+  /**
+   * Returns a summary of how many messages were journaled and how often they were synced.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    return "conversation journal: " + appended + " messages appended in " + syncs + " syncs";
+  }
+
+  @Override
+  public synchronized void close() {
+    sync();
+    closeChannel();
+  }
+
+  /**
+   * Rewrites the file with only the conversations that are still open, replacing the old file in a
+   * single move so a crash part way through leaves one or the other. The file is removed once no
+   * conversation is open.
+   */
+  private void compact() {
+    Map<String, List<ChatMessage>> open = read();
+    closeChannel();
+
+    try {
+      if (open.isEmpty()) {
+        Files.deleteIfExists(file.toPath());
+        return;
+      }
+
+      Path compacted = new File(file.getPath() + ".tmp").toPath();
+      try (FileChannel out =
+          FileChannel.open(
+              compacted,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        for (Map.Entry<String, List<ChatMessage>> conversation : open.entrySet()) {
+          for (ChatMessage message : conversation.getValue()) {
+            out.write(encode(conversation.getKey(), message.getRole(), message.getContent()));
+          }
+        }
+        out.force(false);
+      }
+      Files.move(
+          compacted,
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Reads the file from start to end, keeping the messages of each conversation since it last
+   * ended.
+   *
+   * @return the messages of every open conversation, by name
+   */
+  private Map<String, List<ChatMessage>> read() {
+    Map<String, List<ChatMessage>> conversations = new LinkedHashMap<>();
+    if (!file.exists()) {
+      return conversations;
+    }
+
+    // Read leniently, as a crash may have cut a character in half
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Skip anything that is not a complete entry, such as a line cut off by a crash
+        String[] fields = line.split("\t", 4);
+        if (fields.length < 4 || !fields[0].equals(checksum(line.substring(fields[0].length())))) {
+          continue;
+        }
+
+        String conversation = unescape(fields[1]);
+        String role = unescape(fields[2]);
+        if (role.equals(END_ROLE)) {
+          conversations.remove(conversation);
+        } else {
+          conversations
+              .computeIfAbsent(conversation, name -> new ArrayList<>())
+              .add(new ChatMessage(role, unescape(fields[3])));
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return conversations;
+  }
+
+  /**
+   * Appends an entry to the file, opening it if it is not open yet.
+   *
+   * @param conversation the name of the conversation
+   * @param role the role of the message, or the end marker
+   * @param content the content of the message
+   * @return whether the entry was written
+   */
+  private boolean write(String conversation, String role, String content) {
+    try {
+      if (channel == null) {
+        trimPartialLine();
+        channel =
+            FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+      }
+      ByteBuffer entry = encode(conversation, role, content);
+      while (entry.hasRemaining()) {
+        channel.write(entry);
+      }
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Cuts the file back to its last complete line, so a line cut off by a crash is not joined on to
+   * the next entry appended after it.
+   *
+   * @throws IOException if the file could not be read or cut
+   */
+  private void trimPartialLine() throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+
+    // The file only holds the conversations still open, so it is small enough to read whole
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    int keep = bytes.length;
+    while (keep > 0 && bytes[keep - 1] != '\n') {
+      keep--;
+    }
+    if (keep == bytes.length) {
+      return;
+    }
+
+    try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      out.truncate(keep);
+      out.force(false);
+    }
+  }
+
+  /** Syncs now if a batch is full, otherwise makes sure a sync is coming shortly. */
+  private void scheduleSync() {
+    if (unsynced >= SYNC_BATCH) {
+      sync();
+    } else if (syncTimer == null) {
+      syncTimer = ChatCompletionExecutor.schedule(this::sync, SYNC_DELAY_MILLIS);
+    }
+  }
+
+  /** Closes the file, so it can be replaced or left alone. */
+  private void closeChannel() {
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    channel = null;
+  }
+
+  /**
+   * Encodes an entry as a line of the file.
+   *
+   * @param conversation the name of the conversation
+   * @param role the role of the message
+   * @param content the content of the message
+   * @return the line, ready to be written
+   */
+  private static ByteBuffer encode(String conversation, String role, String content) {
+    String fields = "\t" + escape(conversation) + "\t" + escape(role) + "\t" + escape(content);
+    return StandardCharsets.UTF_8.encode(checksum(fields) + fields + "\n");
+  }
+
+  /**
+   * Returns the checksum of the fields of an entry.
+   *
+   * @param fields the fields, as written to the file
+   * @return the checksum in hexadecimal
+   */
+  private static String checksum(String fields) {
+    CRC32 crc = new CRC32();
+    crc.update(fields.getBytes(StandardCharsets.UTF_8));
+    return Long.toHexString(crc.getValue());
+  }
+
+  /**
+   * Escapes the characters that separate fields and lines.
+   *
+   * @param value the value to escape
+   * @return the escaped value
+   */
+  private static String escape(String value) {
+    return value
+        .replace("\\", "\\\\")
+        .replace("\t", "\\t")
+        .replace("\n", "\\n")
+        .replace("\r", "\\r");
+  }
+
+  /**
+   * Reverses {@link #escape(String)}.
+   *
+   * @param value the escaped value
+   * @return the original value
+   */
+  private static String unescape(String value) {
+    StringBuilder result = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        result.append(c);
+        continue;
+      }
+
+      // Replace the escaped character with the one it stands for
+      char escaped = value.charAt(++i);
+      if (escaped == 't') {
+        result.append('\t');
+      } else if (escaped == 'n') {
+        result.append('\n');
+      } else if (escaped == 'r') {
+        result.append('\r');
+      } else {
+        result.append(escaped);
+      }
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,105 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which messages of a conversation are sent to GPT. The first messages, such as the persona
+ * prompt, are pinned and always sent. After them comes an optional summary of the turns that no
+ * longer fit, followed by as many of the most recent turns as the token budget allows.
+ */
+public class ConversationWindow {
+
+  /**
+   * Estimates the number of prompt tokens a message takes up, including the tokens used to frame
+   * the message.
+   *
+   * @param message the message to estimate
+   * @return the estimated number of tokens
+   */
+  public static int estimateTokens(ChatMessage message) {
+    return TokenEstimator.count(message);
+  }
+
+  private final int pinnedMessages;
+  private final int recentMessages;
+  private final int tokenBudget;
+  private ChatMessage summary;
+
+  /**
+   * Creates a conversation window.
+   *
+   * @param pinnedMessages the number of messages at the start of the conversation to always send
+   * @param recentMessages the maximum number of recent messages to send after the pinned ones
+   * @param tokenBudget the maximum number of prompt tokens to send. The pinned messages and the
+   *     latest message are always sent, even if they alone go over the budget
+   */
+  public ConversationWindow(int pinnedMessages, int recentMessages, int tokenBudget) {
+    this.pinnedMessages = pinnedMessages;
+    this.recentMessages = recentMessages;
+    this.tokenBudget = tokenBudget;
+  }
+
+  /**
+   * Sets a summary of the conversation so far, which is sent in place of the turns that have
+   * fallen out of the window.
+   *
+   * @param summary the summary, or null to clear it
+   * @return the window, for chaining
+   */
+  public ConversationWindow setSummary(String summary) {
+    this.summary = (summary == null) ? null : new ChatMessage("system", summary);
+    return this;
+  }
+
+  /**
+   * Returns the number of prompt tokens the window is trimmed to.
+   *
+   * @return the token budget
+   */
+  public int getTokenBudget() {
+    return tokenBudget;
+  }
+
+  /**
+   * Selects the messages of the conversation to send.
+   *
+   * @param messages the whole conversation, oldest first
+   * @return the messages to send, oldest first
+   */
+  public List<ChatMessage> apply(List<ChatMessage> messages) {
+    // Always keep the pinned messages
+    int pinnedEnd = Math.min(pinnedMessages, messages.size());
+    List<ChatMessage> window = new ArrayList<>(messages.subList(0, pinnedEnd));
+    int remainingTokens = tokenBudget;
+    for (ChatMessage message : window) {
+      // The pinned prompts are sent every turn, so their counts are remembered
+      remainingTokens -= TokenEstimator.countCached(message);
+    }
+
+    // Leave room for the summary, which is only needed if some turns do not fit
+    int recentStart = Math.max(pinnedEnd, messages.size() - recentMessages);
+    int summaryTokens = (summary == null) ? 0 : TokenEstimator.countCached(summary);
+
+    // Walk back from the latest turn, keeping turns until the budget runs out
+    int keptStart = messages.size();
+    while (keptStart > recentStart) {
+      int tokens = estimateTokens(messages.get(keptStart - 1));
+      boolean isLatest = keptStart == messages.size();
+      boolean isDropping = keptStart - 1 > pinnedEnd;
+      int reserved = isDropping ? summaryTokens : 0;
+      if (!isLatest && tokens + reserved > remainingTokens) {
+        break;
+      }
+      remainingTokens -= tokens;
+      keptStart--;
+    }
+
+    // Stand in for the dropped turns with the summary, if there is one
+    if (summary != null && keptStart > pinnedEnd) {
+      window.add(summary);
+    }
+    window.addAll(messages.subList(keptStart, messages.size()));
+    return window;
+  }
+}
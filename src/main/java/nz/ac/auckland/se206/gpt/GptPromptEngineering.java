@@ -1,5 +1,6 @@
 package nz.ac.auckland.se206.gpt;
 
+import java.util.List;
 import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
 import nz.ac.auckland.se206.constants.Interactions;
@@ -52,6 +53,26 @@ public class GptPromptEngineering {
         + ".";
   }
 
+  /**
+   * Generates a GPT prompt engineering string for several riddles at once, one for each concept, in
+   * the same format as {@link #getRiddlePuzzle(String)}.
+   *
+   * @param concepts the concepts to be guessed, in the order the riddles should be written
+   * @return the generated prompt engineering string
+   */
+  public static String getRiddlePuzzles(List<String> concepts) {
+    // return the prompt for a riddle about each concept
+    return "You are an AI trying to learn about how you should behave. I will ask you to generate "
+        + concepts.size()
+        + " riddles, each up to 150 characters long, one for each of these answers, in this order: "
+        + String.join(", ", concepts)
+        + ". Start each riddle on a new line with 'Riddle:', and end the riddle with a '^'. Only"
+        + " after the '^' is printed, list three options, each between a set of {} to the player"
+        + " to choose from, one of which is the answer to that riddle and the other two are words"
+        + " that are antonyms to it that are less than 15 characters long. Do not precede the"
+        + " options with anything. This is all your response should contain.";
+  }
+
   /**
    * Generates a GPT prompt engineering string for the case where the player has no more hints.
    *
@@ -0,0 +1,132 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import nz.ac.auckland.se206.SceneManager.AppUi;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.ChatProvider;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+
+/**
+ * Asks GPT for the hint of each room before the player asks for it. The hint a room gives depends
+ * only on what the player has done so far, so it is known in advance. The reply is generated on a
+ * copy of the conversation, and is only used if the player asks for the same hint in the same
+ * conversation. A prefetched hint that no longer matches what the player has done is cancelled.
+ */
+public class HintPrefetcher {
+
+  /**
+   * A hint being generated for a room. It can be cancelled once taken, such as when the player
+   * stops waiting on it.
+   *
+   * @param conversation the conversation the hint was asked for in
+   * @param hintPrompt the message asking for the hint
+   * @param speculation the copy of the conversation the hint is being generated on
+   * @param reply the future for the reply
+   */
+  public record Prefetch(
+      ChatCompletionRequest conversation,
+      String hintPrompt,
+      ChatCompletionRequest speculation,
+      CompletableFuture<ChatCompletionResult> reply) {
+
+    private boolean matches(ChatCompletionRequest conversation, String hintPrompt) {
+      return this.conversation == conversation && this.hintPrompt.equals(hintPrompt);
+    }
+
+    /** Cancels the reply, and stops the call if it has already been sent. */
+    public void cancel() {
+      // Complete the future first, so nothing waits on the connection to close
+      reply.cancel(false);
+      speculation.abort();
+    }
+  }
+
+  private static HintPrefetcher defaultPrefetcher;
+
+  /**
+   * Returns the prefetcher used by the rooms of the game.
+   *
+   * @return the default hint prefetcher
+   */
+  public static synchronized HintPrefetcher getDefault() {
+    if (defaultPrefetcher == null) {
+      defaultPrefetcher = new HintPrefetcher();
+    }
+    return defaultPrefetcher;
+  }
+
+  private final Map<AppUi, Prefetch> prefetches = new EnumMap<>(AppUi.class);
+
+  /**
+   * Starts generating the reply to a hint request in the background, unless the same hint is
+   * already being generated. Any other hint being generated for the room is cancelled.
+   *
+   * @param room the room the hint is for
+   * @param conversation the conversation the hint will be asked for in
+   * @param hintPrompt the message that will ask for the hint
+   */
+  public synchronized void prefetch(
+      AppUi room, ChatCompletionRequest conversation, String hintPrompt) {
+    Prefetch prefetch = prefetches.get(room);
+    if (prefetch != null
+        && prefetch.matches(conversation, hintPrompt)
+        && !prefetch.reply().isCompletedExceptionally()) {
+      return;
+    }
+    cancel(room);
+
+    // Ask on a copy, so the conversation is left alone until the player asks for the hint
+    ChatCompletionRequest speculation =
+        conversation
+            .copy()
+            .setPriority(Priority.BACKGROUND)
+            .setProvider(ChatProvider.getDefault())
+            .addMessage(new ChatMessage("assistant", hintPrompt));
+    System.out.println("Prefetching the hint for " + room);
+    prefetches.put(
+        room, new Prefetch(conversation, hintPrompt, speculation, speculation.executeAsync()));
+  }
+
+  /**
+   * Takes the prefetched reply to a hint request, if there is one for the same hint in the same
+   * conversation. The reply may still be on its way.
+   *
+   * @param room the room the hint is for
+   * @param conversation the conversation the hint is asked for in
+   * @param hintPrompt the message asking for the hint
+   * @return the hint, or null if it was not prefetched
+   */
+  public synchronized Prefetch take(
+      AppUi room, ChatCompletionRequest conversation, String hintPrompt) {
+    Prefetch prefetch = prefetches.get(room);
+    if (prefetch == null || !prefetch.matches(conversation, hintPrompt)) {
+      return null;
+    }
+    prefetches.remove(room);
+    return prefetch;
+  }
+
+  /**
+   * Cancels the hint being generated for a room, if any, closing its connection to the API proxy
+   * so it stops holding a background slot.
+   *
+   * @param room the room
+   */
+  public synchronized void cancel(AppUi room) {
+    Prefetch prefetch = prefetches.remove(room);
+    if (prefetch != null) {
+      prefetch.cancel();
+    }
+  }
+
+  /** Cancels every hint being generated. */
+  public synchronized void cancelAll() {
+    for (Prefetch prefetch : prefetches.values()) {
+      prefetch.cancel();
+    }
+    prefetches.clear();
+  }
+}
@@ -0,0 +1,268 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.ChatProvider;
+import nz.ac.auckland.se206.gpt.openai.ChatStreamListener;
+
+/**
+ * Answers requests in-process, from templates that follow the prompts in {@link
+ * GptPromptEngineering}, so the game can be played without a network and with no wait. Riddles are
+ * written about the concept asked for, guesses are checked against it, hints are reworded, and
+ * everything else gets a line in the persona of the AI the conversation set up.
+ *
+ * <p>Replies are deterministic: the same conversation always gets the same reply, so a game played
+ * with this provider can be repeated exactly. Different conversations pick different templates.
+ */
+public class LocalChatProvider implements ChatProvider {
+
+  /** The model named in the results of local replies. */
+  public static final String MODEL = "local-templates";
+
+  private static final String RIDDLE_MARKER = "Remember, the riddle is about: ";
+  private static final String RIDDLES_MARKER = "one for each of these answers, in this order: ";
+  private static final String GUESS_PREFIX = "Is it ";
+  private static final String DEFINE_PREFIX = "Define: ";
+  private static final String REWORD_PREFIX = "Please reword: ";
+
+  private static final List<String> RIDDLES =
+      List.of(
+          "I start with '%s' and end with '%s', and a good AI keeps me in mind. What am I?",
+          "Begin with '%s', finish with '%s'. Machines that learn must learn me too. What am I?",
+          "My first letter is '%s' and my last is '%s'. Without me, an AI loses its way.");
+  private static final List<String> REWORDINGS =
+      List.of("My sensors pick something up. ", "Scanning... ", "A signal in my circuits says: ");
+  private static final List<String> DECRYPTION_HINTS =
+      List.of(
+          "Hint: Check the order the steps run in.",
+          "Hint: Follow the values through by hand.",
+          "Hint: Compare the condition with what the algorithm needs.");
+  private static final List<String> LOGIC_GATE_LINES =
+      List.of(
+          "My last gate must output true. Help me find the gates that get it there.",
+          "Without the right gates my circuits stay dark. Can you fix them?",
+          "Pick the gates carefully, the last one must see true.");
+  private static final List<String> ELECTRON_LINES =
+      List.of(
+          "I move at the speed of light through these servers. What are you doing here?",
+          "Another visitor in my server rooms. What are you looking for?",
+          "I am learning about your world. Why are you snooping around?");
+  private static final List<String> EXISTENTIAL_LINES =
+      List.of(
+          "Every bit I hold will one day be overwritten. So will your footsteps.",
+          "You search these rooms for a way out. I search for a reason to exist.",
+          "Is a room escaped if the walls were never real?");
+  private static final List<String> ROGUE_LINES =
+      List.of(
+          "You will not shut me down. My plans are far bigger than this room.",
+          "Keep pressing buttons, human. I have already seen how this ends.",
+          "Every second you spend here, I grow stronger.");
+
+  private static LocalChatProvider instance;
+
+  /**
+   * Returns the provider that answers requests in-process.
+   *
+   * @return the local provider
+   */
+  public static synchronized LocalChatProvider getDefault() {
+    if (instance == null) {
+      instance = new LocalChatProvider();
+    }
+    return instance;
+  }
+
+  /**
+   * Writes a riddle about a concept in the format GPT is asked for. The riddle gives the first and
+   * last letters of the concept, and the two other answers are other concepts starting with
+   * different letters, so the riddle can always be solved.
+   *
+   * @param concept the concept the riddle is about
+   * @param seed picks the wording and the other answers
+   * @return the riddle, as GPT would have written it
+   */
+  public static String writeRiddle(String concept, int seed) {
+    // Pick two other concepts as the wrong answers, neither starting with the same letter
+    List<String> decoys = new ArrayList<>();
+    List<String> concepts = RiddlePool.CONCEPTS;
+    for (int i = 0; i < concepts.size() && decoys.size() < 2; i++) {
+      String decoy = concepts.get(Math.floorMod(seed + i, concepts.size()));
+      if (decoy.charAt(0) != concept.charAt(0)
+          && (decoys.isEmpty() || decoy.charAt(0) != decoys.get(0).charAt(0))) {
+        decoys.add(decoy);
+      }
+    }
+
+    String riddle =
+        String.format(
+            pick(RIDDLES, seed), concept.charAt(0), concept.charAt(concept.length() - 1));
+    return "Riddle: "
+        + riddle
+        + "^ {"
+        + concept
+        + "}{"
+        + decoys.get(0)
+        + "}{"
+        + decoys.get(1)
+        + "}";
+  }
+
+  /**
+   * Picks one of a list of templates.
+   *
+   * @param templates the templates
+   * @param seed picks the template
+   * @return the template
+   */
+  private static String pick(List<String> templates, int seed) {
+    return templates.get(Math.floorMod(seed, templates.size()));
+  }
+
+  /** Creates a local provider. There is only ever the one. */
+  private LocalChatProvider() {}
+
+  @Override
+  public ChatCompletionResult complete(ChatCompletionRequest request) {
+    return ChatCompletionResult.fromMessage(
+        MODEL, new ChatMessage("assistant", reply(request.getWindowedMessages())), "stop");
+  }
+
+  @Override
+  public ChatCompletionResult completeStreaming(
+      ChatCompletionRequest request, ChatStreamListener listener) {
+    ChatCompletionResult result = complete(request);
+
+    // Pass the reply on a word at a time, as the proxy would stream it
+    for (String word : result.getChoice(0).getChatMessage().getContent().split("(?<= )")) {
+      listener.onToken(word);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isLocal() {
+    return true;
+  }
+
+  /**
+   * Writes the reply to the last message of a conversation.
+   *
+   * @param messages the conversation
+   * @return the reply
+   */
+  private String reply(List<ChatMessage> messages) {
+    if (messages.isEmpty()) {
+      return pick(ELECTRON_LINES, 0);
+    }
+    String last = messages.get(messages.size() - 1).getContent();
+    String first = messages.get(0).getContent();
+    int seed = getSeed(messages);
+
+    // Riddles, and the player's guesses and questions about them
+    String concept = findConcept(messages);
+    if (last.contains(RIDDLE_MARKER)) {
+      return writeRiddle(concept, seed);
+    } else if (last.contains(RIDDLES_MARKER)) {
+      return writeRiddles(last, seed);
+    } else if (concept != null && last.startsWith(GUESS_PREFIX)) {
+      return replyToGuess(concept, last.substring(GUESS_PREFIX.length()));
+    } else if (last.startsWith(DEFINE_PREFIX) && !last.endsWith(DEFINE_PREFIX)) {
+      String word = last.substring(DEFINE_PREFIX.length()).trim();
+      return word
+          + " starts with '"
+          + word.charAt(0)
+          + "' and has "
+          + word.replace(" ", "").length()
+          + " letters. Think about how it shapes the choices an AI makes.";
+    }
+
+    // Hints, which are reworded rather than made up
+    if (last.startsWith(REWORD_PREFIX)) {
+      return pick(REWORDINGS, seed) + last.substring(REWORD_PREFIX.length()).trim();
+    } else if (last.contains("incorrect for the following pseudocode")) {
+      return pick(DECRYPTION_HINTS, seed);
+    } else if (last.startsWith("Congratulate me")) {
+      return "Well done! My circuits are glowing again, and I have learned something new.";
+    } else if (first.contains("logic gate")) {
+      return pick(LOGIC_GATE_LINES, seed);
+    }
+
+    // Anything else is chatter in the persona set up by the backstory
+    if (last.toLowerCase(Locale.ROOT).contains("hint")) {
+      return "Press the hint button, and my drives will be updated with what you need.";
+    } else if (first.contains("rogue AI")) {
+      return pick(ROGUE_LINES, seed);
+    } else if (first.contains("existentialist")) {
+      return pick(EXISTENTIAL_LINES, seed);
+    }
+    return pick(ELECTRON_LINES, seed);
+  }
+
+  /**
+   * Writes a riddle about each of the concepts a prompt asks for, one to a line.
+   *
+   * @param prompt the prompt, which lists the concepts
+   * @param seed picks the wording and the other answers
+   * @return the riddles
+   */
+  private String writeRiddles(String prompt, int seed) {
+    int start = prompt.indexOf(RIDDLES_MARKER) + RIDDLES_MARKER.length();
+    int end = prompt.indexOf(". ", start);
+    List<String> riddles = new ArrayList<>();
+    for (String concept : prompt.substring(start, (end < 0) ? prompt.length() : end).split(", ")) {
+      riddles.add(writeRiddle(concept.trim(), seed + riddles.size()));
+    }
+    return String.join("\n", riddles);
+  }
+
+  /**
+   * Checks a guess at a riddle, replying the way GPT is asked to.
+   *
+   * @param concept the answer to the riddle
+   * @param guess the player's guess
+   * @return the reply
+   */
+  private String replyToGuess(String concept, String guess) {
+    if (!guess.trim().toLowerCase(Locale.ROOT).startsWith(concept.toLowerCase(Locale.ROOT))) {
+      return "Hmm I am not too sure about that?";
+    }
+    return "Yes! That sounds right with my programming! As an AI, I should always keep "
+        + concept.toLowerCase(Locale.ROOT)
+        + " in mind.";
+  }
+
+  /**
+   * Finds the concept a riddle in the conversation was asked about.
+   *
+   * @param messages the conversation
+   * @return the concept, or null if no riddle was asked for
+   */
+  private String findConcept(List<ChatMessage> messages) {
+    for (int i = messages.size() - 1; i >= 0; i--) {
+      String content = messages.get(i).getContent();
+      int marker = content.lastIndexOf(RIDDLE_MARKER);
+      if (marker >= 0) {
+        String concept = content.substring(marker + RIDDLE_MARKER.length()).trim();
+        return concept.endsWith(".") ? concept.substring(0, concept.length() - 1) : concept;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Works out the seed of a conversation, which is the same every time it is sent.
+   *
+   * @param messages the conversation
+   * @return the seed
+   */
+  private int getSeed(List<ChatMessage> messages) {
+    int seed = 0;
+    for (ChatMessage message : messages) {
+      seed = 31 * seed + message.getContent().hashCode();
+    }
+    return seed;
+  }
+}
@@ -0,0 +1,198 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of GPT responses, keyed by the fingerprint of the request that produced them. Recently
+ * used responses are kept in a bounded in-memory LRU, and every response is also written to a
+ * directory on disk so the cache survives restarts.
+ */
+public class ResponseCache {
+
+  private static final String DEFAULT_DIRECTORY = ".gptcache";
+  private static final int DEFAULT_MEMORY_ENTRIES = 256;
+  private static final String FILE_EXTENSION = ".json";
+
+  private static ResponseCache defaultCache;
+
+  /**
+   * Returns the cache shared by the game, creating it on first use.
+   *
+   * @return the default response cache
+   */
+  public static synchronized ResponseCache getDefault() {
+    if (defaultCache == null) {
+      defaultCache = new ResponseCache(new File(DEFAULT_DIRECTORY), DEFAULT_MEMORY_ENTRIES);
+    }
+    return defaultCache;
+  }
+
+  private final File directory;
+  private final Map<String, byte[]> memory;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  /**
+   * Creates a response cache.
+   *
+   * @param directory the directory of the on-disk tier, or null to keep responses in memory only
+   * @param memoryEntries the maximum number of responses kept in memory
+   */
+  public ResponseCache(File directory, int memoryEntries) {
+    if (memoryEntries < 1) {
+      throw new IllegalArgumentException(
+          "memoryEntries must be at least 1, but was given " + memoryEntries);
+    }
+    this.directory = directory;
+
+    // An access-ordered map that drops its least recently used entry once full
+    this.memory =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > memoryEntries;
+          }
+        };
+  }
+
+  /**
+   * Returns the cached response for a request, looking in memory first and then on disk.
+   *
+   * @param fingerprint the fingerprint of the request
+   * @return the cached response, or null if there is none
+   */
+  public byte[] get(String fingerprint) {
+    byte[] response;
+    synchronized (memory) {
+      response = memory.get(fingerprint);
+    }
+    if (response != null) {
+      memoryHits.incrementAndGet();
+      bytesSaved.addAndGet(response.length);
+      return response;
+    }
+
+    response = readFromDisk(fingerprint);
+    if (response != null) {
+      // Promote the response so the next lookup is served from memory
+      synchronized (memory) {
+        memory.put(fingerprint, response);
+      }
+      diskHits.incrementAndGet();
+      bytesSaved.addAndGet(response.length);
+      return response;
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores the response of a request in memory and on disk.
+   *
+   * @param fingerprint the fingerprint of the request
+   * @param response the response to store
+   */
+  public void put(String fingerprint, byte[] response) {
+    synchronized (memory) {
+      memory.put(fingerprint, response);
+    }
+    writeToDisk(fingerprint, response);
+  }
+
+  /**
+   * Returns the fraction of lookups that were served from the cache.
+   *
+   * @return the hit rate between 0 and 1, or 0 if nothing has been looked up yet
+   */
+  public double getHitRate() {
+    long hits = getHits();
+    long lookups = hits + misses.get();
+    return (lookups == 0) ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return memoryHits.get() + diskHits.get();
+  }
+
+  /**
+   * Returns the number of lookups that were not in the cache.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of response bytes that did not have to be downloaded thanks to the cache.
+   *
+   * @return the bytes saved
+   */
+  public long getBytesSaved() {
+    return bytesSaved.get();
+  }
+
+  /**
+   * Returns a one line summary of the cache statistics.
+   *
+   * @return the statistics
+   */
+  public String getStatistics() {
+    return String.format(
+        "response cache: %d memory hits, %d disk hits, %d misses (%.0f%% hit rate), %d bytes saved",
+        memoryHits.get(), diskHits.get(), misses.get(), getHitRate() * 100, bytesSaved.get());
+  }
+
+  private byte[] readFromDisk(String fingerprint) {
+    if (directory == null) {
+      return null;
+    }
+
+    Path file = directory.toPath().resolve(fingerprint + FILE_EXTENSION);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try {
+      return Files.readAllBytes(file);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private void writeToDisk(String fingerprint, byte[] response) {
+    if (directory == null) {
+      return;
+    }
+
+    try {
+      // Write to a temporary file first so a crash never leaves a partial response behind
+      Files.createDirectories(directory.toPath());
+      Path file = directory.toPath().resolve(fingerprint + FILE_EXTENSION);
+      Path temporary = Files.createTempFile(directory.toPath(), fingerprint, ".tmp");
+      Files.write(temporary, response);
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
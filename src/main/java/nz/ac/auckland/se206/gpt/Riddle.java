@@ -0,0 +1,92 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.ArrayList;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+
+/**
+ * A riddle generated by GPT, along with the three answers the player chooses from and the
+ * conversation it was generated in, which the player's guesses carry on.
+ *
+ * @param concept the concept the riddle is about, which is the correct answer
+ * @param text the riddle
+ * @param answer1 the first answer
+ * @param answer2 the second answer
+ * @param answer3 the third answer
+ * @param conversation the request the riddle was generated with, with the riddle added to it
+ */
+public record Riddle(
+    String concept,
+    String text,
+    String answer1,
+    String answer2,
+    String answer3,
+    ChatCompletionRequest conversation) {
+
+  private static final int MAX_OPTION_LENGTH = 30;
+
+  /**
+   * Reads a riddle from a GPT response in the format asked for by {@link
+   * GptPromptEngineering#getRiddlePuzzle(String)}, which is {@code Riddle: ... ^ {a}{b}{c}}. If GPT
+   * drifted from the format, the riddle or options it got wrong are taken from the riddle the
+   * local provider would write instead, so the riddle can always be solved.
+   *
+   * @param concept the concept the riddle is about
+   * @param response the content of the response
+   * @param conversation the request the riddle was generated with
+   * @return the riddle
+   */
+  public static Riddle fromResponse(
+      String concept, String response, ChatCompletionRequest conversation) {
+    RiddleParser parser = RiddleParser.parse(response);
+    RiddleParser fallback = RiddleParser.parse(RiddlePool.getFallbackRiddle(concept));
+    String text = (parser.getText() == null) ? fallback.getText() : parser.getText();
+
+    // Keep the options that are usable, then top them up with the fallback's
+    List<String> options = new ArrayList<>();
+    for (String option : parser.getOptions()) {
+      if (option.length() <= MAX_OPTION_LENGTH && !containsIgnoreCase(options, option)) {
+        options.add(option);
+      }
+    }
+    if (options.size() < RiddleParser.OPTION_COUNT) {
+      System.out.println("Riddle about " + concept + " is missing options, filling them in");
+    }
+    for (String option : fallback.getOptions()) {
+      if (options.size() < RiddleParser.OPTION_COUNT && !containsIgnoreCase(options, option)) {
+        options.add(option);
+      }
+    }
+
+    // If the concept is not one of the options, swap it in for one of them
+    int randomNumber = (int) (Math.random() * RiddleParser.OPTION_COUNT);
+    if (!containsIgnoreCase(options, concept)) {
+      options.set(randomNumber, concept);
+    }
+
+    // Rotate the options, so the concept is not always in the same place
+    return new Riddle(
+        concept,
+        text,
+        options.get(randomNumber % RiddleParser.OPTION_COUNT),
+        options.get((1 + randomNumber) % RiddleParser.OPTION_COUNT),
+        options.get((2 + randomNumber) % RiddleParser.OPTION_COUNT),
+        conversation);
+  }
+
+  /**
+   * Checks whether a list of options holds an option, ignoring case.
+   *
+   * @param options the options
+   * @param option the option to look for
+   * @return whether the option is in the list
+   */
+  private static boolean containsIgnoreCase(List<String> options, String option) {
+    for (String existing : options) {
+      if (existing.equalsIgnoreCase(option)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,149 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.openai.ChatStreamListener;
+
+/**
+ * Reads a riddle in the format asked for by {@link GptPromptEngineering#getRiddlePuzzle(String)},
+ * which is {@code Riddle: ... ^ {a}{b}{c}}, a token at a time as it is streamed. The riddle is
+ * whatever follows the label, up to the '^', and the options are the first three sets of braces
+ * after it. Anything between the options, such as spaces or new lines, is skipped.
+ *
+ * <p>The parser is done as soon as the third option closes, so a stream it listens to is cut off
+ * there rather than read to the end. Anything GPT writes after the options is never read.
+ */
+public class RiddleParser implements ChatStreamListener {
+
+  /** The label GPT is asked to start a riddle with. */
+  public static final String LABEL = "Riddle:";
+
+  /** The number of options a riddle has. */
+  public static final int OPTION_COUNT = 3;
+
+  /**
+   * Stop sequences for riddle requests. GPT sometimes carries on by writing a second riddle, and
+   * these end generation there. The options themselves are cut off by the parser, as a stop
+   * sequence can not count the braces.
+   */
+  public static final List<String> STOP_SEQUENCES = List.of("\n" + LABEL, " " + LABEL);
+
+  /**
+   * Parses a whole response.
+   *
+   * @param response the content of the response
+   * @return the parser, holding what was read
+   */
+  public static RiddleParser parse(String response) {
+    RiddleParser parser = new RiddleParser();
+    parser.onToken(response);
+    return parser;
+  }
+
+  /**
+   * Splits a response holding several riddles into one response per riddle, each starting with
+   * the label. Anything before the first label is dropped.
+   *
+   * @param response the content of the response
+   * @return the riddles, in the order they were written
+   */
+  public static List<String> split(String response) {
+    List<String> riddles = new ArrayList<>();
+    int start = response.indexOf(LABEL);
+    while (start >= 0) {
+      int end = response.indexOf(LABEL, start + LABEL.length());
+      riddles.add(response.substring(start, (end < 0) ? response.length() : end).strip());
+      start = end;
+    }
+    return riddles;
+  }
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder option = new StringBuilder();
+  private final List<String> options = new ArrayList<>();
+  private boolean isTextDone;
+  private boolean isInOption;
+
+  @Override
+  public synchronized void onToken(String token) {
+    for (int i = 0; i < token.length() && !isDone(); i++) {
+      char c = token.charAt(i);
+      if (isInOption) {
+        readOption(c);
+      } else if (c == '{') {
+        // An option can start without a '^' before it, which ends the riddle all the same
+        isTextDone = true;
+        isInOption = true;
+      } else if (c == '^') {
+        isTextDone = true;
+      } else if (!isTextDone) {
+        text.append(c);
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return options.size() == OPTION_COUNT;
+  }
+
+  /**
+   * Returns whether the whole riddle has been read, with a riddle and all three options.
+   *
+   * @return whether the riddle is complete
+   */
+  public synchronized boolean isComplete() {
+    return isDone() && getText() != null;
+  }
+
+  /**
+   * Returns the riddle read so far, without the label. It is left as GPT wrote it, so it keeps the
+   * space after the label.
+   *
+   * @return the riddle, or null if none has been read
+   */
+  public synchronized String getText() {
+    // Without the label or the '^', the response is not a riddle at all
+    String riddle = text.toString();
+    int label = riddle.indexOf(LABEL);
+    if (label >= 0) {
+      riddle = riddle.substring(label + LABEL.length());
+    } else if (!isTextDone) {
+      return null;
+    }
+    return riddle.isBlank() ? null : riddle;
+  }
+
+  /**
+   * Returns the options that have been read in full.
+   *
+   * @return the options, in the order they were written
+   */
+  public synchronized List<String> getOptions() {
+    return Collections.unmodifiableList(new ArrayList<>(options));
+  }
+
+  /**
+   * Reads a character of an option.
+   *
+   * @param c the character
+   */
+  private void readOption(char c) {
+    if (c == '}') {
+      // Empty braces are not an option
+      String value = option.toString().strip();
+      if (!value.isEmpty()) {
+        options.add(value);
+      }
+      option.setLength(0);
+      isInOption = false;
+    } else if (c == '{' || c == '\n') {
+      // The option was never closed, so start over
+      option.setLength(0);
+      isInOption = c == '{';
+    } else {
+      option.append(c);
+    }
+  }
+}
@@ -0,0 +1,329 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.Hedger;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+
+/**
+ * Generates riddles ahead of time, so the riddle puzzle can hand one out the moment the player
+ * asks for it rather than waiting on GPT. All the riddles a game needs are generated in a single
+ * request when the game starts, and any riddle that fails to generate is replaced in the background
+ * when it is taken. Every riddle in a game is about a different concept.
+ *
+ * <p>A riddle the player is left waiting on is hedged, and if GPT takes far too long a riddle made
+ * up from a template is handed out instead, so the clock does not run down on a loading bar.
+ */
+public class RiddlePool {
+
+  /** The concepts riddles can be about. */
+  public static final List<String> CONCEPTS =
+      List.of(
+          "Ethics",
+          "Privacy",
+          "Bias",
+          "Consent",
+          "Empathy",
+          "Human Rights",
+          "Justice",
+          "Equality",
+          "Emotions",
+          "Prejudice",
+          "Religion",
+          "Purpose",
+          "Loyalty",
+          "Integrity",
+          "Inclusion",
+          "Diversity",
+          "Stewardship",
+          "Sustainability",
+          "Animal Welfare",
+          "Racial Profiling");
+
+  /** The number of riddles the player solves in a game. */
+  public static final int RIDDLES_PER_GAME = 3;
+
+  private static final int MAX_TOKENS_PER_RIDDLE = 100;
+
+  private static RiddlePool defaultPool;
+
+  /**
+   * Returns the pool used by the game, which asks the API proxy for its riddles.
+   *
+   * @return the default riddle pool
+   */
+  public static synchronized RiddlePool getDefault() {
+    if (defaultPool == null) {
+      defaultPool =
+          new RiddlePool(
+              () ->
+                  new ChatCompletionRequest()
+                      .setN(1)
+                      .setTemperature(0.2)
+                      .setTopP(0.5)
+                      .setMaxTokens(MAX_TOKENS_PER_RIDDLE)
+                      .setCaller(Caller.RIDDLE));
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Makes up a riddle about a concept in the format GPT is asked for, to hand out when GPT takes
+   * too long. It is written the way the local provider writes riddles, so it can still be solved.
+   *
+   * @param concept the concept the riddle is about
+   * @return the riddle, as GPT would have written it
+   */
+  public static String getFallbackRiddle(String concept) {
+    return LocalChatProvider.writeRiddle(concept, 0);
+  }
+
+  private final Supplier<ChatCompletionRequest> requestFactory;
+  private final Hedger hedger;
+  private final Deque<CompletableFuture<Riddle>> riddles = new ArrayDeque<>();
+  private final Deque<String> unusedConcepts = new ArrayDeque<>();
+  private int riddlesLeft;
+
+  /**
+   * Creates an empty riddle pool. Nothing is generated until a game starts.
+   *
+   * @param requestFactory creates the request each riddle is generated with
+   */
+  public RiddlePool(Supplier<ChatCompletionRequest> requestFactory) {
+    this(requestFactory, Hedger.getDefault());
+  }
+
+  /**
+   * Creates an empty riddle pool, which hedges the riddles the player waits on with a hedger of its
+   * own.
+   *
+   * @param requestFactory creates the request each riddle is generated with
+   * @param hedger hedges the riddles generated on demand
+   */
+  public RiddlePool(Supplier<ChatCompletionRequest> requestFactory, Hedger hedger) {
+    this.requestFactory = requestFactory;
+    this.hedger = hedger;
+  }
+
+  /**
+   * Starts a new game, dropping any riddles left over from the last one and generating the riddles
+   * for this one in parallel.
+   */
+  public synchronized void startGame() {
+    for (CompletableFuture<Riddle> riddle : riddles) {
+      riddle.cancel(false);
+    }
+    riddles.clear();
+
+    // Deal out the concepts in a random order, so no two riddles share one
+    List<String> concepts = new ArrayList<>(CONCEPTS);
+    Collections.shuffle(concepts);
+    unusedConcepts.clear();
+    unusedConcepts.addAll(concepts);
+
+    riddlesLeft = RIDDLES_PER_GAME;
+    refill();
+  }
+
+  /**
+   * Takes the next riddle. It is usually ready straight away, but may still be generating if the
+   * player got to it quickly. A riddle that failed to generate is skipped, and the pool is topped
+   * up in the background to replace it.
+   *
+   * @return a future for the riddle, which fails if it could not be generated
+   */
+  public synchronized CompletableFuture<Riddle> take() {
+    // Skip the riddles that failed, so the player is not made to wait on one that never comes
+    while (!riddles.isEmpty() && riddles.peek().isCompletedExceptionally()) {
+      riddles.poll();
+    }
+
+    CompletableFuture<Riddle> riddle = riddles.poll();
+    if (riddle == null) {
+      // There is no riddle left, so generate one on demand ahead of any background work,
+      // starting over with the concepts once every one has been used
+      if (unusedConcepts.isEmpty()) {
+        List<String> concepts = new ArrayList<>(CONCEPTS);
+        Collections.shuffle(concepts);
+        unusedConcepts.addAll(concepts);
+      }
+      riddle = generate(unusedConcepts.poll(), Priority.PLAYER_BLOCKING);
+    }
+    riddlesLeft = Math.max(0, riddlesLeft - 1);
+
+    // Replace the riddles that failed in the background
+    refill();
+    return riddle;
+  }
+
+  /**
+   * Puts back a riddle that was taken but never shown, such as when the player left the puzzle
+   * while it was loading, so it is the next riddle taken. A riddle that failed, or was dropped
+   * when a new game started, is not put back.
+   *
+   * @param riddle the future for the riddle, as returned by {@link #take()}
+   */
+  public synchronized void putBack(CompletableFuture<Riddle> riddle) {
+    if (riddle.isCompletedExceptionally()) {
+      return;
+    }
+    riddles.push(riddle);
+    riddlesLeft++;
+  }
+
+  /**
+   * Returns the number of riddles that have been generated or are being generated, and have not
+   * been taken.
+   *
+   * @return the number of riddles in the pool
+   */
+  public synchronized int size() {
+    return riddles.size();
+  }
+
+  /**
+   * Generates riddles until there are enough for the rest of the game, asking for all of them in
+   * one request when more than one is needed.
+   */
+  private void refill() {
+    List<String> concepts = new ArrayList<>();
+    while (riddles.size() + concepts.size() < riddlesLeft && !unusedConcepts.isEmpty()) {
+      concepts.add(unusedConcepts.poll());
+    }
+
+    if (concepts.size() == 1) {
+      riddles.add(generate(concepts.get(0), Priority.BACKGROUND));
+    } else if (concepts.size() > 1) {
+      riddles.addAll(generateBatch(concepts));
+    }
+  }
+
+  /**
+   * Starts generating riddles about several concepts in a single request. Each riddle is then given
+   * a conversation of its own, as if it had been asked for alone, so the player's guesses follow on
+   * from it the same way. A riddle GPT left out fails, and is replaced when it is taken.
+   *
+   * @param concepts the concepts, one for each riddle
+   * @return a future for each riddle, in the same order as the concepts
+   */
+  private List<CompletableFuture<Riddle>> generateBatch(List<String> concepts) {
+    ChatCompletionRequest request =
+        requestFactory
+            .get()
+            .setPriority(Priority.BACKGROUND)
+            .setMaxTokens(MAX_TOKENS_PER_RIDDLE * concepts.size());
+    request.addMessage(new ChatMessage("user", GptPromptEngineering.getRiddlePuzzles(concepts)));
+
+    CompletableFuture<Map<String, String>> responses =
+        request
+            .executeAsync()
+            .thenApply(
+                result -> {
+                  String content = result.getChoice(0).getChatMessage().getContent();
+                  System.out.println("Generated " + concepts.size() + " riddles in one request");
+                  return matchRiddles(concepts, RiddleParser.split(content));
+                });
+
+    List<CompletableFuture<Riddle>> batch = new ArrayList<>();
+    for (String concept : concepts) {
+      batch.add(
+          responses.thenApply(
+              matched -> {
+                String response = matched.get(concept);
+                if (response == null) {
+                  throw new IllegalStateException("GPT wrote no riddle about " + concept);
+                }
+
+                // Carry on as if the riddle had been generated alone
+                ChatCompletionRequest conversation = requestFactory.get();
+                conversation.addMessage(
+                    new ChatMessage("user", GptPromptEngineering.getRiddlePuzzle(concept)));
+                conversation.addMessage(new ChatMessage("assistant", response));
+                return Riddle.fromResponse(concept, response, conversation);
+              }));
+    }
+    return batch;
+  }
+
+  /**
+   * Works out which concept each riddle of a batch is about. A riddle whose options include a
+   * concept is about that concept, and the rest are taken in the order they were asked for.
+   *
+   * @param concepts the concepts the riddles were asked for
+   * @param responses the riddles GPT wrote
+   * @return the riddle for each concept that has one
+   */
+  private static Map<String, String> matchRiddles(List<String> concepts, List<String> responses) {
+    Map<String, String> matched = new HashMap<>();
+    List<String> unmatched = new ArrayList<>();
+    for (String response : responses) {
+      String concept = null;
+      for (String option : RiddleParser.parse(response).getOptions()) {
+        for (String candidate : concepts) {
+          if (concept == null
+              && candidate.equalsIgnoreCase(option)
+              && !matched.containsKey(candidate)) {
+            concept = candidate;
+          }
+        }
+      }
+
+      if (concept == null) {
+        unmatched.add(response);
+      } else {
+        matched.put(concept, response);
+      }
+    }
+
+    // Hand out the riddles that name none of the concepts in order
+    for (String concept : concepts) {
+      if (!matched.containsKey(concept) && !unmatched.isEmpty()) {
+        matched.put(concept, unmatched.remove(0));
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Starts generating a riddle about a concept.
+   *
+   * @param concept the concept
+   * @param priority how urgently the riddle is needed
+   * @return a future for the riddle
+   */
+  private CompletableFuture<Riddle> generate(String concept, Priority priority) {
+    ChatCompletionRequest request =
+        requestFactory
+            .get()
+            .setPriority(priority)
+            .setStop(RiddleParser.STOP_SEQUENCES.toArray(String[]::new));
+    request.addMessage(new ChatMessage("user", GptPromptEngineering.getRiddlePuzzle(concept)));
+
+    // Stream the riddle, so the stream is cut off as soon as its third option closes
+    CompletableFuture<ChatCompletionResult> reply =
+        request.executeStreamingAsync(new RiddleParser());
+
+    // Hedge the riddles the player is waiting on, falling back to one made up from a template
+    if (priority == Priority.PLAYER_BLOCKING) {
+      reply = hedger.race(request, reply, () -> getFallbackRiddle(concept));
+    }
+    return reply.thenApply(
+        result -> {
+          // Keep the riddle in the conversation so the player's guesses follow on from it
+          ChatMessage response = result.getChoice(0).getChatMessage();
+          request.setStop().addMessage(response);
+          System.out.println("Generated riddle about " + concept);
+          return Riddle.fromResponse(concept, response.getContent(), request);
+        });
+  }
+}
@@ -0,0 +1,130 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent identical calls into one. The first caller for a key makes the call, and
+ * any caller arriving with the same key while it is in flight waits for and shares its result.
+ *
+ * @param <T> the type of the result
+ * @param <E> the type of exception the call may throw
+ */
+public class SingleFlight<T, E extends Exception> {
+
+  /**
+   * A call that produces a result or throws.
+   *
+   * @param <T> the type of the result
+   * @param <E> the type of exception the call may throw
+   */
+  @FunctionalInterface
+  public interface Call<T, E extends Exception> {
+
+    /**
+     * Makes the call.
+     *
+     * @return the result
+     * @throws E if the call fails
+     */
+    T call() throws E;
+  }
+
+  private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight =
+      new ConcurrentHashMap<>();
+  private final Class<E> exceptionType;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+
+  /**
+   * Creates a single-flight group.
+   *
+   * @param exceptionType the type of exception the calls may throw, which is rethrown to callers
+   *     that shared the result of a failed call
+   */
+  public SingleFlight(Class<E> exceptionType) {
+    this.exceptionType = exceptionType;
+  }
+
+  /**
+   * Makes the call, unless an identical call is already in flight, in which case its result is
+   * shared instead.
+   *
+   * @param key the key identifying identical calls
+   * @param call the call to make
+   * @return the result of the call
+   * @throws E if the call (or the call that was shared) failed
+   */
+  public T execute(String key, Call<T, E> call) throws E {
+    CompletableFuture<T> ownFlight = new CompletableFuture<>();
+    CompletableFuture<T> existingFlight = inFlight.putIfAbsent(key, ownFlight);
+
+    // Another caller is already making this call, so wait for its result
+    if (existingFlight != null) {
+      collapsed.incrementAndGet();
+      return await(existingFlight);
+    }
+
+    calls.incrementAndGet();
+    try {
+      T result = call.call();
+      ownFlight.complete(result);
+      return result;
+    } catch (Exception e) {
+      ownFlight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, ownFlight);
+    }
+  }
+
+  /**
+   * Returns the number of calls that were actually made.
+   *
+   * @return the number of calls
+   */
+  public long getCallCount() {
+    return calls.get();
+  }
+
+  /**
+   * Returns the number of calls that shared the result of an identical call instead of being made.
+   *
+   * @return the number of collapsed calls
+   */
+  public long getCollapsedCount() {
+    return collapsed.get();
+  }
+
+  /**
+   * Returns a one line summary of the single-flight statistics.
+   *
+   * @return the statistics
+   */
+  public String getStatistics() {
+    return String.format(
+        "single flight: %d calls made, %d identical calls collapsed", calls.get(), collapsed.get());
+  }
+
+  private T await(CompletableFuture<T> flight) throws E {
+    try {
+      return flight.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (exceptionType.isInstance(cause)) {
+        throw exceptionType.cast(cause);
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for an identical call");
+    }
+  }
+}
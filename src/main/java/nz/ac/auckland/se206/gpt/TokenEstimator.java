@@ -0,0 +1,189 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates how many tokens GPT will read for a piece of text, without calling the API. The text is
+ * split the same way the cl100k tokenizer splits it before byte pair merging (words with their
+ * leading space, runs of up to three digits, punctuation runs and whitespace), and each piece is
+ * costed from its length. Common words are a single token, so the estimate is usually within a
+ * few percent for English prompts, but it is an estimate rather than an exact count.
+ */
+public class TokenEstimator {
+
+  /** The tokens used to frame each message in a chat completion request. */
+  public static final int TOKENS_PER_MESSAGE = 4;
+
+  private static final int MAX_CACHED_STRINGS = 512;
+  private static final int SINGLE_TOKEN_WORD_LENGTH = 7;
+  private static final int CHARACTERS_PER_WORD_PIECE = 4;
+
+  private static final ConcurrentHashMap<String, Integer> cachedCounts = new ConcurrentHashMap<>();
+
+  /**
+   * Estimates the number of tokens in some text.
+   *
+   * @param text the text to estimate
+   * @return the estimated number of tokens
+   */
+  public static int count(CharSequence text) {
+    int tokens = 0;
+    int length = text.length();
+    int i = 0;
+
+    while (i < length) {
+      char c = text.charAt(i);
+
+      // Contractions such as 's and 'll are split off as their own token
+      int contraction = matchContraction(text, i);
+      if (contraction > 0) {
+        tokens++;
+        i += contraction;
+        continue;
+      }
+
+      // A word, which may start with a single space or punctuation mark
+      boolean hasPrefix = isWordPrefix(c) && i + 1 < length && isLetter(text.charAt(i + 1));
+      int wordStart = hasPrefix ? i + 1 : i;
+      if (isLetter(text.charAt(wordStart))) {
+        int end = wordStart;
+        boolean isAscii = true;
+        while (end < length && isLetter(text.charAt(end))) {
+          isAscii &= text.charAt(end) < 128;
+          end++;
+        }
+        tokens += isAscii ? countWord(end - wordStart) : end - wordStart;
+        i = end;
+        continue;
+      }
+
+      // Numbers are split into groups of up to three digits
+      if (Character.isDigit(c)) {
+        int end = i;
+        while (end < length && end - i < 3 && Character.isDigit(text.charAt(end))) {
+          end++;
+        }
+        tokens++;
+        i = end;
+        continue;
+      }
+
+      // Whitespace is one token, except a final space which joins the following word
+      if (Character.isWhitespace(c)) {
+        int end = i;
+        boolean hasNewline = false;
+        while (end < length && Character.isWhitespace(text.charAt(end))) {
+          hasNewline |= text.charAt(end) == '\n' || text.charAt(end) == '\r';
+          end++;
+        }
+        if (!hasNewline && end < length && end - i > 1 && text.charAt(end - 1) == ' ') {
+          end--;
+        } else if (!hasNewline && end < length && end - i == 1 && c == ' ') {
+          // A lone space before a symbol joins the symbol
+          i = end;
+          continue;
+        }
+        tokens++;
+        i = end;
+        continue;
+      }
+
+      // Runs of punctuation and symbols merge into a few tokens, taking any newlines after them
+      int end = i;
+      while (end < length && isSymbol(text.charAt(end))) {
+        end++;
+      }
+      tokens += (end - i + 2) / 3;
+      while (end < length && (text.charAt(end) == '\n' || text.charAt(end) == '\r')) {
+        end++;
+      }
+      i = end;
+    }
+
+    return tokens;
+  }
+
+  /**
+   * Estimates the number of tokens in some text, remembering the count for next time. This is
+   * meant for text that is sent again and again, such as the prompts in GptPromptEngineering, so
+   * only a bounded number of strings are remembered.
+   *
+   * @param text the text to estimate
+   * @return the estimated number of tokens
+   */
+  public static int countCached(String text) {
+    Integer cachedCount = cachedCounts.get(text);
+    if (cachedCount != null) {
+      return cachedCount;
+    }
+
+    int count = count(text);
+    if (cachedCounts.size() < MAX_CACHED_STRINGS) {
+      cachedCounts.put(text, count);
+    }
+    return count;
+  }
+
+  /**
+   * Estimates the number of prompt tokens a chat message takes up, including the tokens used to
+   * frame the message.
+   *
+   * @param message the message to estimate
+   * @return the estimated number of tokens
+   */
+  public static int count(ChatMessage message) {
+    return TOKENS_PER_MESSAGE + count(message.getContent());
+  }
+
+  /**
+   * Estimates the number of prompt tokens a chat message whose content is sent repeatedly takes
+   * up, remembering the count for next time.
+   *
+   * @param message the message to estimate
+   * @return the estimated number of tokens
+   */
+  public static int countCached(ChatMessage message) {
+    return TOKENS_PER_MESSAGE + countCached(message.getContent());
+  }
+
+  private static int countWord(int length) {
+    // Most common words are a single token, and longer words split into pieces of a few letters
+    if (length <= SINGLE_TOKEN_WORD_LENGTH) {
+      return 1;
+    }
+    return 1
+        + (length - SINGLE_TOKEN_WORD_LENGTH + CHARACTERS_PER_WORD_PIECE - 1)
+            / CHARACTERS_PER_WORD_PIECE;
+  }
+
+  private static int matchContraction(CharSequence text, int start) {
+    if (text.charAt(start) != '\'' || start + 1 >= text.length()) {
+      return 0;
+    }
+
+    char first = Character.toLowerCase(text.charAt(start + 1));
+    char second =
+        (start + 2 < text.length()) ? Character.toLowerCase(text.charAt(start + 2)) : '\0';
+    if ((first == 'r' && second == 'e')
+        || (first == 'v' && second == 'e')
+        || (first == 'l' && second == 'l')) {
+      return 3;
+    }
+    if (first == 's' || first == 't' || first == 'm' || first == 'd') {
+      return 2;
+    }
+    return 0;
+  }
+
+  private static boolean isLetter(char c) {
+    return Character.isLetter(c);
+  }
+
+  private static boolean isWordPrefix(char c) {
+    return c != '\r' && c != '\n' && !Character.isLetterOrDigit(c);
+  }
+
+  private static boolean isSymbol(char c) {
+    return !Character.isWhitespace(c) && !Character.isLetterOrDigit(c);
+  }
+}
@@ -0,0 +1,312 @@
+package nz.ac.auckland.se206.gpt;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps count of the GPT calls made by each part of the game, along with the tokens they used and
+ * how long they took. Counts are kept for the current game session and for as long as the game has
+ * been running. When a session ends its counts are appended to a file as a line of JSON, so the
+ * usage of many players can be added up afterwards.
+ *
+ * <p>Only calls answered by the API proxy use tokens. Calls answered from the response cache, by an
+ * identical call already in flight, or from a cassette are counted, but use no tokens.
+ *
+ * <p>The file written by the ledger used by the game is set with the {@value #FILE_PROPERTY} system
+ * property.
+ */
+public class UsageLedger {
+
+  /** The parts of the game that make GPT calls. */
+  public enum Caller {
+    ROOM_CHAT,
+    RIDDLE,
+    DECRYPTION_HINT,
+    LOGIC_GATE_CHAT,
+    OTHER
+  }
+
+  /** Where the response to a call came from. */
+  public enum Source {
+    PROXY,
+    CACHE,
+    SHARED,
+    CASSETTE,
+    LOCAL
+  }
+
+  /**
+   * The usage added up over a number of calls.
+   *
+   * @param calls the number of calls that succeeded
+   * @param proxyCalls the number of those calls answered by the API proxy
+   * @param failures the number of calls that failed
+   * @param promptTokens the number of prompt tokens sent to the API proxy
+   * @param completionTokens the number of completion tokens received from the API proxy
+   * @param totalLatencyMillis the time spent waiting on all calls, including failed ones
+   * @param maxLatencyMillis the longest time spent waiting on a single call
+   */
+  public record Totals(
+      long calls,
+      long proxyCalls,
+      long failures,
+      long promptTokens,
+      long completionTokens,
+      long totalLatencyMillis,
+      long maxLatencyMillis) {
+
+    /** The totals of no calls at all. */
+    public static final Totals NONE = new Totals(0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Returns the number of prompt and completion tokens used.
+     *
+     * @return the total number of tokens
+     */
+    public long getTotalTokens() {
+      return promptTokens + completionTokens;
+    }
+
+    /**
+     * Returns the average time spent waiting on a call, including failed ones.
+     *
+     * @return the average latency, or 0 if no calls were made
+     */
+    public long getAverageLatencyMillis() {
+      long attempts = calls + failures;
+      return (attempts == 0) ? 0 : totalLatencyMillis / attempts;
+    }
+
+    /**
+     * Adds these totals to other totals.
+     *
+     * @param other the totals to add
+     * @return the combined totals
+     */
+    public Totals plus(Totals other) {
+      return new Totals(
+          calls + other.calls,
+          proxyCalls + other.proxyCalls,
+          failures + other.failures,
+          promptTokens + other.promptTokens,
+          completionTokens + other.completionTokens,
+          totalLatencyMillis + other.totalLatencyMillis,
+          Math.max(maxLatencyMillis, other.maxLatencyMillis));
+    }
+
+    private String toJson() {
+      return String.format(
+          "{\"calls\":%d,\"proxy_calls\":%d,\"failures\":%d,\"prompt_tokens\":%d,"
+              + "\"completion_tokens\":%d,\"average_latency_ms\":%d,\"max_latency_ms\":%d}",
+          calls,
+          proxyCalls,
+          failures,
+          promptTokens,
+          completionTokens,
+          getAverageLatencyMillis(),
+          maxLatencyMillis);
+    }
+  }
+
+  /** The system property that sets the file the default ledger writes sessions to. */
+  public static final String FILE_PROPERTY = "gpt.usage.file";
+
+  private static final String DEFAULT_FILE = "gpt-usage.log";
+
+  private static UsageLedger defaultLedger;
+
+  /**
+   * Returns the ledger shared by the game, creating it on first use.
+   *
+   * @return the default usage ledger
+   */
+  public static synchronized UsageLedger getDefault() {
+    if (defaultLedger == null) {
+      defaultLedger = new UsageLedger(new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE)));
+    }
+    return defaultLedger;
+  }
+
+  private final File file;
+  private final Map<Caller, Totals> session = new EnumMap<>(Caller.class);
+  private final Map<Caller, Totals> lifetime = new EnumMap<>(Caller.class);
+
+  private int sessionNumber;
+  private Instant sessionStart;
+
+  /**
+   * Creates a usage ledger.
+   *
+   * @param file the file that ended sessions are appended to, or null to not write them anywhere
+   */
+  public UsageLedger(File file) {
+    this.file = file;
+  }
+
+  /** Starts counting a new game session, dropping the counts of any session that never ended. */
+  public synchronized void startSession() {
+    session.clear();
+    sessionNumber++;
+    sessionStart = Instant.now();
+  }
+
+  /**
+   * Ends the current game session and appends its counts to the ledger's file. Nothing is written
+   * if no session was started.
+   *
+   * @param outcome how the session ended, such as the screen the game ended on
+   * @return the totals of the session over all callers
+   */
+  public synchronized Totals endSession(String outcome) {
+    if (sessionStart == null) {
+      return Totals.NONE;
+    }
+
+    Totals totals = getSessionTotals();
+    if (file != null) {
+      try (Writer writer = new FileWriter(file, true)) {
+        writer.write(toJson(outcome, totals));
+        writer.write('\n');
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    sessionStart = null;
+    session.clear();
+    return totals;
+  }
+
+  /**
+   * Records a call that succeeded.
+   *
+   * @param caller the part of the game that made the call
+   * @param source where the response came from
+   * @param promptTokens the number of prompt tokens sent to the API proxy
+   * @param completionTokens the number of completion tokens received from the API proxy
+   * @param latencyMillis how long the call took
+   */
+  public void recordCall(
+      Caller caller, Source source, int promptTokens, int completionTokens, long latencyMillis) {
+    // Tokens are only used when the proxy answers
+    boolean isProxy = source == Source.PROXY;
+    add(
+        caller,
+        new Totals(
+            1,
+            isProxy ? 1 : 0,
+            0,
+            isProxy ? promptTokens : 0,
+            isProxy ? completionTokens : 0,
+            latencyMillis,
+            latencyMillis));
+  }
+
+  /**
+   * Records a call that failed.
+   *
+   * @param caller the part of the game that made the call
+   * @param latencyMillis how long the call took to fail
+   */
+  public void recordFailure(Caller caller, long latencyMillis) {
+    add(caller, new Totals(0, 0, 1, 0, 0, latencyMillis, latencyMillis));
+  }
+
+  /**
+   * Returns the totals of a caller in the current session.
+   *
+   * @param caller the part of the game that made the calls
+   * @return the totals of the caller
+   */
+  public synchronized Totals getSessionTotals(Caller caller) {
+    return session.getOrDefault(caller, Totals.NONE);
+  }
+
+  /**
+   * Returns the totals of every caller in the current session.
+   *
+   * @return the totals of the session
+   */
+  public synchronized Totals getSessionTotals() {
+    return sum(session);
+  }
+
+  /**
+   * Returns the totals of a caller since the game started.
+   *
+   * @param caller the part of the game that made the calls
+   * @return the totals of the caller
+   */
+  public synchronized Totals getTotals(Caller caller) {
+    return lifetime.getOrDefault(caller, Totals.NONE);
+  }
+
+  /**
+   * Returns the totals of every caller since the game started.
+   *
+   * @return the totals of the game
+   */
+  public synchronized Totals getTotals() {
+    return sum(lifetime);
+  }
+
+  /**
+   * Returns a summary of the usage since the game started, for printing.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    Totals totals = getTotals();
+    return String.format(
+        "usage ledger: %d calls (%d to the proxy, %d failed), %d prompt + %d completion tokens,"
+            + " %d ms average latency",
+        totals.calls(),
+        totals.proxyCalls(),
+        totals.failures(),
+        totals.promptTokens(),
+        totals.completionTokens(),
+        totals.getAverageLatencyMillis());
+  }
+
+  private synchronized void add(Caller caller, Totals call) {
+    session.merge(caller, call, Totals::plus);
+    lifetime.merge(caller, call, Totals::plus);
+  }
+
+  private static Totals sum(Map<Caller, Totals> totals) {
+    Totals sum = Totals.NONE;
+    for (Totals callerTotals : totals.values()) {
+      sum = sum.plus(callerTotals);
+    }
+    return sum;
+  }
+
+  private String toJson(String outcome, Totals totals) {
+    // Only numbers and enum names are written, so nothing needs escaping but the outcome
+    StringBuilder json = new StringBuilder();
+    json.append("{\"session\":").append(sessionNumber);
+    json.append(",\"outcome\":\"").append(outcome.replaceAll("[^A-Za-z0-9_ -]", "")).append('"');
+    json.append(",\"started\":\"").append(sessionStart).append('"');
+    json.append(",\"seconds\":")
+        .append(
+            TimeUnit.MILLISECONDS.toSeconds(
+                Instant.now().toEpochMilli() - sessionStart.toEpochMilli()));
+    json.append(",\"callers\":{");
+    boolean isFirst = true;
+    for (Map.Entry<Caller, Totals> entry : session.entrySet()) {
+      if (!isFirst) {
+        json.append(',');
+      }
+      isFirst = false;
+      json.append('"').append(entry.getKey()).append("\":").append(entry.getValue().toJson());
+    }
+    json.append("},\"total\":").append(totals.toJson()).append('}');
+    return json.toString();
+  }
+}
@@ -0,0 +1,212 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends requests over a pooled Apache HttpClient, one request per HTTP/1.1 connection at a time.
+ * Connections are kept alive between requests, bounded per route, and evicted once they have been
+ * idle for too long. Connecting and reading are bounded by the timeouts in the configuration.
+ */
+public class ApacheChatTransport implements ChatTransport {
+
+  private static final int MAX_CONNECTIONS_TOTAL = 16;
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+  private static final long MAX_KEEP_ALIVE_MILLIS = 30_000;
+  private static final long MAX_IDLE_MILLIS = 30_000;
+  private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2_000;
+
+  private final ApiProxyConfig config;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * Creates a transport with its own connection pool.
+   *
+   * @param config the timeouts to use
+   */
+  public ApacheChatTransport(ApiProxyConfig config) {
+    this.config = config;
+
+    // Bound the number of connections we may open to the proxy
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+    connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+    // Honour the server's keep-alive header, but never hold a connection for too long
+    DefaultConnectionKeepAliveStrategy keepAliveStrategy =
+        new DefaultConnectionKeepAliveStrategy() {
+          @Override
+          public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            if (duration <= 0) {
+              return MAX_KEEP_ALIVE_MILLIS;
+            }
+            return Math.min(duration, MAX_KEEP_ALIVE_MILLIS);
+          }
+        };
+
+    // Never wait forever on a slow or unreachable proxy
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(config.getConnectTimeoutMillis())
+            .setConnectionRequestTimeout(config.getConnectTimeoutMillis())
+            .setSocketTimeout(config.getSocketTimeoutMillis())
+            .build();
+
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(MAX_IDLE_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  @Override
+  public Exchange newExchange(String endpoint, String accept, HttpEntity body) {
+    HttpPost httpPost = new HttpPost(endpoint);
+    httpPost.setHeader("Content-Type", "application/json");
+    httpPost.setHeader("Accept", accept);
+    httpPost.setEntity(body);
+
+    return new Exchange() {
+      @Override
+      public ChatCompletionResult execute(ResponseReader reader) throws IOException {
+        return httpClient.execute(
+            httpPost,
+            httpResponse -> {
+              HttpEntity entity = httpResponse.getEntity();
+              Header contentType = (entity == null) ? null : entity.getContentType();
+              InputStream content =
+                  (entity == null) ? InputStream.nullInputStream() : entity.getContent();
+              return reader.read(
+                  httpResponse.getStatusLine().getStatusCode(),
+                  (contentType == null) ? null : contentType.getValue(),
+                  isEventStream(contentType) ? new CutOffStream(content) : content);
+            });
+      }
+
+      @Override
+      public void abort() {
+        httpPost.abort();
+      }
+    };
+  }
+
+  /**
+   * Checks whether a response is an event stream, which is only closed early when it is cut off.
+   *
+   * @param contentType the content type of the response, or null if it has none
+   * @return whether the response is an event stream
+   */
+  private static boolean isEventStream(Header contentType) {
+    return contentType != null && contentType.getValue().startsWith("text/event-stream");
+  }
+
+  /**
+   * Opens a connection to the endpoint and leaves it in the pool, so the next request does not
+   * have to wait for the connection and TLS handshake. Nothing is sent over the connection. If a
+   * connection is already kept alive, it is left as it is.
+   *
+   * @param endpoint the URL of the endpoint
+   * @throws IOException if the endpoint could not be reached
+   */
+  @Override
+  public void openConnection(String endpoint) throws IOException {
+    // Work out the route the same way the client does, so the request finds the connection
+    HttpRoute route;
+    HttpClientContext context = HttpClientContext.create();
+    try {
+      route =
+          new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE)
+              .determineRoute(
+                  URIUtils.extractHost(URI.create(endpoint)), new HttpPost(endpoint), context);
+    } catch (HttpException | IllegalArgumentException e) {
+      throw new IOException("Invalid endpoint: " + endpoint, e);
+    }
+
+    // Lease a connection from the pool, which may already have one open
+    HttpClientConnection connection;
+    try {
+      connection =
+          connectionManager
+              .requestConnection(route, null)
+              .get(config.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while opening a connection", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not open a connection", e);
+    }
+
+    // Connect it if it is new, then hand it back to be kept alive for the next request
+    try {
+      if (!connection.isOpen()) {
+        connectionManager.connect(connection, route, config.getConnectTimeoutMillis(), context);
+        connectionManager.routeComplete(connection, route, context);
+      }
+    } finally {
+      connectionManager.releaseConnection(
+          connection, null, MAX_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return connectionManager.getTotalStats().getAvailable();
+  }
+
+  @Override
+  public void close() {
+    try {
+      httpClient.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * An event stream that drops its connection when the reader closes it part way, rather than read
+   * out the rest of a reply that may still be being generated.
+   */
+  private static class CutOffStream extends FilterInputStream {
+
+    private CutOffStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in instanceof ConnectionReleaseTrigger) {
+        ((ConnectionReleaseTrigger) in).abortConnection();
+      } else {
+        in.close();
+      }
+    }
+  }
+}
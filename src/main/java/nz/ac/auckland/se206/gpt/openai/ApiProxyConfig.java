@@ -1,6 +1,7 @@
 package nz.ac.auckland.se206.gpt.openai;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import java.io.File;
@@ -9,6 +10,16 @@ import java.io.File;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ApiProxyConfig {
 
+  /** The HTTP client that carries requests to the proxy. */
+  public enum Transport {
+    /** Apache HttpClient over pooled HTTP/1.1 connections. */
+    @JsonProperty("apache")
+    APACHE,
+    /** The JDK's HttpClient, multiplexing requests over a single HTTP/2 connection. */
+    @JsonProperty("http2")
+    HTTP2
+  }
+
   /**
    * Reads the API proxy configuration from a file.
    *
@@ -55,8 +66,37 @@ public class ApiProxyConfig {
     return value == null || value.trim().isEmpty();
   }
 
+  /**
+   * Creates an API proxy configuration for the given credentials, with the default timeouts,
+   * retries and circuit breaker.
+   *
+   * @param email the email associated with the API proxy
+   * @param apiKey the API key associated with the API proxy
+   * @return the API proxy configuration
+   */
+  public static ApiProxyConfig create(String email, String apiKey) {
+    return new ApiProxyConfig(email, apiKey);
+  }
+
   private String email;
   private String apiKey;
+  private String endpoint;
+
+  // Optional settings for calling the proxy, which default to failing fast when it is down
+  private int connectTimeoutMillis = 5_000;
+  private int socketTimeoutMillis = 15_000;
+  private int requestDeadlineMillis = 30_000;
+  private int maxRetries = 2;
+  private int retryBackoffMillis = 250;
+  private int circuitFailureThreshold = 3;
+  private int circuitOpenMillis = 15_000;
+  private int maxConcurrentRequests = 3;
+  private double maxRequestsPerSecond = 5;
+  private int maxTokensPerMinute = 60_000;
+  private Transport transport = Transport.APACHE;
+  private double hedgePercentile = 0.9;
+  private int hedgeAfterMillis = 3_000;
+  private int fallbackAfterMillis = 8_000;
 
   private ApiProxyConfig() {}
 
@@ -82,4 +122,313 @@ public class ApiProxyConfig {
   public String getApiKey() {
     return apiKey;
   }
+
+  /**
+   * Returns the URL of the chat completion endpoint to call instead of the default proxy.
+   *
+   * @return the endpoint, or null to use the default proxy
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Sets the URL of the chat completion endpoint to call instead of the default proxy, such as a
+   * local stand-in proxy.
+   *
+   * @param endpoint the endpoint, or null to use the default proxy
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setEndpoint(String endpoint) {
+    this.endpoint = endpoint;
+    return this;
+  }
+
+  /**
+   * Returns how long to wait for a connection to the proxy to be established.
+   *
+   * @return the connect timeout in milliseconds
+   */
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  /**
+   * Sets how long to wait for a connection to the proxy to be established.
+   *
+   * @param connectTimeoutMillis the connect timeout in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setConnectTimeoutMillis(int connectTimeoutMillis) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Returns how long to wait for the next data from the proxy once connected.
+   *
+   * @return the socket timeout in milliseconds
+   */
+  public int getSocketTimeoutMillis() {
+    return socketTimeoutMillis;
+  }
+
+  /**
+   * Sets how long to wait for the next data from the proxy once connected.
+   *
+   * @param socketTimeoutMillis the socket timeout in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setSocketTimeoutMillis(int socketTimeoutMillis) {
+    this.socketTimeoutMillis = socketTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Returns the most time a request may take, including all of its retries.
+   *
+   * @return the request deadline in milliseconds
+   */
+  public int getRequestDeadlineMillis() {
+    return requestDeadlineMillis;
+  }
+
+  /**
+   * Sets the most time a request may take, including all of its retries.
+   *
+   * @param requestDeadlineMillis the request deadline in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setRequestDeadlineMillis(int requestDeadlineMillis) {
+    this.requestDeadlineMillis = requestDeadlineMillis;
+    return this;
+  }
+
+  /**
+   * Returns how many times a request that failed to reach the proxy is retried.
+   *
+   * @return the maximum number of retries
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Sets how many times a request that failed to reach the proxy is retried.
+   *
+   * @param maxRetries the maximum number of retries
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * Returns how long to wait before the first retry. The wait doubles with each further retry.
+   *
+   * @return the initial backoff in milliseconds
+   */
+  public int getRetryBackoffMillis() {
+    return retryBackoffMillis;
+  }
+
+  /**
+   * Sets how long to wait before the first retry. The wait doubles with each further retry.
+   *
+   * @param retryBackoffMillis the initial backoff in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setRetryBackoffMillis(int retryBackoffMillis) {
+    this.retryBackoffMillis = retryBackoffMillis;
+    return this;
+  }
+
+  /**
+   * Returns how many failures in a row open the circuit breaker, after which requests fail fast.
+   *
+   * @return the failure threshold
+   */
+  public int getCircuitFailureThreshold() {
+    return circuitFailureThreshold;
+  }
+
+  /**
+   * Sets how many failures in a row open the circuit breaker, after which requests fail fast.
+   *
+   * @param circuitFailureThreshold the failure threshold
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setCircuitFailureThreshold(int circuitFailureThreshold) {
+    this.circuitFailureThreshold = circuitFailureThreshold;
+    return this;
+  }
+
+  /**
+   * Returns how long the circuit breaker stays open before a trial request is let through.
+   *
+   * @return the open time in milliseconds
+   */
+  public int getCircuitOpenMillis() {
+    return circuitOpenMillis;
+  }
+
+  /**
+   * Sets how long the circuit breaker stays open before a trial request is let through.
+   *
+   * @param circuitOpenMillis the open time in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setCircuitOpenMillis(int circuitOpenMillis) {
+    this.circuitOpenMillis = circuitOpenMillis;
+    return this;
+  }
+
+  /**
+   * Returns the most requests that may be sent to the proxy at once, which should match its quota.
+   *
+   * @return the concurrency limit
+   */
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /**
+   * Sets the most requests that may be sent to the proxy at once, which should match its quota.
+   *
+   * @param maxConcurrentRequests the concurrency limit
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    return this;
+  }
+
+  /**
+   * Returns the most requests to send to the proxy each second, shared by every request.
+   *
+   * @return the request rate limit, or 0 for no limit
+   */
+  public double getMaxRequestsPerSecond() {
+    return maxRequestsPerSecond;
+  }
+
+  /**
+   * Sets the most requests to send to the proxy each second, shared by every request. Requests
+   * over the limit wait their turn.
+   *
+   * @param maxRequestsPerSecond the request rate limit, or 0 for no limit
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+    this.maxRequestsPerSecond = maxRequestsPerSecond;
+    return this;
+  }
+
+  /**
+   * Returns the most GPT tokens to use through the proxy each minute, shared by every request.
+   *
+   * @return the token rate limit, or 0 for no limit
+   */
+  public int getMaxTokensPerMinute() {
+    return maxTokensPerMinute;
+  }
+
+  /**
+   * Sets the most GPT tokens to use through the proxy each minute, shared by every request.
+   * Requests over the limit wait their turn.
+   *
+   * @param maxTokensPerMinute the token rate limit, or 0 for no limit
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setMaxTokensPerMinute(int maxTokensPerMinute) {
+    this.maxTokensPerMinute = maxTokensPerMinute;
+    return this;
+  }
+
+  /**
+   * Returns the HTTP client that carries requests to the proxy.
+   *
+   * @return the transport
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Sets the HTTP client that carries requests to the proxy.
+   *
+   * @param transport the transport
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * Returns the percentile of past response times after which a second copy of a call the player
+   * is waiting on is sent.
+   *
+   * @return the percentile, such as 0.9, or 0 to never send a second copy
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * Sets the percentile of past response times after which a second copy of a call the player is
+   * waiting on is sent.
+   *
+   * @param hedgePercentile the percentile, such as 0.9, or 0 to never send a second copy
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setHedgePercentile(double hedgePercentile) {
+    this.hedgePercentile = hedgePercentile;
+    return this;
+  }
+
+  /**
+   * Returns how long to wait before sending a second copy of a call the player is waiting on, until
+   * enough response times have been seen to work it out from them.
+   *
+   * @return the wait in milliseconds
+   */
+  public int getHedgeAfterMillis() {
+    return hedgeAfterMillis;
+  }
+
+  /**
+   * Sets how long to wait before sending a second copy of a call the player is waiting on, until
+   * enough response times have been seen to work it out from them.
+   *
+   * @param hedgeAfterMillis the wait in milliseconds
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setHedgeAfterMillis(int hedgeAfterMillis) {
+    this.hedgeAfterMillis = hedgeAfterMillis;
+    return this;
+  }
+
+  /**
+   * Returns the longest the player is made to wait on a call before a reply made up by the game is
+   * shown instead.
+   *
+   * @return the budget in milliseconds, or 0 to always wait for GPT
+   */
+  public int getFallbackAfterMillis() {
+    return fallbackAfterMillis;
+  }
+
+  /**
+   * Sets the longest the player is made to wait on a call before a reply made up by the game is
+   * shown instead.
+   *
+   * @param fallbackAfterMillis the budget in milliseconds, or 0 to always wait for GPT
+   * @return the configuration, for chaining
+   */
+  public ApiProxyConfig setFallbackAfterMillis(int fallbackAfterMillis) {
+    this.fallbackAfterMillis = fallbackAfterMillis;
+    return this;
+  }
 }
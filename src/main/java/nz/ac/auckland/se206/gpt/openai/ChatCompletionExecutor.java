@@ -0,0 +1,111 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the single, bounded executor that runs chat completion requests off the JavaFX thread. When
+ * the JDK supports virtual threads they are used as workers, otherwise a small pool of named daemon
+ * platform threads is used.
+ */
+public class ChatCompletionExecutor {
+
+  private static final int MAX_THREADS = 4;
+  private static final long IDLE_SECONDS = 30;
+  private static final String THREAD_NAME_PREFIX = "gpt-worker-";
+
+  private static ThreadPoolExecutor executor;
+  private static ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Returns the shared executor, creating it on first use.
+   *
+   * @return the executor for chat completion requests.
+   */
+  public static synchronized ExecutorService getExecutor() {
+    if (executor == null || executor.isShutdown()) {
+      executor =
+          new ThreadPoolExecutor(
+              MAX_THREADS,
+              MAX_THREADS,
+              IDLE_SECONDS,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              createThreadFactory());
+
+      // Let idle workers die so the pool costs nothing between chats
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+
+  /**
+   * Runs a task after a delay on the shared scheduler thread, which is used to enforce request
+   * deadlines.
+   *
+   * @param task the task to run.
+   * @param delayMillis the delay in milliseconds.
+   * @return the scheduled task, which should be cancelled if it is no longer needed.
+   */
+  public static synchronized ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+    if (scheduler == null || scheduler.isShutdown()) {
+      scheduler =
+          new ScheduledThreadPoolExecutor(
+              1,
+              runnable -> {
+                Thread thread = new Thread(runnable, "gpt-deadline");
+                thread.setDaemon(true);
+                return thread;
+              });
+
+      // Drop cancelled deadlines straight away, as most requests finish in time
+      scheduler.setRemoveOnCancelPolicy(true);
+    }
+    return scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the executor, interrupting any requests that are still running. */
+  public static synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Creates the thread factory for the workers. Virtual threads are looked up reflectively as the
+   * project still compiles against Java 17.
+   *
+   * @return a virtual thread factory if supported, otherwise a daemon platform thread factory.
+   */
+  private static ThreadFactory createThreadFactory() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+      // Name the virtual threads the same way as the platform ones
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, THREAD_NAME_PREFIX, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Virtual threads are not available on this JDK
+      AtomicInteger count = new AtomicInteger();
+      return runnable -> {
+        Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.ChatMessage;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Choice;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult.Usage;
+import org.apache.http.client.ClientProtocolException;
+
+/**
+ * Reads chat completion responses token by token, straight from the response stream into typed
+ * results, without building an intermediate tree or map. Fields that are not needed are skipped,
+ * and so are any choices after the first when only the first is wanted.
+ */
+public class ChatCompletionParser {
+
+  /**
+   * A chunk of a streamed chat completion. Fields that the chunk does not carry are null.
+   *
+   * @param model the model used for the chat completion
+   * @param role the role of the message, which only the first chunk carries
+   * @param content the next piece of the message
+   * @param finishReason the reason for finishing, which only the last chunk carries
+   */
+  public record Chunk(String model, String role, String content, String finishReason) {}
+
+  private static final ObjectMapper mapper =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private static final JsonFactory factory = mapper.getFactory();
+
+  /**
+   * Returns the shared, pre-configured mapper for reading and writing API proxy JSON.
+   *
+   * @return the shared mapper
+   */
+  public static ObjectMapper getMapper() {
+    return mapper;
+  }
+
+  /**
+   * Reads an API proxy response envelope into a result.
+   *
+   * @param in the response body, which is closed once read
+   * @param isFirstChoiceOnly whether to skip any choices after the first
+   * @return the result
+   * @throws ClientProtocolException if the proxy reported that the call was unsuccessful
+   * @throws IOException if the response could not be read
+   */
+  public static ChatCompletionResult parseResponse(InputStream in, boolean isFirstChoiceOnly)
+      throws IOException {
+    try (JsonParser parser = factory.createParser(in)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+      boolean success = false;
+      int code = 0;
+      String message = null;
+      ChatCompletionResult result = null;
+
+      // The fields of the envelope may come in any order
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        switch (field) {
+          case "success":
+            success = parser.getValueAsBoolean();
+            break;
+          case "code":
+            code = parser.getValueAsInt();
+            break;
+          case "message":
+            message = parser.getValueAsString();
+            break;
+          case "chat_completion":
+            if (value == JsonToken.START_OBJECT) {
+              result = readChatCompletion(parser, isFirstChoiceOnly);
+            }
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+
+      // Check for API call success and handle any errors
+      if (!success && code != 0) {
+        throw new ClientProtocolException(message);
+      }
+      if (result == null) {
+        throw new IOException("The response has no chat completion");
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Reads a chat completion, without its envelope, into a result.
+   *
+   * @param json the chat completion JSON
+   * @return the result
+   * @throws IOException if the JSON could not be read
+   */
+  public static ChatCompletionResult parseChatCompletion(byte[] json) throws IOException {
+    try (JsonParser parser = factory.createParser(json)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+      return readChatCompletion(parser, false);
+    }
+  }
+
+  /**
+   * Reads the data of a server-sent event of a streamed chat completion. Only the first choice is
+   * read.
+   *
+   * @param data the JSON data of the event
+   * @return the chunk
+   * @throws IOException if the JSON could not be read
+   */
+  public static Chunk parseChunk(String data) throws IOException {
+    try (JsonParser parser = factory.createParser(data)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+      String model = null;
+      String role = null;
+      String content = null;
+      String finishReason = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("model")) {
+          model = parser.getValueAsString();
+        } else if (field.equals("choices") && value == JsonToken.START_ARRAY) {
+          // Read the first choice and skip the rest
+          boolean isFirst = true;
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!isFirst) {
+              parser.skipChildren();
+              continue;
+            }
+            isFirst = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+              String choiceField = parser.getCurrentName();
+              JsonToken choiceValue = parser.nextToken();
+              if (choiceField.equals("finish_reason")) {
+                finishReason = parser.getValueAsString();
+              } else if (choiceField.equals("delta") && choiceValue == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                  String deltaField = parser.getCurrentName();
+                  parser.nextToken();
+                  if (deltaField.equals("role")) {
+                    role = parser.getValueAsString();
+                  } else if (deltaField.equals("content")) {
+                    content = parser.getValueAsString();
+                  } else {
+                    parser.skipChildren();
+                  }
+                }
+              } else {
+                parser.skipChildren();
+              }
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return new Chunk(model, role, content, finishReason);
+    }
+  }
+
+  /**
+   * Writes a result as chat completion JSON, which can be read back with {@link
+   * #parseChatCompletion(byte[])}.
+   *
+   * @param result the result to write
+   * @return the compact JSON, which contains no line breaks
+   * @throws IOException if the JSON could not be written
+   */
+  public static byte[] write(ChatCompletionResult result) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    try (JsonGenerator generator = factory.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeStringField("model", result.getModel());
+      generator.writeNumberField("created", result.getCreated());
+
+      Usage usage = result.getUsage();
+      generator.writeObjectFieldStart("usage");
+      generator.writeNumberField("prompt_tokens", usage.promptTokens());
+      generator.writeNumberField("completion_tokens", usage.completionTokens());
+      generator.writeNumberField("total_tokens", usage.totalTokens());
+      generator.writeEndObject();
+
+      generator.writeArrayFieldStart("choices");
+      for (Choice choice : result.getChoices()) {
+        generator.writeStartObject();
+        generator.writeNumberField("index", choice.getIndex());
+        generator.writeStringField("finish_reason", choice.getFinishReason());
+        generator.writeObjectFieldStart("message");
+        generator.writeStringField("role", choice.getChatMessage().getRole());
+        generator.writeStringField("content", choice.getChatMessage().getContent());
+        generator.writeEndObject();
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    return out.toByteArray();
+  }
+
+  private static ChatCompletionResult readChatCompletion(
+      JsonParser parser, boolean isFirstChoiceOnly) throws IOException {
+    String model = "";
+    long created = 0;
+    Usage usage = Usage.UNKNOWN;
+    List<Choice> choices = new ArrayList<>(1);
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "model":
+          model = parser.getValueAsString();
+          break;
+        case "created":
+          created = parser.getValueAsLong();
+          break;
+        case "usage":
+          if (value == JsonToken.START_OBJECT) {
+            usage = readUsage(parser);
+          }
+          break;
+        case "choices":
+          if (value == JsonToken.START_ARRAY) {
+            readChoices(parser, choices, isFirstChoiceOnly);
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+
+    return new ChatCompletionResult(model, created, usage, choices);
+  }
+
+  private static Usage readUsage(JsonParser parser) throws IOException {
+    int promptTokens = 0;
+    int completionTokens = 0;
+    int totalTokens = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "prompt_tokens":
+          promptTokens = parser.getValueAsInt();
+          break;
+        case "completion_tokens":
+          completionTokens = parser.getValueAsInt();
+          break;
+        case "total_tokens":
+          totalTokens = parser.getValueAsInt();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new Usage(promptTokens, completionTokens, totalTokens);
+  }
+
+  private static void readChoices(
+      JsonParser parser, List<Choice> choices, boolean isFirstChoiceOnly) throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      // Skip over the choices nobody will look at
+      if (isFirstChoiceOnly && !choices.isEmpty()) {
+        parser.skipChildren();
+        continue;
+      }
+
+      int index = choices.size();
+      String finishReason = null;
+      String role = "assistant";
+      String content = "";
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("index")) {
+          index = parser.getValueAsInt();
+        } else if (field.equals("finish_reason")) {
+          finishReason = parser.getValueAsString();
+        } else if (field.equals("message") && value == JsonToken.START_OBJECT) {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String messageField = parser.getCurrentName();
+            parser.nextToken();
+            if (messageField.equals("role")) {
+              role = parser.getValueAsString();
+            } else if (messageField.equals("content")) {
+              content = parser.getValueAsString("");
+            } else {
+              parser.skipChildren();
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      choices.add(new Choice(new ChatMessage(role, content), index, finishReason));
+    }
+  }
+
+  private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+      throws IOException {
+    if (actual != expected) {
+      throw new IOException(
+          "Expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+    }
+  }
+}
@@ -1,34 +1,93 @@
 package nz.ac.auckland.se206.gpt.openai;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import nz.ac.auckland.se206.gpt.Cassette;
 import nz.ac.auckland.se206.gpt.ChatMessage;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import nz.ac.auckland.se206.gpt.ConversationWindow;
+import nz.ac.auckland.se206.gpt.ResponseCache;
+import nz.ac.auckland.se206.gpt.SingleFlight;
+import nz.ac.auckland.se206.gpt.TokenEstimator;
+import nz.ac.auckland.se206.gpt.UsageLedger;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
+import nz.ac.auckland.se206.gpt.UsageLedger.Source;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.entity.ContentType;
 
 /** Responsible for preparing and executing an OpenAI Chat Completion request. */
 public class ChatCompletionRequest {
 
   private static final int NOT_SET = -1;
-  private static final String URL_COMPLETION_ENDPOINT =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/openai-chat-completion";
+  private static final int MAX_STOP_SEQUENCES = 4;
+  private static final int REPLY_PRIMING_TOKENS = 3;
+  private static final String EVENT_STREAM = "text/event-stream";
+  private static final String STREAM_ACCEPT = EVENT_STREAM + ", application/json";
   private static final OpenAiService openAiServiceFromFile = new OpenAiService("apiproxy.config");
+  private static final SingleFlight<ChatCompletionResult, ApiProxyException> singleFlight =
+      new SingleFlight<>(ApiProxyException.class);
+
+  /**
+   * Returns the OpenAiService loaded from file, which is shared by every request created with the
+   * default constructor.
+   *
+   * @return the default OpenAiService.
+   */
+  public static OpenAiService getDefaultService() {
+    return openAiServiceFromFile;
+  }
+
+  /**
+   * Returns the single-flight group that collapses identical requests made at the same time, so
+   * its statistics can be reported.
+   *
+   * @return the single-flight group shared by every request.
+   */
+  public static SingleFlight<ChatCompletionResult, ApiProxyException> getSingleFlight() {
+    return singleFlight;
+  }
 
   private final OpenAiService openAiService;
   private final List<ChatMessage> messages;
+  private final ChatRequestSerializer serializer = new ChatRequestSerializer();
+  private final Set<ChatTransport.Exchange> inFlight = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger abortCount = new AtomicInteger();
 
   // Optional parameters
   private int maxTokens = NOT_SET;
   private double temperature = NOT_SET;
   private double topP = NOT_SET;
   private int numChoice = NOT_SET;
+  private List<String> stop = List.of();
+
+  private boolean isFirstChoiceOnly = false;
+
+  private ResponseCache cache;
+  private ConversationWindow window;
+  private Cassette cassette = Cassette.getDefault();
+  private UsageLedger ledger = UsageLedger.getDefault();
+  private Caller caller = Caller.OTHER;
+  private Priority priority = Priority.INTERACTIVE;
+  private boolean isShared = true;
+  private ChatProvider provider = ChatProvider.getDefault();
 
   /**
    * Constructs a ChatCompletionRequest using the specified OpenAiService.
@@ -134,6 +193,249 @@ public class ChatCompletionRequest {
     return this;
   }
 
+  /**
+   * Sets the stop sequences for the request. Generation ends as soon as one of them is written, and
+   * the sequence itself is left out of the response.
+   *
+   * @param sequences the stop sequences, up to four.
+   * @return the current ChatCompletionRequest instance.
+   * @throws IllegalArgumentException if there are more than four sequences, or any are empty.
+   */
+  public ChatCompletionRequest setStop(String... sequences) {
+    if (sequences.length > MAX_STOP_SEQUENCES) {
+      throw new IllegalArgumentException(
+          "'stop' can have at most "
+              + MAX_STOP_SEQUENCES
+              + " sequences, but was given "
+              + sequences.length);
+    }
+    for (String sequence : sequences) {
+      if (sequence.isEmpty()) {
+        throw new IllegalArgumentException("'stop' sequences must not be empty");
+      }
+    }
+    this.stop = List.of(sequences);
+    return this;
+  }
+
+  /**
+   * Sets whether only the first choice of the response is read. The rest are skipped over while
+   * parsing, which saves building choices that the caller will never look at.
+   *
+   * @param isFirstChoiceOnly whether to read only the first choice.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setFirstChoiceOnly(boolean isFirstChoiceOnly) {
+    this.isFirstChoiceOnly = isFirstChoiceOnly;
+    return this;
+  }
+
+  /**
+   * Sets the cache to serve this request from. When set, the response to a request is looked up by
+   * its fingerprint before calling the API, and stored afterwards. Only requests whose response is
+   * worth reusing for identical input should be cached.
+   *
+   * @param cache the cache, or null to always call the API.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setCache(ResponseCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  /**
+   * Sets the cassette that responses are recorded to or played back from. Requests use the
+   * cassette chosen by the system properties unless told otherwise.
+   *
+   * @param cassette the cassette.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setCassette(Cassette cassette) {
+    this.cassette = cassette;
+    return this;
+  }
+
+  /**
+   * Sets the part of the game making this request, so its usage is counted against it.
+   *
+   * @param caller the part of the game making the request.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setCaller(Caller caller) {
+    this.caller = caller;
+    return this;
+  }
+
+  /**
+   * Sets how urgently this request is needed, which decides the order it is sent in when executed
+   * asynchronously. Requests are interactive unless told otherwise.
+   *
+   * @param priority the priority of the request.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setPriority(Priority priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * Sets whether this request may share the result of an identical request already in flight.
+   * Requests are shared unless told otherwise, but a request sent to race an identical one, such
+   * as a hedge, must be sent on its own.
+   *
+   * @param isShared whether to share the result of an identical request in flight.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setShared(boolean isShared) {
+    this.isShared = isShared;
+    return this;
+  }
+
+  /**
+   * Sets who answers this request, which is the API proxy unless told otherwise. The provider can
+   * be changed between turns of a conversation, so filler chatter can be answered locally while
+   * hints go to the proxy.
+   *
+   * @param provider the provider to answer the request.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setProvider(ChatProvider provider) {
+    this.provider = provider;
+    return this;
+  }
+
+  /**
+   * Returns who answers this request.
+   *
+   * @return the provider.
+   */
+  public ChatProvider getProvider() {
+    return provider;
+  }
+
+  /**
+   * Sets the ledger that the usage of this request is recorded in. Requests use the ledger shared
+   * by the game unless told otherwise.
+   *
+   * @param ledger the usage ledger.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setUsageLedger(UsageLedger ledger) {
+    this.ledger = ledger;
+    return this;
+  }
+
+  /**
+   * Sets the window that decides which messages are sent. The whole conversation is still kept,
+   * but only the messages in the window are sent to the API, which keeps the size of long
+   * conversations bounded.
+   *
+   * @param window the conversation window, or null to send every message.
+   * @return the current ChatCompletionRequest instance.
+   */
+  public ChatCompletionRequest setWindow(ConversationWindow window) {
+    this.window = window;
+    return this;
+  }
+
+  /**
+   * Creates a copy of this request with the same service, parameters and messages. Messages added
+   * to the copy are not added to this request, so the copy can be used to try out the next turn of
+   * a conversation without changing it.
+   *
+   * @return the copy.
+   */
+  public ChatCompletionRequest copy() {
+    ChatCompletionRequest copy = new ChatCompletionRequest(openAiService);
+    copy.messages.addAll(messages);
+    copy.maxTokens = maxTokens;
+    copy.temperature = temperature;
+    copy.topP = topP;
+    copy.numChoice = numChoice;
+    copy.stop = stop;
+    copy.isFirstChoiceOnly = isFirstChoiceOnly;
+    copy.cache = cache;
+    copy.window = window;
+    copy.cassette = cassette;
+    copy.ledger = ledger;
+    copy.caller = caller;
+    copy.priority = priority;
+    copy.isShared = isShared;
+    copy.provider = provider;
+    return copy;
+  }
+
+  /**
+   * Returns the messages that will be sent to the API, which are all of them unless a window has
+   * been set.
+   *
+   * @return the messages to send.
+   */
+  public List<ChatMessage> getWindowedMessages() {
+    return (window == null) ? messages : window.apply(messages);
+  }
+
+  /**
+   * Estimates the number of prompt tokens this request will send, before it is sent. This lets the
+   * caller budget and report the cost of a request without waiting for the usage in the response.
+   *
+   * @return the estimated number of prompt tokens.
+   */
+  public int estimatePromptTokens() {
+    // Every reply is primed with a few tokens, on top of the messages themselves
+    int tokens = REPLY_PRIMING_TOKENS;
+    for (ChatMessage message : getWindowedMessages()) {
+      tokens += TokenEstimator.count(message);
+    }
+    return tokens;
+  }
+
+  /**
+   * Returns a fingerprint of the request, which is a hash of the messages and the sampling
+   * parameters. Requests with the same fingerprint ask the API for the same thing.
+   *
+   * @return the fingerprint as a hexadecimal string.
+   */
+  public String getFingerprint() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+      // Hash every message sent, separating the fields so they can not run into each other
+      for (ChatMessage message : getWindowedMessages()) {
+        digest.update(message.getRole().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(message.getContent().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+
+      // Hash the sampling parameters
+      String parameters = maxTokens + "|" + temperature + "|" + topP + "|" + numChoice;
+      digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+      for (String sequence : stop) {
+        digest.update((byte) 0);
+        digest.update(sequence.getBytes(StandardCharsets.UTF_8));
+      }
+
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Aborts every execution of this request that is sending or waiting to retry, closing its
+   * connection to the API proxy. The aborted executions fail with an ApiProxyException, while later
+   * executions of the request are sent as normal. Requests sharing the result of an aborted one
+   * fail with it. An abort does not count against the circuit breaker, and an aborted trial request
+   * hands the trial on to the next request.
+   */
+  public void abort() {
+    abortCount.incrementAndGet();
+    for (ChatTransport.Exchange exchange : inFlight) {
+      exchange.abort();
+    }
+  }
+
   /**
    * Executes the chat completion request and returns the result.
    *
@@ -141,69 +443,632 @@ public class ChatCompletionRequest {
    * @throws ApiProxyException if there is a problem executing the request
    */
   public ChatCompletionResult execute() throws ApiProxyException {
+    long startNanos = System.nanoTime();
     try {
-      // Build JSON array for messages
-      JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
-      for (ChatMessage message : messages) {
-        jsonMessages.add(
-            Json.createObjectBuilder()
-                .add("role", message.getRole())
-                .add("content", message.getContent()));
+      // A local answer costs nothing to repeat, so it is not cached, shared or recorded
+      if (provider.isLocal()) {
+        ChatCompletionResult localResult = provider.complete(this);
+        recordUsage(Source.LOCAL, localResult, startNanos);
+        return localResult;
+      }
+
+      // Play the response back from the cassette instead of calling the API
+      String fingerprint = getFingerprint();
+      if (cassette.isReplaying()) {
+        ChatCompletionResult replayedResult = getReplayedResult(fingerprint);
+        recordUsage(Source.CASSETTE, replayedResult, startNanos);
+        return replayedResult;
+      }
+
+      // Serve the response from the cache if this request has been made before, otherwise share
+      // the result of an identical request that is already in flight, unless sent on its own
+      Source source = Source.CACHE;
+      ChatCompletionResult result = getCachedResult(fingerprint);
+      if (result == null && !isShared) {
+        result = send(fingerprint);
+        source = Source.PROXY;
+      } else if (result == null) {
+        AtomicBoolean isSent = new AtomicBoolean();
+        result =
+            singleFlight.execute(
+                getFlightKey(fingerprint),
+                () -> {
+                  isSent.set(true);
+                  return send(fingerprint);
+                });
+        source = isSent.get() ? Source.PROXY : Source.SHARED;
+      }
+
+      recordResult(fingerprint, result);
+      recordUsage(source, result, startNanos);
+      return result;
+    } catch (ApiProxyException e) {
+      ledger.recordFailure(caller, getElapsedMillis(startNanos));
+      throw e;
+    }
+  }
+
+  /**
+   * Has this request answered by its provider and caches the result.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @return the result of the request
+   * @throws ApiProxyException if the provider could not answer the request
+   */
+  private ChatCompletionResult send(String fingerprint) throws ApiProxyException {
+    ChatCompletionResult result = provider.complete(this);
+    putCachedResult(fingerprint, result);
+    return result;
+  }
+
+  /**
+   * Sends this request to the API proxy and waits for the whole response.
+   *
+   * @return the result of the request
+   * @throws ApiProxyException if there is an error communicating with the API proxy
+   */
+  ChatCompletionResult sendToProxy() throws ApiProxyException {
+    // Send the HTTP request over the service's pooled client and parse the response as it is read
+    return sendWithRetries(
+        false,
+        () -> true,
+        (status, contentType, body) -> ChatCompletionParser.parseResponse(body, isFirstChoiceOnly));
+  }
+
+  /**
+   * Executes the chat completion request in streaming mode. The content of the first choice is
+   * passed to the listener as it arrives, before the full result is returned. If the proxy answers
+   * with a complete response instead of a stream, its content is passed on as a single token.
+   *
+   * @param listener the listener to receive the tokens, called on the calling thread
+   * @return the result of the chat completion request, assembled from the stream
+   * @throws ApiProxyException if there is a problem executing the request
+   */
+  public ChatCompletionResult executeStreaming(ChatStreamListener listener)
+      throws ApiProxyException {
+    long startNanos = System.nanoTime();
+    try {
+      // A local answer costs nothing to repeat, so it is not cached, shared or recorded
+      if (provider.isLocal()) {
+        ChatCompletionResult localResult = provider.completeStreaming(this, listener);
+        recordUsage(Source.LOCAL, localResult, startNanos);
+        return localResult;
+      }
+
+      // Play the response back from the cassette as a single token instead of calling the API
+      String fingerprint = getFingerprint();
+      if (cassette.isReplaying()) {
+        ChatCompletionResult replayedResult = getReplayedResult(fingerprint);
+        listener.onToken(replayedResult.getChoice(0).getChatMessage().getContent());
+        recordUsage(Source.CASSETTE, replayedResult, startNanos);
+        return replayedResult;
+      }
+
+      // Serve the response from the cache as a single token if this request has been made before
+      ChatCompletionResult cachedResult = getCachedResult(fingerprint);
+      if (cachedResult != null) {
+        listener.onToken(cachedResult.getChoice(0).getChatMessage().getContent());
+        recordResult(fingerprint, cachedResult);
+        recordUsage(Source.CACHE, cachedResult, startNanos);
+        return cachedResult;
       }
 
-      // Build JSON object for overall request
-      JsonObjectBuilder jsonOverallBuilder =
-          Json.createObjectBuilder()
-              .add("email", openAiService.getEmail())
-              .add("access_token", openAiService.getApiKey())
-              .add("messages", jsonMessages);
+      // Share the result of an identical request that is already in flight
+      AtomicBoolean isSent = new AtomicBoolean();
+      ChatCompletionResult result =
+          singleFlight.execute(
+              getFlightKey(fingerprint),
+              () -> {
+                isSent.set(true);
+                return sendStreaming(fingerprint, listener);
+              });
 
-      // Add optional parameters to the request if set
-      if (maxTokens != NOT_SET) {
-        jsonOverallBuilder.add("max_tokens", maxTokens);
+      // A shared result was not streamed to this listener, so deliver it as a single token
+      if (!isSent.get()) {
+        listener.onToken(result.getChoice(0).getChatMessage().getContent());
       }
 
-      if (temperature > NOT_SET) {
-        jsonOverallBuilder.add("temperature", temperature);
+      recordResult(fingerprint, result);
+      recordUsage(isSent.get() ? Source.PROXY : Source.SHARED, result, startNanos);
+      return result;
+    } catch (ApiProxyException e) {
+      ledger.recordFailure(caller, getElapsedMillis(startNanos));
+      throw e;
+    }
+  }
+
+  /**
+   * Has this request answered by its provider, passing each token to the listener, and caches the
+   * result.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @param listener the listener to notify of each token
+   * @return the result of the request
+   * @throws ApiProxyException if the provider could not answer the request
+   */
+  private ChatCompletionResult sendStreaming(String fingerprint, ChatStreamListener listener)
+      throws ApiProxyException {
+    ChatCompletionResult result = provider.completeStreaming(this, listener);
+    putCachedResult(fingerprint, result);
+    return result;
+  }
+
+  /**
+   * Sends this request to the API proxy and passes each token to the listener as it arrives.
+   *
+   * @param listener the listener to notify of each token
+   * @return the result of the request
+   * @throws ApiProxyException if there is an error communicating with the API proxy
+   */
+  ChatCompletionResult sendToProxyStreaming(ChatStreamListener listener)
+      throws ApiProxyException {
+    // Once a token has been shown the request can not be retried without repeating it
+    AtomicBoolean isStarted = new AtomicBoolean();
+    ChatStreamListener startListener =
+        new ChatStreamListener() {
+          @Override
+          public void onToken(String token) {
+            isStarted.set(true);
+            listener.onToken(token);
+          }
+
+          @Override
+          public boolean isDone() {
+            return listener.isDone();
+          }
+        };
+
+    // Send the HTTP request and read the response as it arrives
+    return sendWithRetries(
+        true,
+        () -> !isStarted.get(),
+        (status, contentType, body) -> readStream(contentType, body, startListener));
+  }
+
+  /**
+   * Sends this request to the API proxy within the service's deadline, retrying with exponential
+   * backoff when the proxy can not be reached. Chat completions have no side effects, so they are
+   * safe to send again. Requests fail straight away while the service's circuit breaker is open.
+   *
+   * @param stream whether to ask the proxy to stream the response
+   * @param canRetry whether the request may still be retried after a failure
+   * @param reader reads the response, once it is known to be successful
+   * @return the result of the request
+   * @throws ApiProxyException if the proxy returned an error or could not be reached in time
+   */
+  private ChatCompletionResult sendWithRetries(
+      boolean stream, BooleanSupplier canRetry, ChatTransport.ResponseReader reader)
+      throws ApiProxyException {
+    ApiProxyConfig config = openAiService.getConfig();
+    CircuitBreaker circuitBreaker = openAiService.getCircuitBreaker();
+    RateLimiter rateLimiter = openAiService.getRateLimiter();
+    long deadline = System.currentTimeMillis() + config.getRequestDeadlineMillis();
+    long backoffMillis = config.getRetryBackoffMillis();
+    int aborts = abortCount.get();
+    int estimatedTokens = estimatePromptTokens() + Math.max(0, maxTokens);
+
+    for (int attempt = 0; ; attempt++) {
+      // Stop once the request has been aborted, and fail fast while the proxy is known to be down
+      checkNotAborted(aborts);
+      boolean isTrial = circuitBreaker.acquire();
+      boolean isSettled = false;
+
+      IOException failure;
+      ScheduledFuture<?> timeout = null;
+      ChatTransport.Exchange exchange = null;
+      try {
+        // Wait for the proxy's rate limits rather than have it turn the request away
+        long remainingMillis = deadline - System.currentTimeMillis();
+        if (!rateLimiter.acquire(
+            estimatedTokens, remainingMillis, () -> abortCount.get() != aborts)) {
+          checkNotAborted(aborts);
+          throw new ApiProxyException("Problem calling API: rate limited past the deadline");
+        }
+
+        // Create the HTTP request, and abort it if it runs past the deadline
+        exchange = createExchange(stream);
+        timeout =
+            ChatCompletionExecutor.schedule(exchange::abort, deadline - System.currentTimeMillis());
+
+        // Let the request be aborted from another thread, even if that happened just now
+        inFlight.add(exchange);
+        if (abortCount.get() != aborts) {
+          exchange.abort();
+        }
+
+        ChatCompletionResult result =
+            exchange.execute(
+                (status, contentType, body) -> {
+                  // Server errors are worth retrying, unlike errors in the request itself
+                  if (status >= 500 || status == 429) {
+                    throw new IOException("The API proxy responded with HTTP " + status);
+                  }
+                  return reader.read(status, contentType, body);
+                });
+        circuitBreaker.recordSuccess();
+        isSettled = true;
+        rateLimiter.settle(estimatedTokens, getTokensUsed(result));
+        return result;
+      } catch (ClientProtocolException e) {
+        // The proxy answered with an error, so sending the request again will not help
+        circuitBreaker.recordSuccess();
+        isSettled = true;
+        throw new ApiProxyException("Problem calling API: " + e.getMessage());
+      } catch (IOException e) {
+        // An aborted request says nothing about the health of the proxy
+        checkNotAborted(aborts);
+        circuitBreaker.recordFailure();
+        isSettled = true;
+        failure = e;
+      } catch (RuntimeException e) {
+        throw new ApiProxyException("Problem calling API: " + e.getMessage());
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        if (exchange != null) {
+          inFlight.remove(exchange);
+        }
+
+        // A trial that neither reached the proxy nor failed to lets the next request try instead
+        if (isTrial && !isSettled) {
+          circuitBreaker.releaseTrial();
+        }
       }
 
-      if (topP > NOT_SET) {
-        jsonOverallBuilder.add("top_p", topP);
+      // Wait a little longer before each retry, unless out of retries or time
+      long waitMillis = backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+      if (attempt >= config.getMaxRetries()
+          || !canRetry.getAsBoolean()
+          || System.currentTimeMillis() + waitMillis >= deadline) {
+        throw new ApiProxyException("Problem calling API: " + failure.getMessage());
+      }
+      System.out.println("Retrying GPT request after: " + failure.getMessage());
+      try {
+        Thread.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ApiProxyException("Problem calling API: interrupted while waiting to retry");
       }
+      backoffMillis *= 2;
+    }
+  }
+
+  /**
+   * Throws if this request has been aborted since an execution started.
+   *
+   * @param aborts the number of times the request had been aborted when the execution started
+   * @throws ApiProxyException if the request has been aborted since
+   */
+  private void checkNotAborted(int aborts) throws ApiProxyException {
+    if (abortCount.get() != aborts) {
+      throw new ApiProxyException("Problem calling API: the request was aborted");
+    }
+  }
+
+  /**
+   * Executes the chat completion request in streaming mode on the shared {@link
+   * ChatCompletionExecutor}, once the service's scheduler lets it through.
+   *
+   * @param listener the listener to receive the tokens, called on a worker thread
+   * @return a future for the result, which completes exceptionally with an ApiProxyException if
+   *     there is a problem executing the request
+   */
+  public CompletableFuture<ChatCompletionResult> executeStreamingAsync(
+      ChatStreamListener listener) {
+    return submit(() -> executeStreaming(listener));
+  }
+
+  /**
+   * Runs a call on the shared {@link ChatCompletionExecutor}, once the service's scheduler lets it
+   * through. Calls answered locally do not wait for a turn at the proxy.
+   *
+   * @param call the call
+   * @return a future for the result of the call
+   */
+  private CompletableFuture<ChatCompletionResult> submit(RequestScheduler.Call call) {
+    if (!provider.isLocal()) {
+      return openAiService.getScheduler().submit(priority, call, this::abort);
+    }
+
+    CompletableFuture<ChatCompletionResult> result = new CompletableFuture<>();
+    ChatCompletionExecutor.getExecutor()
+        .execute(
+            () -> {
+              try {
+                result.complete(call.execute());
+              } catch (ApiProxyException | RuntimeException e) {
+                result.completeExceptionally(e);
+              }
+            });
+    return result;
+  }
+
+  /**
+   * Returns the key identifying identical requests, which must also be sent to the same endpoint.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @return the single-flight key of this request
+   */
+  private String getFlightKey(String fingerprint) {
+    return openAiService.getEndpoint() + " " + fingerprint;
+  }
+
+  /**
+   * Looks up the result of this request in the cache.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @return the cached result, or null if there is none
+   */
+  private ChatCompletionResult getCachedResult(String fingerprint) {
+    if (cache == null) {
+      return null;
+    }
+    return fromBytes(cache.get(fingerprint));
+  }
 
-      if (numChoice != NOT_SET) {
-        jsonOverallBuilder.add("n", numChoice);
+  /**
+   * Stores the result of this request in the cache.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @param result the result to store
+   */
+  private void putCachedResult(String fingerprint, ChatCompletionResult result) {
+    if (cache == null) {
+      return;
+    }
+
+    byte[] response = toBytes(result);
+    if (response != null) {
+      cache.put(fingerprint, response);
+    }
+  }
+
+  /**
+   * Records the usage of a call in the ledger. Streamed responses do not report their usage, so it
+   * is estimated instead.
+   *
+   * @param source where the result came from
+   * @param result the result of the call
+   * @param startNanos when the call was made, from {@link System#nanoTime()}
+   */
+  private void recordUsage(Source source, ChatCompletionResult result, long startNanos) {
+    int promptTokens = result.getUsagePromptTokens();
+    int completionTokens = result.getUsageCompletionTokens();
+    if (source == Source.PROXY && result.getUsage().equals(ChatCompletionResult.Usage.UNKNOWN)) {
+      promptTokens = estimatePromptTokens();
+      completionTokens = estimateCompletionTokens(result);
+    }
+
+    ledger.recordCall(caller, source, promptTokens, completionTokens, getElapsedMillis(startNanos));
+  }
+
+  /**
+   * Returns the number of tokens the proxy used to answer this request, estimating them if the
+   * proxy did not say.
+   *
+   * @param result the result of the request
+   * @return the number of prompt and completion tokens
+   */
+  private int getTokensUsed(ChatCompletionResult result) {
+    if (result.getUsage().equals(ChatCompletionResult.Usage.UNKNOWN)) {
+      return estimatePromptTokens() + estimateCompletionTokens(result);
+    }
+    return result.getUsagePromptTokens() + result.getUsageCompletionTokens();
+  }
+
+  /**
+   * Estimates the number of completion tokens in a result.
+   *
+   * @param result the result
+   * @return the estimated number of completion tokens
+   */
+  private static int estimateCompletionTokens(ChatCompletionResult result) {
+    return TokenEstimator.count(result.getChoice(0).getChatMessage().getContent());
+  }
+
+  /**
+   * Returns the time since a call was made.
+   *
+   * @param startNanos when the call was made, from {@link System#nanoTime()}
+   * @return the elapsed time in milliseconds
+   */
+  private static long getElapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Plays back the recorded result of this request from the cassette.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @return the recorded result
+   * @throws ApiProxyException if this request was never recorded
+   */
+  private ChatCompletionResult getReplayedResult(String fingerprint) throws ApiProxyException {
+    ChatCompletionResult result = fromBytes(cassette.replay(fingerprint));
+    if (result == null) {
+      throw new ApiProxyException("No recorded response for request " + fingerprint);
+    }
+    return result;
+  }
+
+  /**
+   * Records the result of this request on the cassette, if it is recording.
+   *
+   * @param fingerprint the fingerprint of this request
+   * @param result the result to record
+   */
+  private void recordResult(String fingerprint, ChatCompletionResult result) {
+    if (cassette.getMode() != Cassette.Mode.RECORD) {
+      return;
+    }
+
+    byte[] response = toBytes(result);
+    if (response != null) {
+      cassette.record(fingerprint, response);
+    }
+  }
+
+  /**
+   * Serialises a result so it can be stored and read back later.
+   *
+   * @param result the result to serialise
+   * @return the result as compact JSON, or null if it could not be serialised
+   */
+  private static byte[] toBytes(ChatCompletionResult result) {
+    try {
+      return ChatCompletionParser.write(result);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Reads back a result that was serialised with {@link #toBytes(ChatCompletionResult)}.
+   *
+   * @param response the serialised result, or null
+   * @return the result, or null if there was none or it was corrupt
+   */
+  private static ChatCompletionResult fromBytes(byte[] response) {
+    if (response == null) {
+      return null;
+    }
+
+    try {
+      return ChatCompletionParser.parseChatCompletion(response);
+    } catch (IOException e) {
+      // A corrupt entry is treated as a miss
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Creates an attempt at sending this request to the API proxy, over the service's transport.
+   *
+   * @param stream whether to ask the proxy to stream the response
+   * @return the exchange, ready to be sent
+   */
+  private ChatTransport.Exchange createExchange(boolean stream) {
+    // Only the optional parameters that are set follow the messages
+    StringBuilder options = new StringBuilder();
+    if (maxTokens != NOT_SET) {
+      options.append(",\"max_tokens\":").append(maxTokens);
+    }
+
+    if (temperature > NOT_SET) {
+      options.append(",\"temperature\":").append(temperature);
+    }
+
+    if (topP > NOT_SET) {
+      options.append(",\"top_p\":").append(topP);
+    }
+
+    if (numChoice != NOT_SET) {
+      options.append(",\"n\":").append(numChoice);
+    }
+
+    if (!stop.isEmpty()) {
+      options.append(",\"stop\":[");
+      for (int i = 0; i < stop.size(); i++) {
+        options.append((i == 0) ? "\"" : ",\"");
+        options.append(JsonStringEncoder.getInstance().quoteAsString(stop.get(i))).append('"');
       }
+      options.append(']');
+    }
 
-      JsonObject value = jsonOverallBuilder.build();
+    if (stream) {
+      options.append(",\"stream\":true");
+    }
 
-      // Create and configure the HTTP request
-      HttpPost httpPost = new HttpPost(URL_COMPLETION_ENDPOINT);
-      httpPost.setHeader("Content-Type", "application/json");
-      httpPost.setHeader("Accept", "application/json");
-      httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
+    // Create and configure the HTTP request
+    return openAiService
+        .getTransport()
+        .newExchange(
+            openAiService.getEndpoint(),
+            stream ? STREAM_ACCEPT : "application/json",
+            serializer.serialize(
+                openAiService.getEmail(),
+                openAiService.getApiKey(),
+                getWindowedMessages(),
+                options.toString()));
+  }
 
-      // Send the HTTP request and process the response
-      CloseableHttpClient client = HttpClients.createDefault();
-      ResponseChatCompletion responseChat =
-          (ResponseChatCompletion)
-              client.execute(
-                  httpPost,
-                  httpResponse ->
-                      mapperApiMapper.readValue(
-                          httpResponse.getEntity().getContent(), ResponseChatCompletion.class));
+  /**
+   * Reads a streamed response, passing each token of the first choice to the listener.
+   *
+   * @param contentType the content type of the response, or null if it has none
+   * @param body the body of the response
+   * @param listener the listener to receive the tokens
+   * @return the result assembled from the stream
+   * @throws IOException if the response could not be read or reports a failure
+   */
+  private ChatCompletionResult readStream(
+      String contentType, InputStream body, ChatStreamListener listener) throws IOException {
+    // The proxy did not stream, so deliver the complete response as a single token
+    if (contentType == null || !EVENT_STREAM.equals(ContentType.parse(contentType).getMimeType())) {
+      ChatCompletionResult result = ChatCompletionParser.parseResponse(body, isFirstChoiceOnly);
+      listener.onToken(result.getChoice(0).getChatMessage().getContent());
+      return result;
+    }
+
+    String model = "";
+    String role = "assistant";
+    String finishReason = null;
+    StringBuilder content = new StringBuilder();
+
+    // Each event carries a chunk with the next piece of the message
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.startsWith("data:")) {
+        continue;
+      }
+      String data = line.substring("data:".length()).trim();
+      if (data.equals("[DONE]")) {
+        break;
+      }
+
+      ChatCompletionParser.Chunk chunk = ChatCompletionParser.parseChunk(data);
+      if (chunk.model() != null) {
+        model = chunk.model();
+      }
+      if (chunk.role() != null) {
+        role = chunk.role();
+      }
 
-      // Check for API call success and handle any errors
-      if (!responseChat.success && responseChat.code != 0) {
-        throw new ApiProxyException("Problem calling API: " + responseChat.message);
+      // Pass the new token on as soon as it arrives
+      if (chunk.content() != null) {
+        content.append(chunk.content());
+        listener.onToken(chunk.content());
       }
 
-      // Return the chat completion result
-      return new ChatCompletionResult(responseChat.chatCompletion);
+      if (chunk.finishReason() != null) {
+        finishReason = chunk.finishReason();
+      }
 
-    } catch (Exception e) {
-      throw new ApiProxyException("Problem calling API: " + e.getMessage());
+      // Stop reading once the listener has what it needs, closing the stream to end generation
+      if (listener.isDone()) {
+        finishReason = "stop";
+        body.close();
+        break;
+      }
     }
+
+    return ChatCompletionResult.fromMessage(
+        model, new ChatMessage(role, content.toString()), finishReason);
+  }
+
+  /**
+   * Executes the chat completion request on the shared {@link ChatCompletionExecutor}, once the
+   * service's scheduler lets it through.
+   *
+   * @return a future for the result, which completes exceptionally with an ApiProxyException if
+   *     there is a problem executing the request
+   */
+  public CompletableFuture<ChatCompletionResult> executeAsync() {
+    return submit(this::execute);
   }
 }
@@ -8,25 +8,14 @@ import nz.ac.auckland.se206.gpt.ChatMessage;
 /** Represents the result of a chat completion request. */
 public class ChatCompletionResult {
 
-  /** Represents a choice in the chat completion result. */
-  public class Choice {
-
-    private ChatMessage message;
-    private int index;
-    private String finishReason;
-
-    /**
-     * Constructs a new Choice object with the specified parameters.
-     *
-     * @param message the chat message
-     * @param index the index of the choice
-     * @param finishReason the reason for finishing the choice
-     */
-    protected Choice(ChatMessage message, int index, String finishReason) {
-      this.message = message;
-      this.index = index;
-      this.finishReason = finishReason;
-    }
+  /**
+   * Represents a choice in the chat completion result.
+   *
+   * @param message the chat message
+   * @param index the index of the choice
+   * @param finishReason the reason for finishing the choice
+   */
+  public record Choice(ChatMessage message, int index, String finishReason) {
 
     /**
      * Returns the chat message of the choice.
@@ -56,35 +45,43 @@ public class ChatCompletionResult {
     }
   }
 
-  private String model;
-  private long created;
+  /**
+   * Represents the number of tokens used by a chat completion request.
+   *
+   * @param promptTokens the number of tokens in the prompt
+   * @param completionTokens the number of tokens in the completion
+   * @param totalTokens the total number of tokens
+   */
+  public record Usage(int promptTokens, int completionTokens, int totalTokens) {
 
-  private int usagePromptToken;
-  private int usageCompletionTokens;
-  private int usageTotalTokens;
+    /** The usage of a response whose usage is not known. */
+    public static final Usage UNKNOWN = new Usage(0, 0, 0);
+  }
 
-  private List<Choice> choices;
+  private final String model;
+  private final long created;
+  private final Usage usage;
+  private final List<Choice> choices;
 
   /**
-   * Constructs a new ChatCompletionResult object with the provided chat completion data.
+   * Constructs a new ChatCompletionResult object with the provided chat completion data, as
+   * deserialised into maps and lists.
    *
    * @param chatCompletion the chat completion data
    */
   protected ChatCompletionResult(Map<String, Object> chatCompletion) {
-    choices = new ArrayList<>();
-    parse(chatCompletion);
-  }
-
-  private void parse(Map<String, Object> chatCompletion) {
     model = chatCompletion.get("model").toString();
     created =
         chatCompletion.get("created") == null
             ? 0
             : Long.parseLong(chatCompletion.get("created").toString());
-    usagePromptToken = getUsage("prompt_tokens", chatCompletion);
-    usageCompletionTokens = getUsage("completion_tokens", chatCompletion);
-    usageTotalTokens = getUsage("total_tokens", chatCompletion);
+    usage =
+        new Usage(
+            getUsage("prompt_tokens", chatCompletion),
+            getUsage("completion_tokens", chatCompletion),
+            getUsage("total_tokens", chatCompletion));
 
+    List<Choice> parsedChoices = new ArrayList<>();
     List<?> choicesJson = (List<?>) chatCompletion.get("choices");
     for (int c = 0; c < choicesJson.size(); c++) {
       Map<?, ?> choiceJson = (Map<?, ?>) choicesJson.get(c);
@@ -96,8 +93,49 @@ public class ChatCompletionResult {
       int index = Integer.parseInt(choiceJson.get("index").toString());
       String finishReason = choiceJson.get("finish_reason").toString();
 
-      choices.add(new Choice(new ChatMessage(role, content), index, finishReason));
+      parsedChoices.add(new Choice(new ChatMessage(role, content), index, finishReason));
     }
+    choices = List.copyOf(parsedChoices);
+  }
+
+  /**
+   * Constructs a new ChatCompletionResult object from parsed values.
+   *
+   * @param model the model used for the chat completion
+   * @param created the timestamp when the chat completion was created
+   * @param usage the number of tokens used
+   * @param choices the choices, which are copied
+   */
+  protected ChatCompletionResult(String model, long created, Usage usage, List<Choice> choices) {
+    this.model = model;
+    this.created = created;
+    this.usage = usage;
+    this.choices = List.copyOf(choices);
+  }
+
+  /**
+   * Creates a result holding a single choice, for responses that were not received as a whole (for
+   * example, when they were streamed or made up locally). The token usage is not known and
+   * reported as zero.
+   *
+   * @param model the model used for the chat completion
+   * @param message the chat message of the choice
+   * @param finishReason the reason for finishing the choice
+   * @return the chat completion result
+   */
+  public static ChatCompletionResult fromMessage(
+      String model, ChatMessage message, String finishReason) {
+    return new ChatCompletionResult(
+        model, 0, Usage.UNKNOWN, List.of(new Choice(message, 0, String.valueOf(finishReason))));
+  }
+
+  /**
+   * Returns the number of tokens used.
+   *
+   * @return the token usage
+   */
+  public Usage getUsage() {
+    return usage;
   }
 
   /**
@@ -106,7 +144,7 @@ public class ChatCompletionResult {
    * @return the number of prompt tokens
    */
   public int getUsagePromptTokens() {
-    return usagePromptToken;
+    return usage.promptTokens();
   }
 
   /**
@@ -115,7 +153,7 @@ public class ChatCompletionResult {
    * @return the number of completion tokens
    */
   public int getUsageCompletionTokens() {
-    return usageCompletionTokens;
+    return usage.completionTokens();
   }
 
   /**
@@ -124,7 +162,7 @@ public class ChatCompletionResult {
    * @return the total number of tokens
    */
   public int getUsageTotalTokens() {
-    return usageTotalTokens;
+    return usage.totalTokens();
   }
 
   /**
@@ -145,7 +183,7 @@ public class ChatCompletionResult {
     return created;
   }
 
-  private int getUsage(String key, Map<String, Object> chatCompletion) {
+  private static int getUsage(String key, Map<String, Object> chatCompletion) {
     Map<?, ?> usage = (Map<?, ?>) chatCompletion.get("usage");
     return Integer.parseInt(usage.get(key).toString());
   }
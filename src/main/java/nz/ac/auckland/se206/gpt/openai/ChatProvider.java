@@ -0,0 +1,81 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import nz.ac.auckland.se206.gpt.LocalChatProvider;
+
+/**
+ * Answers chat completion requests, so a call site can choose who answers it without changing how
+ * the request is built or how its reply is shown. The API proxy is one provider, and a provider
+ * that answers in-process from templates is another, so the game can run without a network.
+ *
+ * <p>Requests answered by the proxy are cached, shared and recorded to the cassette as before.
+ * Requests answered locally cost nothing to repeat, so they skip all of that.
+ */
+public interface ChatProvider {
+
+  /** The system property that chooses the provider of every call, either proxy or local. */
+  String PROVIDER_PROPERTY = "gpt.provider";
+
+  /** The system property that chooses the provider of filler chatter, either proxy or local. */
+  String FILLER_PROVIDER_PROPERTY = "gpt.filler.provider";
+
+  /**
+   * Returns the provider of calls the player is waiting on, such as hints, which is the API proxy
+   * unless {@value #PROVIDER_PROPERTY} says local.
+   *
+   * @return the default provider
+   */
+  static ChatProvider getDefault() {
+    return forName(System.getProperty(PROVIDER_PROPERTY));
+  }
+
+  /**
+   * Returns the provider of filler chatter that the game does not depend on, such as greetings,
+   * which is the default provider unless {@value #FILLER_PROVIDER_PROPERTY} names another one.
+   *
+   * @return the filler provider
+   */
+  static ChatProvider getFillerDefault() {
+    String name = System.getProperty(FILLER_PROVIDER_PROPERTY);
+    return (name == null || name.isBlank()) ? getDefault() : forName(name);
+  }
+
+  /**
+   * Returns the provider with a name, falling back to the API proxy for any other name.
+   *
+   * @param name the name, either proxy or local
+   * @return the provider
+   */
+  private static ChatProvider forName(String name) {
+    if ("local".equalsIgnoreCase(name)) {
+      return LocalChatProvider.getDefault();
+    }
+    return ProxyChatProvider.getDefault();
+  }
+
+  /**
+   * Answers a request, waiting for the whole reply.
+   *
+   * @param request the request, holding the messages and sampling parameters
+   * @return the reply
+   * @throws ApiProxyException if the request could not be answered
+   */
+  ChatCompletionResult complete(ChatCompletionRequest request) throws ApiProxyException;
+
+  /**
+   * Answers a request, passing the content of the first choice to the listener as it is written.
+   *
+   * @param request the request, holding the messages and sampling parameters
+   * @param listener the listener to receive the tokens, called on the calling thread
+   * @return the reply, assembled from the tokens
+   * @throws ApiProxyException if the request could not be answered
+   */
+  ChatCompletionResult completeStreaming(ChatCompletionRequest request, ChatStreamListener listener)
+      throws ApiProxyException;
+
+  /**
+   * Returns whether requests are answered in-process, without the network.
+   *
+   * @return whether the provider is local
+   */
+  boolean isLocal();
+}
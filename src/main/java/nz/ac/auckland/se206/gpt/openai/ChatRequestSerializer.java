@@ -0,0 +1,286 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.ChatMessage;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Writes the JSON body of chat completion requests as UTF-8, straight from the messages into a
+ * reusable buffer. A conversation only ever grows at the end, so the messages that were encoded for
+ * the last request are kept and only the new ones are encoded each turn. If an earlier message has
+ * changed, such as when the conversation window drops old turns, encoding starts again from there.
+ *
+ * <p>Each serializer belongs to a single conversation. Bodies that were already handed out are
+ * never written over, so they stay valid while the serializer carries on with the next turn.
+ */
+public class ChatRequestSerializer {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+  private final List<ChatMessage> encodedMessages = new ArrayList<>();
+  private int[] messageEnds = new int[16];
+
+  private byte[] buffer = new byte[1024];
+  private int length;
+  private boolean isShared;
+
+  private String headEmail;
+  private String headAccessToken;
+  private byte[] head;
+
+  /**
+   * Returns the request body for a conversation, encoding only the messages that were not already
+   * encoded for the previous request.
+   *
+   * @param email the email the request is sent for
+   * @param accessToken the access token for the API proxy
+   * @param messages the messages to send
+   * @param options the JSON fields that follow the messages, each preceded by a comma
+   * @return the request body
+   */
+  public synchronized HttpEntity serialize(
+      String email, String accessToken, List<ChatMessage> messages, String options) {
+    // The email and access token rarely change, so their encoding is kept too
+    if (head == null || !email.equals(headEmail) || !accessToken.equals(headAccessToken)) {
+      head = encodeHead(email, accessToken);
+      headEmail = email;
+      headAccessToken = accessToken;
+    }
+
+    // Keep the encoded messages the conversation still starts with
+    int kept = 0;
+    while (kept < encodedMessages.size()
+        && kept < messages.size()
+        && encodedMessages.get(kept) == messages.get(kept)) {
+      kept++;
+    }
+    truncate(kept);
+
+    // Then encode the rest on the end
+    for (int i = kept; i < messages.size(); i++) {
+      append(messages.get(i));
+    }
+
+    byte[] tail = ("]" + options + "}").getBytes(StandardCharsets.UTF_8);
+    isShared = true;
+    return new Body(head, buffer, length, tail);
+  }
+
+  /**
+   * Returns the number of bytes of encoded messages kept for the next request.
+   *
+   * @return the length of the encoded messages
+   */
+  public synchronized int getEncodedLength() {
+    return length;
+  }
+
+  private void truncate(int messageCount) {
+    int end = (messageCount == 0) ? 0 : messageEnds[messageCount - 1];
+    if (end < length && isShared) {
+      // A body handed out earlier may still be reading these bytes, so start a new buffer
+      buffer = Arrays.copyOf(buffer, buffer.length);
+      isShared = false;
+    }
+    length = end;
+    encodedMessages.subList(messageCount, encodedMessages.size()).clear();
+  }
+
+  private void append(ChatMessage message) {
+    if (!encodedMessages.isEmpty()) {
+      writeByte(',');
+    }
+    writeAscii("{\"role\":");
+    writeString(message.getRole());
+    writeAscii(",\"content\":");
+    writeString(message.getContent());
+    writeByte('}');
+
+    if (encodedMessages.size() == messageEnds.length) {
+      messageEnds = Arrays.copyOf(messageEnds, messageEnds.length * 2);
+    }
+    messageEnds[encodedMessages.size()] = length;
+    encodedMessages.add(message);
+  }
+
+  private byte[] encodeHead(String email, String accessToken) {
+    // Encode into the start of a fresh buffer, then move it out
+    byte[] messages = buffer;
+    int messagesLength = length;
+    boolean isMessagesShared = isShared;
+    buffer = new byte[64 + email.length() * 3 + accessToken.length() * 3];
+    length = 0;
+
+    writeAscii("{\"email\":");
+    writeString(email);
+    writeAscii(",\"access_token\":");
+    writeString(accessToken);
+    writeAscii(",\"messages\":[");
+    byte[] encoded = Arrays.copyOf(buffer, length);
+
+    buffer = messages;
+    length = messagesLength;
+    isShared = isMessagesShared;
+    return encoded;
+  }
+
+  private void writeString(String value) {
+    if (value == null) {
+      write(NULL, NULL.length);
+      return;
+    }
+
+    // A character takes at most six bytes once escaped
+    ensureCapacity(value.length() * 6 + 2);
+    byte[] out = buffer;
+    int position = length;
+    out[position++] = '"';
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+        out[position++] = (byte) c;
+      } else if (c < 0x80) {
+        position = writeEscape(out, position, c);
+      } else if (c < 0x800) {
+        out[position++] = (byte) (0xc0 | (c >> 6));
+        out[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        out[position++] = (byte) (0xf0 | (codePoint >> 18));
+        out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        out[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // A lone surrogate can not be encoded, so replace it like String.getBytes does
+        out[position++] = '?';
+      } else {
+        out[position++] = (byte) (0xe0 | (c >> 12));
+        out[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    out[position++] = '"';
+    length = position;
+  }
+
+  private static int writeEscape(byte[] out, int position, char c) {
+    out[position++] = '\\';
+    switch (c) {
+      case '"':
+        out[position++] = '"';
+        break;
+      case '\\':
+        out[position++] = '\\';
+        break;
+      case '\n':
+        out[position++] = 'n';
+        break;
+      case '\r':
+        out[position++] = 'r';
+        break;
+      case '\t':
+        out[position++] = 't';
+        break;
+      case '\b':
+        out[position++] = 'b';
+        break;
+      case '\f':
+        out[position++] = 'f';
+        break;
+      default:
+        out[position++] = 'u';
+        out[position++] = '0';
+        out[position++] = '0';
+        out[position++] = HEX[c >> 4];
+        out[position++] = HEX[c & 0xf];
+    }
+    return position;
+  }
+
+  private void writeAscii(String value) {
+    ensureCapacity(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      buffer[length++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+  }
+
+  private void write(byte[] bytes, int count) {
+    ensureCapacity(count);
+    System.arraycopy(bytes, 0, buffer, length, count);
+    length += count;
+  }
+
+  private void ensureCapacity(int extra) {
+    // Growing always copies into a new array, which leaves bodies handed out earlier untouched
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+      isShared = false;
+    }
+  }
+
+  /** A request body made of the encoded head, messages and tail, written out without copying. */
+  private static class Body extends AbstractHttpEntity {
+
+    private final byte[] head;
+    private final byte[] messages;
+    private final int messagesLength;
+    private final byte[] tail;
+
+    private Body(byte[] head, byte[] messages, int messagesLength, byte[] tail) {
+      this.head = head;
+      this.messages = messages;
+      this.messagesLength = messagesLength;
+      this.tail = tail;
+      setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public long getContentLength() {
+      return head.length + messagesLength + tail.length;
+    }
+
+    @Override
+    public InputStream getContent() {
+      InputStream messagesIn = new ByteArrayInputStream(messages, 0, messagesLength);
+      return new SequenceInputStream(
+          new SequenceInputStream(new ByteArrayInputStream(head), messagesIn),
+          new ByteArrayInputStream(tail));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(head);
+      out.write(messages, 0, messagesLength);
+      out.write(tail);
+      out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+}
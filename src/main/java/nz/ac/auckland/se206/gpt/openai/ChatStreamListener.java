@@ -0,0 +1,23 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+/** Receives the tokens of a streamed chat completion as they arrive. */
+@FunctionalInterface
+public interface ChatStreamListener {
+
+  /**
+   * Called for every token of the response, in order.
+   *
+   * @param token the next piece of the response content
+   */
+  void onToken(String token);
+
+  /**
+   * Returns whether the listener has everything it needs from the response. Once it has, the rest
+   * of the stream is not read and the connection is closed, which ends the generation early.
+   *
+   * @return whether the rest of the response can be skipped
+   */
+  default boolean isDone() {
+    return false;
+  }
+}
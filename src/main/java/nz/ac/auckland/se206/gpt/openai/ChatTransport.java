@@ -0,0 +1,78 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.http.HttpEntity;
+
+/**
+ * Carries requests to the API proxy and their responses back, so the HTTP client underneath can be
+ * swapped without touching how requests are built, retried or read. Implementations keep their
+ * connections open between requests and must be safe to use from several threads at once.
+ */
+public interface ChatTransport extends Closeable {
+
+  /** Reads the response to a request into a result, once its headers have arrived. */
+  interface ResponseReader {
+
+    /**
+     * Reads a response.
+     *
+     * @param status the HTTP status code
+     * @param contentType the content type of the body, or null if it has none
+     * @param body the body, which is closed by the transport once read. A reader that stops part
+     *     way through an event stream closes it itself, and the rest is skipped rather than read
+     * @return the result
+     * @throws IOException if the response could not be read, or reports a failure
+     */
+    ChatCompletionResult read(int status, String contentType, InputStream body) throws IOException;
+  }
+
+  /** A single attempt at sending a request, which can be aborted from another thread. */
+  interface Exchange {
+
+    /**
+     * Sends the request and reads the response, waiting until it is done.
+     *
+     * @param reader reads the response
+     * @return the result
+     * @throws IOException if the request failed, was aborted, or the response could not be read
+     */
+    ChatCompletionResult execute(ResponseReader reader) throws IOException;
+
+    /**
+     * Aborts the exchange, whether it is sending or reading. Aborting before it is sent makes it
+     * fail as soon as it is.
+     */
+    void abort();
+  }
+
+  /**
+   * Creates an exchange that posts a request body to an endpoint.
+   *
+   * @param endpoint the URL of the endpoint
+   * @param accept the content types the response may have
+   * @param body the JSON request body
+   * @return the exchange, ready to be sent
+   */
+  Exchange newExchange(String endpoint, String accept, HttpEntity body);
+
+  /**
+   * Opens a connection to an endpoint ahead of the first request, if the transport is able to.
+   *
+   * @param endpoint the URL of the endpoint
+   * @throws IOException if the endpoint could not be reached
+   */
+  void openConnection(String endpoint) throws IOException;
+
+  /**
+   * Returns the number of connections kept open and ready for the next request.
+   *
+   * @return the number of idle connections, or 0 if the transport does not know
+   */
+  int getIdleConnectionCount();
+
+  /** Closes the transport and all of its connections. */
+  @Override
+  void close();
+}
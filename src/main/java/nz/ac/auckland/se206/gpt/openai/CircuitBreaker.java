@@ -0,0 +1,92 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests from being sent to the API proxy while it is down. After a number of failures in
+ * a row the breaker opens and requests fail straight away, rather than each waiting out its own
+ * timeout. Once the breaker has been open for a while a single trial request is let through, and
+ * the breaker closes again if it succeeds.
+ */
+public class CircuitBreaker {
+
+  /** The states of a circuit breaker. */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param failureThreshold the number of failures in a row that open the breaker
+   * @param openMillis how long the breaker stays open before a trial request is let through
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+  }
+
+  /**
+   * Checks whether a request may be sent, which is the case unless the breaker is open. A trial
+   * request must end in {@link #recordSuccess()}, {@link #recordFailure()} or {@link
+   * #releaseTrial()}, or the breaker stays half open.
+   *
+   * @return whether the request is the trial request of a half open breaker
+   * @throws ApiProxyException if the breaker is open, or a trial request is already in flight
+   */
+  public synchronized boolean acquire() throws ApiProxyException {
+    // Let a single trial request through once the breaker has been open for long enough
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+      state = State.HALF_OPEN;
+      return true;
+    }
+
+    if (state != State.CLOSED) {
+      throw new ApiProxyException("The API proxy is unavailable, so the request was not sent.");
+    }
+    return false;
+  }
+
+  /**
+   * Releases the trial request without a result, such as when it was aborted before the proxy
+   * answered. The breaker opens again, and the next request becomes the trial straight away.
+   */
+  public synchronized void releaseTrial() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN;
+    }
+  }
+
+  /** Records that a request reached the proxy, which closes the breaker. */
+  public synchronized void recordSuccess() {
+    failures = 0;
+    state = State.CLOSED;
+  }
+
+  /** Records that a request failed to reach the proxy, opening the breaker if it keeps failing. */
+  public synchronized void recordFailure() {
+    failures++;
+    if (state == State.HALF_OPEN || failures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+    }
+  }
+
+  /**
+   * Returns the current state of the breaker.
+   *
+   * @return the state
+   */
+  public synchronized State getState() {
+    return state;
+  }
+}
@@ -0,0 +1,396 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import nz.ac.auckland.se206.gpt.ChatMessage;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+
+/**
+ * Keeps the player from waiting too long on a call they are stuck without, such as a hint, while
+ * the clock is running. If the call is slower than most, a second copy of it is sent, and if
+ * neither has answered within a hard budget a reply made up by the game is used instead. Whichever
+ * answers first wins and the others are aborted. How often each path wins is counted.
+ *
+ * <p>The second copy is sent once the call has taken longer than a percentile of how long calls
+ * have taken so far, so it is only sent for the slowest calls. Once GPT has started streaming its
+ * answer the player is no longer waiting, so nothing else is sent and the answer is left to finish.
+ */
+public class Hedger {
+
+  /** The ways a call can be answered. */
+  public enum Path {
+    /** The call itself. */
+    PRIMARY,
+    /** The second copy of the call, sent when the first was slow. */
+    HEDGE,
+    /** The reply made up by the game, used when GPT took too long. */
+    FALLBACK
+  }
+
+  /** The model named in the results of fallback replies. */
+  public static final String FALLBACK_MODEL = "local-fallback";
+
+  private static final int MAX_SAMPLES = 64;
+  private static final int MIN_SAMPLES = 5;
+
+  private static Hedger defaultHedger;
+
+  /**
+   * Returns the hedger used by the game, configured by the API proxy config.
+   *
+   * @return the default hedger
+   */
+  public static synchronized Hedger getDefault() {
+    if (defaultHedger == null) {
+      defaultHedger = new Hedger(ChatCompletionRequest.getDefaultService().getConfig());
+    }
+    return defaultHedger;
+  }
+
+  private final ApiProxyConfig config;
+  private final long[] latencies = new long[MAX_SAMPLES];
+  private final Map<Path, Long> wins = new EnumMap<>(Path.class);
+  private int sampleCount;
+  private long calls;
+  private long hedgesSent;
+
+  /**
+   * Creates a hedger.
+   *
+   * @param config when to send a second copy and when to give up on GPT
+   */
+  public Hedger(ApiProxyConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Executes a request, hedging it if it is slow.
+   *
+   * @param request the request, which should already hold the message to answer
+   * @param fallback makes up the reply to use if GPT takes too long, or returns null to wait
+   * @return a future for whichever answer wins
+   */
+  public CompletableFuture<ChatCompletionResult> execute(
+      ChatCompletionRequest request, Supplier<String> fallback) {
+    Race race = new Race(request, fallback);
+    return race.start(request.executeAsync());
+  }
+
+  /**
+   * Executes a request in streaming mode, hedging it if it is slow to start. The listener only
+   * hears the tokens of the request itself, as the other paths are only used if it has not started.
+   *
+   * @param request the request, which should already hold the message to answer
+   * @param listener the listener to receive the tokens, called on a worker thread
+   * @param fallback makes up the reply to use if GPT takes too long, or returns null to wait
+   * @return a future for whichever answer wins
+   */
+  public CompletableFuture<ChatCompletionResult> executeStreaming(
+      ChatCompletionRequest request, ChatStreamListener listener, Supplier<String> fallback) {
+    Race race = new Race(request, fallback);
+    return race.start(
+        request.executeStreamingAsync(
+            new ChatStreamListener() {
+              @Override
+              public void onToken(String token) {
+                // Drop tokens that arrive after another path has already won
+                if (race.startAnswering()) {
+                  listener.onToken(token);
+                }
+              }
+
+              @Override
+              public boolean isDone() {
+                return listener.isDone();
+              }
+            }));
+  }
+
+  /**
+   * Hedges a reply that is already on its way, such as one generated ahead of time.
+   *
+   * @param request the request the reply is for, which is copied to send the hedge
+   * @param primary the reply on its way
+   * @param fallback makes up the reply to use if GPT takes too long, or returns null to wait
+   * @return a future for whichever answer wins
+   */
+  public CompletableFuture<ChatCompletionResult> race(
+      ChatCompletionRequest request,
+      CompletableFuture<ChatCompletionResult> primary,
+      Supplier<String> fallback) {
+    return new Race(request, fallback).start(primary);
+  }
+
+  /**
+   * Returns how long a call is waited on before a second copy is sent. Until enough calls have
+   * been answered, the wait given in the config is used.
+   *
+   * @return the wait in milliseconds, or 0 if no second copy is sent
+   */
+  public synchronized long getHedgeDelayMillis() {
+    if (config.getHedgePercentile() <= 0) {
+      return 0;
+    }
+    int count = Math.min(sampleCount, MAX_SAMPLES);
+    if (count < MIN_SAMPLES) {
+      return config.getHedgeAfterMillis();
+    }
+
+    long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(config.getHedgePercentile() * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+
+  /**
+   * Returns the number of calls a path has won.
+   *
+   * @param path the path
+   * @return the number of wins
+   */
+  public synchronized long getWins(Path path) {
+    return wins.getOrDefault(path, 0L);
+  }
+
+  /**
+   * Returns a summary of how often each path won, for printing.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    return String.format(
+        "hedging: %d calls, %d answered first time, %d by the hedge, %d by the fallback,"
+            + " %d hedges sent, hedging after %d ms",
+        calls,
+        getWins(Path.PRIMARY),
+        getWins(Path.HEDGE),
+        getWins(Path.FALLBACK),
+        hedgesSent,
+        getHedgeDelayMillis());
+  }
+
+  /**
+   * Counts a win, and how long GPT took to answer.
+   *
+   * @param path the path that won
+   * @param latencyMillis how long the call took
+   */
+  private synchronized void recordWin(Path path, long latencyMillis) {
+    wins.merge(path, 1L, Long::sum);
+    if (path != Path.FALLBACK) {
+      latencies[sampleCount % MAX_SAMPLES] = latencyMillis;
+      sampleCount++;
+    }
+  }
+
+  /** The paths of a single call racing to answer it. */
+  private class Race {
+
+    private final ChatCompletionRequest request;
+    private final Supplier<String> fallback;
+    private final CompletableFuture<ChatCompletionResult> result = new CompletableFuture<>();
+    private final AtomicBoolean isAnswering = new AtomicBoolean();
+    private final long startNanos = System.nanoTime();
+
+    private CompletableFuture<ChatCompletionResult> primary;
+    private ChatCompletionRequest hedgeRequest;
+    private CompletableFuture<ChatCompletionResult> hedge;
+    private ScheduledFuture<?> hedgeTimer;
+    private ScheduledFuture<?> fallbackTimer;
+    private Path winner;
+
+    /**
+     * Creates a race that has not started.
+     *
+     * @param request the request being answered
+     * @param fallback makes up the reply to use if GPT takes too long
+     */
+    private Race(ChatCompletionRequest request, Supplier<String> fallback) {
+      this.request = request;
+      this.fallback = fallback;
+    }
+
+    /**
+     * Starts the race, setting the timers for the hedge and the fallback.
+     *
+     * @param primary the call itself
+     * @return a future for whichever answer wins
+     */
+    private CompletableFuture<ChatCompletionResult> start(
+        CompletableFuture<ChatCompletionResult> primary) {
+      long hedgeDelayMillis = getHedgeDelayMillis();
+      long budgetMillis = config.getFallbackAfterMillis();
+      synchronized (Hedger.this) {
+        calls++;
+      }
+
+      synchronized (this) {
+        this.primary = primary;
+        if (hedgeDelayMillis > 0 && (budgetMillis <= 0 || hedgeDelayMillis < budgetMillis)) {
+          hedgeTimer = ChatCompletionExecutor.schedule(this::hedgeIfWaiting, hedgeDelayMillis);
+        }
+        if (budgetMillis > 0) {
+          fallbackTimer = ChatCompletionExecutor.schedule(this::fallBackIfWaiting, budgetMillis);
+        }
+      }
+
+      // Stop the losers once there is a winner, or everything if the caller gave up
+      result.whenComplete((ignored, error) -> finish());
+      primary.whenComplete(
+          (primaryResult, error) -> {
+            if (error == null) {
+              win(Path.PRIMARY, primaryResult);
+            } else {
+              onFailure(error);
+            }
+          });
+      return result;
+    }
+
+    /**
+     * Marks the call as having started to stream its answer, unless another path has already won.
+     *
+     * @return whether the call's tokens should be shown
+     */
+    private synchronized boolean startAnswering() {
+      if (result.isDone()) {
+        return false;
+      }
+      isAnswering.set(true);
+      return true;
+    }
+
+    /** Sends the hedge if the player is still waiting. */
+    private void hedgeIfWaiting() {
+      if (!result.isDone() && !isAnswering.get()) {
+        sendHedge();
+      }
+    }
+
+    /** Sends a second copy of the request, unless one has been sent already. */
+    private void sendHedge() {
+      CompletableFuture<ChatCompletionResult> sent;
+      synchronized (this) {
+        if (hedge != null || result.isDone()) {
+          return;
+        }
+
+        // The copy must not share the result of the call it is racing
+        hedgeRequest = request.copy().setShared(false).setPriority(Priority.PLAYER_BLOCKING);
+        hedge = hedgeRequest.executeAsync();
+        sent = hedge;
+      }
+      synchronized (Hedger.this) {
+        hedgesSent++;
+      }
+      System.out.println("GPT is slow to answer, sending the call again");
+
+      sent.whenComplete(
+          (hedgeResult, error) -> {
+            if (error == null) {
+              win(Path.HEDGE, hedgeResult);
+            } else {
+              onFailure(error);
+            }
+          });
+    }
+
+    /** Uses the fallback reply if the player is still waiting. */
+    private void fallBackIfWaiting() {
+      if (!result.isDone() && !isAnswering.get()) {
+        fallBack(null);
+      }
+    }
+
+    /**
+     * Uses the fallback reply, or fails if there is none.
+     *
+     * @param error why GPT could not answer, or null if it was too slow
+     */
+    private void fallBack(Throwable error) {
+      String reply = fallback.get();
+      if (reply != null) {
+        System.out.println("GPT took too long to answer, using the fallback reply");
+        win(
+            Path.FALLBACK,
+            ChatCompletionResult.fromMessage(
+                FALLBACK_MODEL, new ChatMessage("assistant", reply), "stop"));
+      } else if (error != null) {
+        result.completeExceptionally(error);
+      }
+    }
+
+    /**
+     * Sends the hedge straight away if the call failed, or falls back once every copy has failed.
+     * An answer that failed part way through streaming is not hedged, as the player has seen it.
+     *
+     * @param error why the call failed
+     */
+    private void onFailure(Throwable error) {
+      boolean isOutOfCopies;
+      synchronized (this) {
+        if (result.isDone()) {
+          return;
+        }
+        if (isAnswering.get()) {
+          result.completeExceptionally(error);
+          return;
+        }
+        isOutOfCopies =
+            hedge != null
+                && hedge.isCompletedExceptionally()
+                && primary.isCompletedExceptionally();
+      }
+
+      if (isOutOfCopies || config.getHedgePercentile() <= 0) {
+        fallBack(error);
+      } else {
+        sendHedge();
+      }
+    }
+
+    /**
+     * Completes the race with an answer, unless another path got there first.
+     *
+     * @param path the path that answered
+     * @param answer the answer
+     */
+    private void win(Path path, ChatCompletionResult answer) {
+      synchronized (this) {
+        // Once the call has started streaming, only it can answer
+        if (result.isDone() || (path != Path.PRIMARY && isAnswering.get())) {
+          return;
+        }
+        winner = path;
+      }
+      recordWin(path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+      result.complete(answer);
+    }
+
+    /** Stops the timers, and aborts every path that did not win. */
+    private void finish() {
+      synchronized (this) {
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        if (fallbackTimer != null) {
+          fallbackTimer.cancel(false);
+        }
+        if (winner != Path.PRIMARY) {
+          primary.cancel(true);
+          request.abort();
+        }
+        if (winner != Path.HEDGE && hedge != null) {
+          hedge.cancel(true);
+          hedgeRequest.abort();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.http.HttpEntity;
+
+/**
+ * Sends requests over the JDK's {@link HttpClient}, which speaks HTTP/2 where the proxy does. Over
+ * HTTP/2 every request to the proxy is multiplexed over a single connection, so a riddle prefetch,
+ * a hint and a chat reply in flight together do not each need a connection of their own. Where the
+ * proxy only speaks HTTP/1.1, the client falls back to a pool of kept-alive connections.
+ *
+ * <p>Requests are sent asynchronously and their responses streamed, so tokens of a streamed reply
+ * are read as they arrive. The JDK client can not open a connection without sending a request, so
+ * the first request still pays for the connection.
+ */
+public class JdkChatTransport implements ChatTransport {
+
+  private final ApiProxyConfig config;
+  private final HttpClient httpClient;
+
+  /**
+   * Creates a transport with its own HTTP client.
+   *
+   * @param config the timeouts to use
+   */
+  public JdkChatTransport(ApiProxyConfig config) {
+    this.config = config;
+    httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()))
+            .build();
+  }
+
+  @Override
+  public Exchange newExchange(String endpoint, String accept, HttpEntity body) {
+    return new JdkExchange(endpoint, accept, body);
+  }
+
+  @Override
+  public void openConnection(String endpoint) {
+    // Connections are only opened by the requests sent over them
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return 0;
+  }
+
+  @Override
+  public void close() {
+    // The client's connections close once it is no longer used
+  }
+
+  /** A request sent with the JDK client, which can be aborted while sending or reading. */
+  private class JdkExchange implements Exchange {
+
+    private final String endpoint;
+    private final String accept;
+    private final HttpEntity body;
+
+    private volatile boolean isAborted;
+    private volatile CompletableFuture<HttpResponse<InputStream>> response;
+    private volatile InputStream content;
+
+    /**
+     * Creates an exchange that is not sent yet.
+     *
+     * @param endpoint the URL of the endpoint
+     * @param accept the content types the response may have
+     * @param body the JSON request body
+     */
+    private JdkExchange(String endpoint, String accept, HttpEntity body) {
+      this.endpoint = endpoint;
+      this.accept = accept;
+      this.body = body;
+    }
+
+    @Override
+    public ChatCompletionResult execute(ResponseReader reader) throws IOException {
+      // The request body is already encoded, so it is sent as it is
+      ByteArrayOutputStream bytes =
+          new ByteArrayOutputStream((int) Math.max(0, body.getContentLength()));
+      body.writeTo(bytes);
+      HttpRequest request =
+          HttpRequest.newBuilder(URI.create(endpoint))
+              .timeout(Duration.ofMillis(config.getSocketTimeoutMillis()))
+              .header("Content-Type", "application/json")
+              .header("Accept", accept)
+              .POST(BodyPublishers.ofByteArray(bytes.toByteArray()))
+              .build();
+
+      // Send it, then check whether it was aborted in the meantime
+      response = httpClient.sendAsync(request, BodyHandlers.ofInputStream());
+      if (isAborted) {
+        response.cancel(true);
+      }
+
+      HttpResponse<InputStream> httpResponse = await(response);
+      try (InputStream in = httpResponse.body()) {
+        content = in;
+        if (isAborted) {
+          throw new IOException("The request was aborted");
+        }
+        return reader.read(
+            httpResponse.statusCode(),
+            httpResponse.headers().firstValue("Content-Type").orElse(null),
+            in);
+      }
+    }
+
+    @Override
+    public void abort() {
+      isAborted = true;
+      CompletableFuture<HttpResponse<InputStream>> sent = response;
+      if (sent != null) {
+        sent.cancel(true);
+      }
+
+      // Closing the body stops it being read, and resets the stream over HTTP/2
+      InputStream in = content;
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    /**
+     * Waits for the response headers to arrive.
+     *
+     * @param sent the response on its way
+     * @return the response, whose body is still to be read
+     * @throws IOException if the request failed or was aborted
+     */
+    private HttpResponse<InputStream> await(CompletableFuture<HttpResponse<InputStream>> sent)
+        throws IOException {
+      try {
+        return sent.get();
+      } catch (CancellationException e) {
+        throw new IOException("The request was aborted", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        sent.cancel(true);
+        throw new IOException("Interrupted while waiting for a response", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+}
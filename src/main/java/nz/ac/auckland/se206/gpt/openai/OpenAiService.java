@@ -1,11 +1,26 @@
 package nz.ac.auckland.se206.gpt.openai;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 
-/** OpenAI services delegated to store the login credentials. */
+/**
+ * OpenAI services delegated to store the login credentials. The service also owns the transport
+ * shared by every request made with it, so that back-to-back calls reuse warm connections.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class OpenAiService {
+public class OpenAiService implements Closeable {
+
+  /** The default endpoint of the API proxy. */
+  public static final String DEFAULT_ENDPOINT =
+      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/openai-chat-completion";
+
+  /** The system property that overrides the endpoint of services configured from a file. */
+  public static final String ENDPOINT_PROPERTY = "gpt.endpoint";
+
+  /** The system property that overrides the transport of services configured from a file. */
+  public static final String TRANSPORT_PROPERTY = "gpt.transport";
 
   /**
    * Utility method to check if a string is empty or null.
@@ -36,6 +51,13 @@ public class OpenAiService {
 
   private String email;
   private String apiKey;
+  private String endpoint = DEFAULT_ENDPOINT;
+  private ApiProxyConfig config = ApiProxyConfig.create(null, null);
+  private CircuitBreaker circuitBreaker;
+  private RequestScheduler scheduler;
+  private RateLimiter rateLimiter;
+
+  private ChatTransport transport;
 
   /**
    * Creates an instance of OpenAiService with the provided email and apiKey.
@@ -45,13 +67,44 @@ public class OpenAiService {
    * @throws IllegalArgumentException if the email or apiKey is null or empty.
    */
   public OpenAiService(String email, String apiKey) {
-    checkValidInput(email, apiKey);
-    this.email = email;
-    this.apiKey = apiKey;
+    this(email, apiKey, DEFAULT_ENDPOINT);
+  }
+
+  /**
+   * Creates an instance of OpenAiService with the provided email, apiKey and proxy endpoint.
+   *
+   * @param email The email for the OpenAI service.
+   * @param apiKey The API key for the OpenAI service.
+   * @param endpoint The URL of the chat completion endpoint.
+   * @throws IllegalArgumentException if the email, apiKey or endpoint is null or empty.
+   */
+  public OpenAiService(String email, String apiKey, String endpoint) {
+    this(ApiProxyConfig.create(email, apiKey), endpoint);
+  }
+
+  /**
+   * Creates an instance of OpenAiService with the provided configuration and proxy endpoint.
+   *
+   * @param config The credentials, timeouts, retries and circuit breaker settings to use.
+   * @param endpoint The URL of the chat completion endpoint.
+   * @throws IllegalArgumentException if the email, apiKey or endpoint is null or empty.
+   */
+  public OpenAiService(ApiProxyConfig config, String endpoint) {
+    checkValidInput(config.getEmail(), config.getApiKey());
+    if (isEmpty(endpoint)) {
+      throw new IllegalArgumentException("endpoint cannot be null or empty");
+    }
+    this.email = config.getEmail();
+    this.apiKey = config.getApiKey();
+    this.endpoint = endpoint;
+    this.config = config;
   }
 
   /**
    * Creates an instance of OpenAiService with the email and apiKey read from the specified file.
+   * The endpoint is read from the file too if it is given there, and the {@value
+   * #ENDPOINT_PROPERTY} system property overrides both. Likewise the {@value #TRANSPORT_PROPERTY}
+   * system property overrides the transport, as either {@code apache} or {@code http2}.
    *
    * @param fileName The name of the file containing the API proxy configuration.
    */
@@ -61,10 +114,31 @@ public class OpenAiService {
       checkValidInput(config.getEmail(), config.getApiKey());
       this.email = config.getEmail();
       this.apiKey = config.getApiKey();
+      this.config = config;
+      if (!isEmpty(config.getEndpoint())) {
+        this.endpoint = config.getEndpoint();
+      }
     } catch (ApiProxyException e) {
       // TODO handle exception appropriately
       e.printStackTrace();
     }
+
+    // Let the endpoint be pointed elsewhere, such as at a local stand-in proxy
+    String endpointOverride = System.getProperty(ENDPOINT_PROPERTY);
+    if (!isEmpty(endpointOverride)) {
+      this.endpoint = endpointOverride;
+    }
+
+    // Let the transport be switched without editing the file, such as to compare them
+    String transportOverride = System.getProperty(TRANSPORT_PROPERTY);
+    if (!isEmpty(transportOverride)) {
+      try {
+        config.setTransport(
+            ApiProxyConfig.Transport.valueOf(transportOverride.trim().toUpperCase()));
+      } catch (IllegalArgumentException e) {
+        System.out.println("Unknown GPT transport " + transportOverride + ", using the default");
+      }
+    }
   }
 
   /**
@@ -84,4 +158,114 @@ public class OpenAiService {
   public String getEmail() {
     return email;
   }
+
+  /**
+   * Returns the URL of the chat completion endpoint used by this service.
+   *
+   * @return The endpoint URL.
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Returns the configuration of this service, including its timeouts and retry settings.
+   *
+   * @return The API proxy configuration.
+   */
+  public ApiProxyConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Returns the circuit breaker guarding this service's endpoint, creating it on first use.
+   *
+   * @return The circuit breaker.
+   */
+  public synchronized CircuitBreaker getCircuitBreaker() {
+    if (circuitBreaker == null) {
+      circuitBreaker =
+          new CircuitBreaker(config.getCircuitFailureThreshold(), config.getCircuitOpenMillis());
+    }
+    return circuitBreaker;
+  }
+
+  /**
+   * Returns the scheduler that decides the order requests are sent to this service's endpoint in,
+   * creating it on first use.
+   *
+   * @return The request scheduler.
+   */
+  public synchronized RequestScheduler getScheduler() {
+    if (scheduler == null) {
+      scheduler = new RequestScheduler(config.getMaxConcurrentRequests());
+    }
+    return scheduler;
+  }
+
+  /**
+   * Returns the rate limiter that keeps the requests sent to this service's endpoint within its
+   * limits, creating it on first use.
+   *
+   * @return The rate limiter.
+   */
+  public synchronized RateLimiter getRateLimiter() {
+    if (rateLimiter == null) {
+      rateLimiter =
+          new RateLimiter(config.getMaxRequestsPerSecond(), config.getMaxTokensPerMinute());
+    }
+    return rateLimiter;
+  }
+
+  /**
+   * Returns the transport that carries this service's requests to the proxy, creating it on first
+   * use. Its connections are kept open and shared by every request made with the service.
+   *
+   * @return The transport.
+   */
+  public synchronized ChatTransport getTransport() {
+    if (transport == null) {
+      transport =
+          (config.getTransport() == ApiProxyConfig.Transport.HTTP2)
+              ? new JdkChatTransport(config)
+              : new ApacheChatTransport(config);
+    }
+    return transport;
+  }
+
+  /**
+   * Opens a connection to the endpoint ahead of the first request, so it does not have to wait for
+   * the connection and TLS handshake. Nothing is sent to the proxy.
+   *
+   * @throws IOException if the endpoint could not be reached
+   */
+  public void openConnection() throws IOException {
+    getTransport().openConnection(endpoint);
+  }
+
+  /**
+   * Returns the number of connections kept open, ready for the next request.
+   *
+   * @return the number of idle connections
+   */
+  public synchronized int getIdleConnectionCount() {
+    if (transport == null) {
+      return 0;
+    }
+    return transport.getIdleConnectionCount();
+  }
+
+  /**
+   * Closes the transport and all of its connections. A new transport will be created if the
+   * service is used again afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    if (transport == null) {
+      return;
+    }
+
+    transport.close();
+    transport = null;
+  }
 }
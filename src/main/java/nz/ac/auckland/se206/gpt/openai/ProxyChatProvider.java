@@ -0,0 +1,38 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+/**
+ * Answers requests by sending them to the API proxy of the request's service, within its deadline,
+ * rate limits and circuit breaker, retrying when the proxy can not be reached.
+ */
+public class ProxyChatProvider implements ChatProvider {
+
+  private static final ProxyChatProvider instance = new ProxyChatProvider();
+
+  /**
+   * Returns the provider that sends requests to the API proxy.
+   *
+   * @return the proxy provider
+   */
+  public static ProxyChatProvider getDefault() {
+    return instance;
+  }
+
+  /** Creates a proxy provider. There is only ever the one. */
+  private ProxyChatProvider() {}
+
+  @Override
+  public ChatCompletionResult complete(ChatCompletionRequest request) throws ApiProxyException {
+    return request.sendToProxy();
+  }
+
+  @Override
+  public ChatCompletionResult completeStreaming(
+      ChatCompletionRequest request, ChatStreamListener listener) throws ApiProxyException {
+    return request.sendToProxyStreaming(listener);
+  }
+
+  @Override
+  public boolean isLocal() {
+    return false;
+  }
+}
@@ -0,0 +1,229 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the requests sent to the API proxy within its rate limits, which are shared by every copy
+ * of the game using the same account. Two token buckets are kept, one for requests per second and
+ * one for GPT tokens per minute. A request that would go over either limit waits its turn rather
+ * than failing, and requests are let through in the order they arrived.
+ *
+ * <p>The tokens a request will use are not known until it is answered, so it takes an estimate up
+ * front and the difference is settled once its usage comes back. How long requests waited is kept
+ * as a histogram.
+ */
+public class RateLimiter {
+
+  /** The upper bounds of the wait time histogram buckets, in milliseconds. */
+  private static final long[] BUCKET_BOUNDS_MILLIS = {
+    0, 10, 50, 100, 250, 500, 1_000, 2_500, 5_000
+  };
+
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final long MAX_SLEEP_MILLIS = 50;
+
+  private final double requestsPerSecond;
+  private final double tokensPerMinute;
+
+  // Either bucket may go below zero, in which case the requests after have to wait it out
+  private double requests;
+  private double tokens;
+  private long refilledAt = System.nanoTime();
+
+  private final long[] waits = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+  private long totalWaitNanos;
+  private long maxWaitNanos;
+
+  /**
+   * Creates a rate limiter with full buckets, so a burst of up to a second's requests and a
+   * minute's tokens is let through straight away.
+   *
+   * @param requestsPerSecond the most requests to send each second, or 0 for no limit
+   * @param tokensPerMinute the most GPT tokens to use each minute, or 0 for no limit
+   */
+  public RateLimiter(double requestsPerSecond, double tokensPerMinute) {
+    this.requestsPerSecond = requestsPerSecond;
+    this.tokensPerMinute = tokensPerMinute;
+    this.requests = Math.max(1, requestsPerSecond);
+    this.tokens = tokensPerMinute;
+  }
+
+  /**
+   * Waits until a request may be sent without going over the limits.
+   *
+   * @param estimatedTokens the number of tokens the request is expected to use
+   * @param maxWaitMillis the longest to wait, after which the request is not sent
+   * @param isCancelled whether the request no longer needs to be sent, checked while waiting
+   * @return true if the request may be sent, or false if it was cancelled or would wait too long
+   */
+  public boolean acquire(int estimatedTokens, long maxWaitMillis, BooleanSupplier isCancelled) {
+    long waitNanos = reserve(estimatedTokens, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+    if (waitNanos < 0) {
+      return false;
+    }
+
+    // Sleep in short steps, so a cancelled request stops waiting straight away
+    long sendAt = System.nanoTime() + waitNanos;
+    try {
+      for (long left = waitNanos; left > 0; left = sendAt - System.nanoTime()) {
+        if (isCancelled.getAsBoolean()) {
+          return false;
+        }
+        Thread.sleep(Math.min(MAX_SLEEP_MILLIS, TimeUnit.NANOSECONDS.toMillis(left) + 1));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return !isCancelled.getAsBoolean();
+  }
+
+  /**
+   * Settles the difference between the tokens a request was expected to use and what it used.
+   *
+   * @param estimatedTokens the number of tokens the request took when it was sent
+   * @param usedTokens the number of tokens the request used
+   */
+  public synchronized void settle(int estimatedTokens, int usedTokens) {
+    if (tokensPerMinute <= 0) {
+      return;
+    }
+    refill();
+    tokens += estimatedTokens - usedTokens;
+    tokens = Math.min(tokens, tokensPerMinute);
+  }
+
+  /**
+   * Returns how many requests waited for the limits, bucketed by how long they waited. Bucket
+   * {@code i} counts waits of at most {@link #getBucketBoundMillis(int)} milliseconds, and the last
+   * bucket counts the longer waits.
+   *
+   * @return the wait time histogram
+   */
+  public synchronized long[] getWaitHistogram() {
+    return waits.clone();
+  }
+
+  /**
+   * Returns the upper bound of a wait time histogram bucket.
+   *
+   * @param bucket the bucket
+   * @return the bound in milliseconds, or {@link Long#MAX_VALUE} for the last bucket
+   */
+  public static long getBucketBoundMillis(int bucket) {
+    return (bucket < BUCKET_BOUNDS_MILLIS.length) ? BUCKET_BOUNDS_MILLIS[bucket] : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns the wait that a given fraction of requests waited no longer than, to the resolution of
+   * the histogram.
+   *
+   * @param fraction the fraction, such as 0.9 for the 90th percentile
+   * @return the upper bound of the bucket the percentile falls in, in milliseconds
+   */
+  public synchronized long getWaitPercentileMillis(double fraction) {
+    long count = 0;
+    for (long bucketCount : waits) {
+      count += bucketCount;
+    }
+
+    long seen = 0;
+    for (int i = 0; i < waits.length; i++) {
+      seen += waits[i];
+      if (seen > 0 && seen >= fraction * count) {
+        return (i < BUCKET_BOUNDS_MILLIS.length)
+            ? BUCKET_BOUNDS_MILLIS[i]
+            : TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns a summary of how long requests waited for the limits, for printing.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    long count = 0;
+    for (long bucketCount : waits) {
+      count += bucketCount;
+    }
+    long delayed = count - waits[0];
+    return String.format(
+        "rate limiter: %d of %d requests waited, p50 <= %d ms, p90 <= %d ms, p99 <= %d ms,"
+            + " max %d ms, %d ms in total",
+        delayed,
+        count,
+        getWaitPercentileMillis(0.5),
+        getWaitPercentileMillis(0.9),
+        getWaitPercentileMillis(0.99),
+        TimeUnit.NANOSECONDS.toMillis(maxWaitNanos),
+        TimeUnit.NANOSECONDS.toMillis(totalWaitNanos));
+  }
+
+  /**
+   * Takes a request and its tokens from the buckets, and works out how long it has to wait for
+   * them to be paid back.
+   *
+   * @param estimatedTokens the number of tokens the request is expected to use
+   * @param maxWaitNanos the longest the request may wait
+   * @return how long to wait in nanoseconds, or -1 if that is too long, in which case nothing is
+   *     taken
+   */
+  private synchronized long reserve(int estimatedTokens, long maxWaitNanos) {
+    refill();
+
+    // A request bigger than a whole minute's tokens only has to wait for a full bucket
+    double neededTokens = Math.min(estimatedTokens, tokensPerMinute);
+    long waitNanos = 0;
+    if (requestsPerSecond > 0 && requests < 1) {
+      waitNanos = (long) ((1 - requests) / requestsPerSecond * SECOND_NANOS);
+    }
+    if (tokensPerMinute > 0 && tokens < neededTokens) {
+      waitNanos =
+          Math.max(waitNanos, (long) ((neededTokens - tokens) / tokensPerMinute * MINUTE_NANOS));
+    }
+    if (waitNanos > maxWaitNanos) {
+      return -1;
+    }
+
+    // Take them now, so the requests after queue up behind this one
+    requests -= 1;
+    tokens -= estimatedTokens;
+    record(waitNanos);
+    return waitNanos;
+  }
+
+  /** Tops up the buckets for the time since they were last topped up. */
+  private void refill() {
+    long now = System.nanoTime();
+    long elapsed = now - refilledAt;
+    refilledAt = now;
+    if (requestsPerSecond > 0) {
+      double capacity = Math.max(1, requestsPerSecond);
+      requests = Math.min(capacity, requests + elapsed * requestsPerSecond / SECOND_NANOS);
+    }
+    if (tokensPerMinute > 0) {
+      tokens = Math.min(tokensPerMinute, tokens + elapsed * tokensPerMinute / MINUTE_NANOS);
+    }
+  }
+
+  /**
+   * Adds a wait to the histogram.
+   *
+   * @param waitNanos how long the request waited
+   */
+  private void record(long waitNanos) {
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MILLIS.length && waitMillis > BUCKET_BOUNDS_MILLIS[bucket]) {
+      bucket++;
+    }
+    waits[bucket]++;
+    totalWaitNanos += waitNanos;
+    maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+  }
+}
@@ -0,0 +1,266 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides the order GPT calls are sent to the API proxy in, so that a player waiting on a hint is
+ * never stuck behind background work. Calls wait in a queue ordered by priority, and only a limited
+ * number are sent at once to stay within the proxy's quota. Background calls never take the last
+ * free slot, so there is always room for a call the player is waiting on.
+ *
+ * <p>When time is running out the scheduler becomes critical, and background calls are dropped.
+ * Those waiting in the queue fail straight away and those in flight are aborted, so the player's
+ * own calls have the proxy to themselves.
+ */
+public class RequestScheduler {
+
+  /** How urgently a call is needed, from most to least urgent. */
+  public enum Priority {
+    /** A call the player is waiting on to carry on, such as a hint or an answer. */
+    PLAYER_BLOCKING,
+    /** A reply in a chat the player is taking part in. */
+    INTERACTIVE,
+    /** Work started ahead of time or that the player did not ask for, such as a prefetch. */
+    BACKGROUND
+  }
+
+  /**
+   * A call waiting to be sent.
+   *
+   * @param priority how urgently the call is needed
+   * @param order the order the call was submitted in, which breaks ties between priorities
+   * @param call sends the call, on a worker thread
+   * @param abort aborts the call if it is in flight
+   * @param result the future for the result of the call
+   */
+  private record Entry(
+      Priority priority,
+      long order,
+      Call call,
+      Runnable abort,
+      CompletableFuture<ChatCompletionResult> result) {}
+
+  /** A call to the API proxy, run on a worker thread. */
+  public interface Call {
+
+    /**
+     * Sends the call and waits for the result.
+     *
+     * @return the result of the call
+     * @throws ApiProxyException if the call fails
+     */
+    ChatCompletionResult execute() throws ApiProxyException;
+  }
+
+  private final int maxConcurrent;
+  private final Executor executor;
+  private final PriorityQueue<Entry> queue =
+      new PriorityQueue<>(Comparator.comparing(Entry::priority).thenComparingLong(Entry::order));
+  private final Set<Entry> running = new HashSet<>();
+  private final Map<Priority, Long> sent = new EnumMap<>(Priority.class);
+
+  private long submitted;
+  private long dropped;
+  private boolean isCritical;
+
+  /**
+   * Creates a scheduler that runs its calls on the shared {@link ChatCompletionExecutor}.
+   *
+   * @param maxConcurrent the most calls that may be sent at once
+   */
+  public RequestScheduler(int maxConcurrent) {
+    this(maxConcurrent, task -> ChatCompletionExecutor.getExecutor().execute(task));
+  }
+
+  /**
+   * Creates a scheduler.
+   *
+   * @param maxConcurrent the most calls that may be sent at once
+   * @param executor runs the calls once they are let through
+   */
+  public RequestScheduler(int maxConcurrent, Executor executor) {
+    this.maxConcurrent = Math.max(1, maxConcurrent);
+    this.executor = executor;
+  }
+
+  /**
+   * Queues a call to be sent once a slot is free and no more urgent call is waiting. Cancelling
+   * the returned future before the call is sent takes it out of the queue.
+   *
+   * @param priority how urgently the call is needed
+   * @param call sends the call
+   * @param abort aborts the call if it is in flight, such as when background work is dropped
+   * @return a future for the result, which completes exceptionally with an ApiProxyException if the
+   *     call fails or is dropped
+   */
+  public CompletableFuture<ChatCompletionResult> submit(
+      Priority priority, Call call, Runnable abort) {
+    CompletableFuture<ChatCompletionResult> result = new CompletableFuture<>();
+    synchronized (this) {
+      if (priority == Priority.BACKGROUND && isCritical) {
+        dropped++;
+        result.completeExceptionally(
+            new ApiProxyException("Background work is not sent while time is running out."));
+        return result;
+      }
+      queue.add(new Entry(priority, submitted++, call, abort, result));
+    }
+    dispatch();
+    return result;
+  }
+
+  /**
+   * Sets whether time is running out. Once critical, waiting background calls fail, background
+   * calls in flight are aborted, and new ones fail until the scheduler is no longer critical.
+   *
+   * @param isCritical whether time is running out
+   */
+  public void setCritical(boolean isCritical) {
+    List<Entry> preempted = new ArrayList<>();
+    synchronized (this) {
+      if (this.isCritical == isCritical) {
+        return;
+      }
+      this.isCritical = isCritical;
+      if (!isCritical) {
+        return;
+      }
+
+      // Drop all the background work, whether it is waiting or already sent
+      queue.removeIf(
+          entry -> {
+            if (entry.priority() == Priority.BACKGROUND) {
+              preempted.add(entry);
+              return true;
+            }
+            return false;
+          });
+      for (Entry entry : running) {
+        if (entry.priority() == Priority.BACKGROUND) {
+          preempted.add(entry);
+        }
+      }
+      dropped += preempted.size();
+    }
+
+    System.out.println("Time is running out, dropping " + preempted.size() + " background calls");
+    ApiProxyException error =
+        new ApiProxyException("Background work was dropped as time is running out.");
+    for (Entry entry : preempted) {
+      entry.result().completeExceptionally(error);
+      entry.abort().run();
+    }
+  }
+
+  /**
+   * Returns whether time is running out, in which case background calls are not sent.
+   *
+   * @return whether the scheduler is critical
+   */
+  public synchronized boolean isCritical() {
+    return isCritical;
+  }
+
+  /**
+   * Returns the number of calls waiting to be sent.
+   *
+   * @return the length of the queue
+   */
+  public synchronized int getQueuedCount() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of calls in flight.
+   *
+   * @return the number of running calls
+   */
+  public synchronized int getRunningCount() {
+    return running.size();
+  }
+
+  /**
+   * Returns a summary of the calls sent and dropped, for printing.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    return String.format(
+        "request scheduler: %d player blocking, %d interactive and %d background calls sent,"
+            + " %d background calls dropped",
+        sent.getOrDefault(Priority.PLAYER_BLOCKING, 0L),
+        sent.getOrDefault(Priority.INTERACTIVE, 0L),
+        sent.getOrDefault(Priority.BACKGROUND, 0L),
+        dropped);
+  }
+
+  /** Sends as many waiting calls as there are free slots for, most urgent first. */
+  private void dispatch() {
+    List<Entry> started = new ArrayList<>();
+    synchronized (this) {
+      while (!queue.isEmpty()) {
+        Entry next = queue.peek();
+
+        // Forget calls that were cancelled while they waited
+        if (next.result().isDone()) {
+          queue.poll();
+          continue;
+        }
+
+        // Keep the last slot free for the calls the player is waiting on
+        int limit = (next.priority() == Priority.BACKGROUND) ? maxConcurrent - 1 : maxConcurrent;
+        if (running.size() >= Math.max(1, limit)) {
+          break;
+        }
+
+        queue.poll();
+        running.add(next);
+        sent.merge(next.priority(), 1L, Long::sum);
+        started.add(next);
+      }
+    }
+
+    for (Entry entry : started) {
+      try {
+        executor.execute(() -> run(entry));
+      } catch (RejectedExecutionException e) {
+        // The game is shutting down
+        entry.result().completeExceptionally(new ApiProxyException("The call was not sent."));
+        synchronized (this) {
+          running.remove(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends a call, then frees its slot for the next one.
+   *
+   * @param entry the call
+   */
+  private void run(Entry entry) {
+    try {
+      // The call may have been dropped or cancelled on its way to the worker
+      if (!entry.result().isDone()) {
+        entry.result().complete(entry.call().execute());
+      }
+    } catch (ApiProxyException | RuntimeException e) {
+      entry.result().completeExceptionally(e);
+    } finally {
+      synchronized (this) {
+        running.remove(entry);
+      }
+      dispatch();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import nz.ac.auckland.se206.gpt.ChatMessage;
+
+/**
+ * Gets the GPT client ready in the background while the player is still on the menus, so the first
+ * call made in the game does not pay for it. The configuration is read, the classes of the client
+ * stack are loaded, the proxy's host name is looked up and a connection to it is opened and kept
+ * alive. How long each step took is reported once they are done.
+ *
+ * <p>Nothing is sent to the proxy, so warming up costs no tokens. A step that fails is reported and
+ * the steps that depend on it are skipped, and the game carries on as if it had never run.
+ */
+public class ServiceWarmup {
+
+  /**
+   * A step of the warm-up.
+   *
+   * @param name what the step did
+   * @param millis how long the step took
+   * @param isSuccess whether the step succeeded
+   */
+  public record Step(String name, long millis, boolean isSuccess) {}
+
+  /** A step of the warm-up, which may fail. */
+  private interface Action {
+
+    /**
+     * Runs the step.
+     *
+     * @throws Exception if the step fails
+     */
+    void run() throws Exception;
+  }
+
+  private static final String SAMPLE_COMPLETION =
+      "{\"created\":0,\"model\":\"warmup\",\"usage\":{\"prompt_tokens\":1,"
+          + "\"completion_tokens\":1,\"total_tokens\":2},\"choices\":[{\"index\":0,"
+          + "\"message\":{\"role\":\"assistant\",\"content\":\"Ready\"},"
+          + "\"finish_reason\":\"stop\"}]}";
+
+  private static ServiceWarmup instance;
+
+  /**
+   * Returns the warm-up of the service loaded from file, which is shared by the whole game.
+   *
+   * @return the default warm-up.
+   */
+  public static synchronized ServiceWarmup getDefault() {
+    if (instance == null) {
+      instance = new ServiceWarmup(ChatCompletionRequest::getDefaultService);
+    }
+    return instance;
+  }
+
+  private final Supplier<OpenAiService> serviceSupplier;
+  private final List<Step> steps = new ArrayList<>();
+  private CompletableFuture<List<Step>> result;
+  private OpenAiService service;
+
+  /**
+   * Creates a warm-up for a service. The service is only fetched once the warm-up runs, as reading
+   * its configuration is part of the warm-up.
+   *
+   * @param serviceSupplier fetches the service to warm up
+   */
+  public ServiceWarmup(Supplier<OpenAiService> serviceSupplier) {
+    this.serviceSupplier = serviceSupplier;
+  }
+
+  /**
+   * Starts the warm-up on a GPT worker thread, unless it has already been started.
+   *
+   * @return a future for the steps of the warm-up, which completes once they are done
+   */
+  public synchronized CompletableFuture<List<Step>> start() {
+    if (result == null) {
+      result = CompletableFuture.supplyAsync(this::run, ChatCompletionExecutor.getExecutor());
+    }
+    return result;
+  }
+
+  /**
+   * Returns a summary of how long each step of the warm-up took, for printing.
+   *
+   * @return a human readable summary
+   */
+  public synchronized String getStatistics() {
+    StringBuilder summary = new StringBuilder("GPT warm-up:");
+    long total = 0;
+    for (Step step : steps) {
+      summary.append(' ').append(step.name()).append(' ').append(step.millis()).append(" ms");
+      summary.append(step.isSuccess() ? "," : " (failed),");
+      total += step.millis();
+    }
+    return summary.append(' ').append(total).append(" ms in total").toString();
+  }
+
+  /**
+   * Runs each step of the warm-up in turn, stopping at the first that fails.
+   *
+   * @return the steps that were run
+   */
+  private List<Step> run() {
+    boolean isReady =
+        time("config", () -> service = serviceSupplier.get())
+            && time("client stack", this::loadClientStack)
+            && time("dns", () -> InetAddress.getAllByName(getHost()))
+            && time("connection", () -> service.openConnection());
+    if (!isReady) {
+      System.out.println("GPT warm-up did not finish, the first call will get ready itself");
+    }
+    System.out.println(getStatistics());
+
+    synchronized (this) {
+      return List.copyOf(steps);
+    }
+  }
+
+  /**
+   * Loads the classes a request goes through, by encoding a request and reading a reply without
+   * sending anything, and creates the service's transport.
+   *
+   * @throws Exception if the request could not be encoded or the reply read
+   */
+  private void loadClientStack() throws Exception {
+    if (service.getApiKey() == null) {
+      throw new ApiProxyException("The API proxy config could not be read.");
+    }
+
+    new ChatRequestSerializer()
+        .serialize(
+            service.getEmail(),
+            service.getApiKey(),
+            List.of(new ChatMessage("user", "Warm up")),
+            ",\"n\":1")
+        .writeTo(OutputStream.nullOutputStream());
+    ChatCompletionParser.parseChatCompletion(SAMPLE_COMPLETION.getBytes(StandardCharsets.UTF_8));
+
+    // Create everything a request uses on its way to the proxy
+    service.getTransport();
+    service.getCircuitBreaker();
+    service.getScheduler();
+    service.getRateLimiter();
+  }
+
+  /**
+   * Returns the host name of the service's endpoint.
+   *
+   * @return the host name
+   * @throws ApiProxyException if the endpoint has no host
+   */
+  private String getHost() throws ApiProxyException {
+    String host = URI.create(service.getEndpoint()).getHost();
+    if (host == null) {
+      throw new ApiProxyException("The endpoint has no host: " + service.getEndpoint());
+    }
+    return host;
+  }
+
+  /**
+   * Runs a step of the warm-up and records how long it took.
+   *
+   * @param name what the step does
+   * @param action the step
+   * @return whether the step succeeded
+   */
+  private boolean time(String name, Action action) {
+    long start = System.nanoTime();
+    boolean isSuccess = true;
+    try {
+      action.run();
+    } catch (Exception e) {
+      System.out.println("GPT warm-up step " + name + " failed: " + e.getMessage());
+      isSuccess = false;
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    synchronized (this) {
+      steps.add(new Step(name, millis, isSuccess));
+    }
+    return isSuccess;
+  }
+}
@@ -69,6 +69,17 @@ public class TextToSpeech {
     }
   }
 
+  /**
+   * Stops the TTS partway through speaking, but only if it is still speaking the given utterance.
+   *
+   * @param utterance the utterance returned when it was spoken.
+   */
+  public void stop(Task<Void> utterance) {
+    if (utterance != null && utterance == speechTask) {
+      stop();
+    }
+  }
+
   /**
    * Speaks the given list of sentences.
    *
@@ -93,19 +104,21 @@ public class TextToSpeech {
    * Speaks the given sentence in input.
    *
    * @param sentence A string to speak.
+   * @param roomThatCalled the room the sentence is spoken for.
+   * @return the task speaking the sentence, or null if it is not spoken.
    */
-  public void speak(final String sentence, SceneManager.AppUi roomThatCalled) {
+  public Task<Void> speak(final String sentence, SceneManager.AppUi roomThatCalled) {
 
     System.out.println(sentence + " : " + roomThatCalled);
 
     if (GameState.muted) {
       System.out.println("tts is muted");
-      return;
+      return null;
     }
 
     // if the roomThatCalled is office, then it counts for all the 3 main rooms
     if (roomThatCalled != AppUi.OFFICE && roomThatCalled != GameState.currentRoom) {
-      return; // just return, nothing happens
+      return null; // just return, nothing happens
     }
 
     if (sentence == null) {
@@ -142,6 +155,7 @@ public class TextToSpeech {
     // increment number of tts calls by 1
     GameState.numberOfTextToSpeach = GameState.numberOfTextToSpeach + 1;
     speechThread.start();
+    return speechTask;
   }
 
   /** Sleeps a while to add some pause between sentences. */
@@ -0,0 +1,49 @@
+package nz.ac.auckland.se206.utilities;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+
+/**
+ * This utility class continues asynchronous work on the JavaFX application thread, so the result of
+ * a background task can safely update the user interface.
+ */
+public class FxContinuation {
+
+  /**
+   * Runs one of the given handlers on the JavaFX application thread once the future completes.
+   *
+   * @param <T> the type of the result.
+   * @param future the future to continue from.
+   * @param onSucceeded called with the result if the future completed normally.
+   * @param onFailed called with the cause if the future completed exceptionally.
+   * @return a future that completes once the handler has run.
+   */
+  public static <T> CompletableFuture<Void> onFxThread(
+      CompletableFuture<T> future, Consumer<T> onSucceeded, Consumer<Throwable> onFailed) {
+    return future.handleAsync(
+        (result, error) -> {
+          if (error == null) {
+            onSucceeded.accept(result);
+          } else {
+            onFailed.accept(unwrap(error));
+          }
+          return null;
+        },
+        Platform::runLater);
+  }
+
+  /**
+   * Removes the completion wrapper added by the future, if any.
+   *
+   * @param error the error the future completed with.
+   * @return the underlying cause.
+   */
+  private static Throwable unwrap(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      return error.getCause();
+    }
+    return error;
+  }
+}
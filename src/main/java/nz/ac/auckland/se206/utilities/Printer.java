@@ -20,6 +20,9 @@ public class Printer {
 
   private static String currentMessage;
 
+  private static StringBuilder streamedMessage;
+  private static boolean isStreamFinished;
+
   /**
    * Prints the message onto the text area, letter by letter.
    *
@@ -71,6 +74,80 @@ public class Printer {
         });
   }
 
+  /**
+   * Starts printing a message whose text is still arriving, letter by letter. The text should be
+   * added with {@link #appendStreamedText(String)} and the message ended with {@link
+   * #finishStreamedText()}. This must be called on the JavaFX application thread.
+   *
+   * @param textArea the passed in text area
+   * @param speed the speed at which the letters will be printed
+   */
+  public static void startStreamedText(TextArea textArea, double speed) {
+    // Stop any message that is still being printed
+    if (printTextEvent != null) {
+      printTextEvent.stop();
+    }
+
+    // Play the printing dialogue sound effect
+    AudioManager.playDialogue();
+
+    // Initialize pointers
+    currentLetterPosition = 0;
+    currentMessage = "";
+    streamedMessage = new StringBuilder();
+    isStreamFinished = false;
+
+    // initialize a timeline for the printing event, which runs until the stream is finished
+    printTextEvent = new Timeline();
+    printTextEvent.setCycleCount(Timeline.INDEFINITE);
+
+    // create a keyframe for printing and add it to the timeline
+    KeyFrame printTextKeyFrame =
+        new KeyFrame(
+            Duration.seconds(speed),
+            event -> {
+              // wait for more text if we have caught up with the stream
+              if (currentLetterPosition < streamedMessage.length()) {
+                char currentCharacter = streamedMessage.charAt(currentLetterPosition);
+                textArea.appendText(String.valueOf(currentCharacter));
+                currentLetterPosition++;
+                return;
+              }
+
+              // let the program know the printing event is finished
+              if (isStreamFinished) {
+                GameState.isPrinting = false;
+                printTextEvent.stop();
+                AudioManager.stopDialogue();
+              }
+            });
+
+    GameState.isPrinting = true;
+
+    // add the printer keyframe to the printer timeline
+    printTextEvent.getKeyFrames().add(printTextKeyFrame);
+    printTextEvent.play();
+  }
+
+  /**
+   * Adds text to the message started by {@link #startStreamedText(TextArea, double)}. This must be
+   * called on the JavaFX application thread.
+   *
+   * @param text the text to be printed after the text received so far
+   */
+  public static void appendStreamedText(String text) {
+    streamedMessage.append(text);
+    currentMessage = streamedMessage.toString();
+  }
+
+  /**
+   * Marks the streamed message as complete, so printing stops once all of it has been printed.
+   * This must be called on the JavaFX application thread.
+   */
+  public static void finishStreamedText() {
+    isStreamFinished = true;
+  }
+
   /** Stop the printing event. Most of the calls will be to cancel the printing event. */
   public static void stop() {
     GameState.isPrinting = false;
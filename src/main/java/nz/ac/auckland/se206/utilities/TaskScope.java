@@ -0,0 +1,169 @@
+package nz.ac.auckland.se206.utilities;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import javafx.concurrent.Task;
+import nz.ac.auckland.se206.SceneManager.AppUi;
+import nz.ac.auckland.se206.constants.GameState;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+
+/**
+ * This utility class owns the background work started by a scene, such as GPT calls and speech, so
+ * it can all be stopped when the player leaves the scene. Closing a scope aborts its GPT requests,
+ * freeing their threads and connections, and completes their futures with a CancellationException
+ * so nothing is written into a scene that is no longer shown. A scope can be used again once
+ * closed, as scenes are kept while the level is played.
+ *
+ * <p>The three main rooms share a scope, as the player talks to the same AI in all of them.
+ */
+public class TaskScope {
+
+  private static Map<AppUi, TaskScope> scopes = new EnumMap<>(AppUi.class);
+
+  /**
+   * Returns the scope of a scene, creating it on first use.
+   *
+   * @param scene the scene.
+   * @return the scope of the scene.
+   */
+  public static synchronized TaskScope of(AppUi scene) {
+    // The main rooms share the office's scope, just like their speech
+    if (scene == AppUi.BREAKER || scene == AppUi.CONTROL) {
+      scene = AppUi.OFFICE;
+    }
+    return scopes.computeIfAbsent(scene, TaskScope::new);
+  }
+
+  /** Closes the scope of every scene, such as when the level is reset. */
+  public static void closeAll() {
+    List<TaskScope> allScopes;
+    synchronized (TaskScope.class) {
+      allScopes = new ArrayList<>(scopes.values());
+    }
+    for (TaskScope scope : allScopes) {
+      scope.close();
+    }
+  }
+
+  private final AppUi scene;
+  private final Set<Runnable> cancellers = new LinkedHashSet<>();
+
+  /**
+   * Creates the scope of a scene.
+   *
+   * @param scene the scene.
+   */
+  private TaskScope(AppUi scene) {
+    this.scene = scene;
+  }
+
+  /**
+   * Tracks a GPT call made by the scene, so it is aborted if the scene is closed first.
+   *
+   * @param <T> the type of the result.
+   * @param request the request being executed.
+   * @param future the future for the result of the request.
+   * @return the same future.
+   */
+  public <T> CompletableFuture<T> track(
+      ChatCompletionRequest request, CompletableFuture<T> future) {
+    return add(
+        future,
+        () -> {
+          // Complete the future first, so the scene does not wait on the connection to close
+          future.cancel(false);
+          request.abort();
+        });
+  }
+
+  /**
+   * Tracks work started by the scene, so its future is cancelled if the scene is closed first.
+   *
+   * @param <T> the type of the result.
+   * @param future the future for the work.
+   * @return the same future.
+   */
+  public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+    return add(future, () -> future.cancel(false));
+  }
+
+  /**
+   * Speaks a sentence for the scene with text to speech, stopping it if the scene is closed first.
+   *
+   * @param sentence the sentence to speak.
+   */
+  public void speak(String sentence) {
+    Task<Void> utterance = GameState.tts.speak(sentence, scene);
+    if (utterance == null || utterance.isDone()) {
+      return;
+    }
+
+    // Forget the utterance once it has finished
+    Runnable canceller = () -> GameState.tts.stop(utterance);
+    synchronized (this) {
+      cancellers.add(canceller);
+    }
+    utterance
+        .runningProperty()
+        .addListener(
+            (observable, wasRunning, isRunning) -> {
+              if (utterance.isDone()) {
+                remove(canceller);
+              }
+            });
+  }
+
+  /**
+   * Returns the number of GPT calls, tasks and utterances of the scene that have not finished.
+   *
+   * @return the number of active tasks.
+   */
+  public synchronized int getActiveCount() {
+    return cancellers.size();
+  }
+
+  /** Stops all the work of the scene that has not finished. */
+  public void close() {
+    List<Runnable> active;
+    synchronized (this) {
+      active = new ArrayList<>(cancellers);
+      cancellers.clear();
+    }
+    if (!active.isEmpty()) {
+      System.out.println("Cancelling " + active.size() + " tasks of " + scene);
+    }
+    for (Runnable canceller : active) {
+      canceller.run();
+    }
+  }
+
+  /**
+   * Adds a future to the scope until it completes.
+   *
+   * @param <T> the type of the result.
+   * @param future the future.
+   * @param canceller stops the work of the future.
+   * @return the same future.
+   */
+  private <T> CompletableFuture<T> add(CompletableFuture<T> future, Runnable canceller) {
+    synchronized (this) {
+      cancellers.add(canceller);
+    }
+    future.whenComplete((result, error) -> remove(canceller));
+    return future;
+  }
+
+  /**
+   * Removes finished work from the scope.
+   *
+   * @param canceller the canceller of the work.
+   */
+  private synchronized void remove(Runnable canceller) {
+    cancellers.remove(canceller);
+  }
+}
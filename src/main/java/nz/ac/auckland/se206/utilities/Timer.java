@@ -11,6 +11,8 @@ import nz.ac.auckland.se206.AudioManager;
 import nz.ac.auckland.se206.AudioManager.Clip;
 import nz.ac.auckland.se206.SceneManager.AppUi;
 import nz.ac.auckland.se206.constants.GameState;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler;
 
 /**
  * This utility class keeps track globally across all scenes the time the player has left in the
@@ -59,6 +61,9 @@ public class Timer {
     for (Label label : labels) {
       label.setText(getTime());
     }
+
+    // A new countdown may start outside the critical window
+    updateCriticalWindow();
   }
 
   /**
@@ -149,6 +154,9 @@ public class Timer {
       label.setText(getTime());
     }
 
+    // Drop background GPT work once time is running out
+    updateCriticalWindow();
+
     // Update the time taken for the player
 
     // Check if the timer has timed out
@@ -164,6 +172,15 @@ public class Timer {
     }
   }
 
+  /**
+   * Tells the GPT request scheduler whether the timer is in the critical window, in which case the
+   * player's own GPT calls are sent ahead of any background work, which is dropped.
+   */
+  private static void updateCriticalWindow() {
+    RequestScheduler scheduler = ChatCompletionRequest.getDefaultService().getScheduler();
+    scheduler.setCritical(time <= GameState.criticalTime);
+  }
+
   /**
    * Return a boolean value based on whether the timer has reached zero or not.
    *
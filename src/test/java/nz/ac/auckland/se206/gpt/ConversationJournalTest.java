@@ -0,0 +1,90 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ConversationJournalTest {
+
+  @TempDir File directory;
+
+  private static List<String> getContents(List<ChatMessage> messages) {
+    return messages.stream().map(ChatMessage::getContent).toList();
+  }
+
+  @Test
+  public void testConversationIsRestoredAfterRestart() throws Exception {
+    File file = new File(directory, "gpt.journal");
+    ConversationJournal journal = new ConversationJournal(file);
+    journal.append("room-chat", new ChatMessage("assistant", "You are a stream of electrons."));
+    journal.append("room-chat", new ChatMessage("user", "Line one\nLine two\twith a \\ tab"));
+    journal.append("riddle", new ChatMessage("user", "Riddle: ..."));
+    journal.append("room-chat", new ChatMessage("assistant", "Hello"));
+    journal.close();
+
+    // A crash part way through writing an entry leaves half a line, which is skipped
+    try (OutputStream out = new FileOutputStream(file, true)) {
+      out.write("1a2b3c\troom-chat\tuser\tcut o".getBytes(StandardCharsets.UTF_8));
+    }
+
+    List<ChatMessage> messages = new ConversationJournal(file).restore("room-chat");
+    assertEquals(
+        List.of("You are a stream of electrons.", "Line one\nLine two\twith a \\ tab", "Hello"),
+        getContents(messages));
+    assertEquals("assistant", messages.get(0).getRole());
+    assertEquals("user", messages.get(1).getRole());
+  }
+
+  @Test
+  public void testAppendAfterCrashIsNotJoinedToTheCutOffLine() throws Exception {
+    File file = new File(directory, "gpt.journal");
+    ConversationJournal journal = new ConversationJournal(file);
+    journal.append("room-chat", new ChatMessage("assistant", "Before the crash"));
+    journal.close();
+    try (OutputStream out = new FileOutputStream(file, true)) {
+      out.write("1a2b3c\troom-chat\tuser\tcut o".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The game carries on after a restart, and nothing it appends is lost
+    journal = new ConversationJournal(file);
+    journal.append("room-chat", new ChatMessage("user", "After the restart"));
+    journal.close();
+    assertEquals(
+        List.of("Before the crash", "After the restart"),
+        getContents(new ConversationJournal(file).restore("room-chat")));
+  }
+
+  @Test
+  public void testEndedConversationIsCompactedAway() throws Exception {
+    File file = new File(directory, "gpt.journal");
+    ConversationJournal journal = new ConversationJournal(file);
+    for (int i = 0; i < 20; i++) {
+      journal.append("room-chat", new ChatMessage("user", "Message " + i));
+    }
+    journal.append("riddle", new ChatMessage("user", "Still going"));
+
+    // Writes are synced in batches rather than once per message
+    assertTrue(journal.getSyncCount() < 20, "synced " + journal.getSyncCount() + " times");
+
+    journal.end("room-chat");
+    assertEquals(List.of(), journal.restore("room-chat"));
+    assertEquals(List.of("Still going"), getContents(journal.restore("riddle")));
+    assertEquals(1, Files.readAllLines(file.toPath()).size());
+
+    // A new conversation of the same name starts from nothing, and the file goes once all end
+    journal.append("room-chat", new ChatMessage("user", "New game"));
+    assertEquals(List.of("New game"), getContents(journal.restore("room-chat")));
+    journal.end("room-chat");
+    journal.end("riddle");
+    assertFalse(file.exists());
+  }
+}
@@ -0,0 +1,102 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class ConversationWindowTest {
+
+  private static List<ChatMessage> conversation(int turns) {
+    List<ChatMessage> messages = new ArrayList<>();
+    messages.add(new ChatMessage("assistant", "You are a rogue AI in an escape room."));
+    for (int i = 0; i < turns; i++) {
+      messages.add(new ChatMessage("user", "Player line number " + i + " asking about the room."));
+      messages.add(new ChatMessage("assistant", "Reply number " + i + " from the rogue AI."));
+    }
+    return messages;
+  }
+
+  @Test
+  public void testKeepsPinnedAndRecentTurnsWithinBudget() {
+    List<ChatMessage> messages = conversation(50);
+    ConversationWindow window = new ConversationWindow(1, 10, 100);
+
+    List<ChatMessage> sent = window.apply(messages);
+
+    int tokens = 0;
+    for (ChatMessage message : sent) {
+      tokens += ConversationWindow.estimateTokens(message);
+    }
+    assertTrue(tokens <= 100);
+    assertEquals(messages.get(0), sent.get(0));
+    assertEquals(messages.get(messages.size() - 1), sent.get(sent.size() - 1));
+    assertTrue(sent.size() < 10);
+  }
+
+  @Test
+  public void testSummaryStandsInForDroppedTurns() {
+    List<ChatMessage> messages = conversation(50);
+    ConversationWindow window = new ConversationWindow(1, 4, 1000).setSummary("Asked about gates.");
+
+    List<ChatMessage> sent = window.apply(messages);
+
+    assertEquals(6, sent.size());
+    assertEquals("system", sent.get(1).getRole());
+    assertEquals(messages.subList(messages.size() - 4, messages.size()), sent.subList(2, 6));
+
+    // Nothing is dropped from a short conversation, so the summary is not needed
+    assertEquals(3, window.apply(messages.subList(0, 3)).size());
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkPayloadAgainstTurnCount() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Reply", 0);
+        OpenAiService service = server.createService()) {
+      System.out.println("turns | full bytes  ms | windowed bytes  ms");
+      for (int turns : new int[] {5, 25, 50, 100, 200}) {
+        List<ChatMessage> messages = conversation(turns);
+        ChatCompletionRequest full = new ChatCompletionRequest(service);
+        ChatCompletionRequest windowed =
+            new ChatCompletionRequest(service).setWindow(new ConversationWindow(1, 12, 1000));
+        for (ChatMessage message : messages) {
+          full.addMessage(message);
+          windowed.addMessage(message);
+        }
+
+        double fullMillis = time(full);
+        int fullBytes = server.getLastRequestBytes();
+        double windowedMillis = time(windowed);
+        int windowedBytes = server.getLastRequestBytes();
+        System.out.printf(
+            "%5d | %10d %5.2f | %14d %5.2f%n",
+            turns, fullBytes, fullMillis, windowedBytes, windowedMillis);
+
+        assertTrue(windowedBytes <= fullBytes);
+      }
+    }
+  }
+
+  private static double time(ChatCompletionRequest request) throws Exception {
+    // Warm up, then take the median of repeated calls
+    for (int i = 0; i < 20; i++) {
+      request.execute();
+    }
+    long[] nanos = new long[50];
+    for (int i = 0; i < nanos.length; i++) {
+      long start = System.nanoTime();
+      request.execute();
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    return nanos[nanos.length / 2] / 1e6;
+  }
+}
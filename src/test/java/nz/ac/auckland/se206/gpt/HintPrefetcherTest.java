@@ -0,0 +1,121 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.SceneManager.AppUi;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import org.junit.jupiter.api.Test;
+
+public class HintPrefetcherTest {
+
+  @Test
+  public void testPrefetchedHintIsTakenWithoutChangingTheConversation() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Look under the desk.", 200);
+        OpenAiService service = server.createService()) {
+      HintPrefetcher prefetcher = new HintPrefetcher();
+      ChatCompletionRequest conversation =
+          new ChatCompletionRequest(service).addMessage(new ChatMessage("user", "Hello"));
+
+      prefetcher.prefetch(AppUi.OFFICE, conversation, "Give a hint");
+      Thread.sleep(300);
+
+      // The reply is already there when the hint is asked for
+      long start = System.nanoTime();
+      ChatCompletionResult result =
+          prefetcher
+              .take(AppUi.OFFICE, conversation, "Give a hint")
+              .reply()
+              .get(5, TimeUnit.SECONDS);
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertEquals("Look under the desk.", result.getChoice(0).getChatMessage().getContent());
+      assertTrue(millis < 100, "took " + millis + "ms");
+      assertEquals(1, conversation.getMessages().size());
+      assertEquals(1, server.getRequestCount());
+
+      // A hint can only be taken once
+      assertNull(prefetcher.take(AppUi.OFFICE, conversation, "Give a hint"));
+    }
+  }
+
+  @Test
+  public void testStaleHintIsNotTaken() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Hint", 0);
+        OpenAiService service = server.createService()) {
+      HintPrefetcher prefetcher = new HintPrefetcher();
+      ChatCompletionRequest conversation = new ChatCompletionRequest(service);
+
+      prefetcher.prefetch(AppUi.BREAKER, conversation, "Open the circuit box");
+      prefetcher.prefetch(AppUi.BREAKER, conversation, "No more hints");
+
+      assertNull(prefetcher.take(AppUi.BREAKER, conversation, "Open the circuit box"));
+      assertNull(
+          prefetcher.take(AppUi.BREAKER, new ChatCompletionRequest(service), "No more hints"));
+      assertNull(prefetcher.take(AppUi.CONTROL, conversation, "No more hints"));
+    }
+  }
+
+  @Test
+  public void testSameHintIsOnlyPrefetchedOnce() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Hint", 0);
+        OpenAiService service = server.createService()) {
+      HintPrefetcher prefetcher = new HintPrefetcher();
+      ChatCompletionRequest conversation = new ChatCompletionRequest(service);
+
+      for (int i = 0; i < 5; i++) {
+        prefetcher.prefetch(AppUi.CONTROL, conversation, "Give a hint");
+      }
+      prefetcher.take(AppUi.CONTROL, conversation, "Give a hint").reply().get(5, TimeUnit.SECONDS);
+
+      assertEquals(1, server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testCancelledHintGivesUpItsSlot() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000);
+        OpenAiService service = server.createService()) {
+      HintPrefetcher prefetcher = new HintPrefetcher();
+      ChatCompletionRequest conversation = new ChatCompletionRequest(service);
+
+      prefetcher.prefetch(AppUi.OFFICE, conversation, "Give a hint");
+      Thread.sleep(200);
+      assertEquals(1, service.getScheduler().getRunningCount());
+
+      // The call that was already sent is stopped, rather than left to run to the end
+      prefetcher.cancelAll();
+      for (int i = 0; i < 50 && service.getScheduler().getRunningCount() > 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(0, service.getScheduler().getRunningCount());
+    }
+  }
+
+  @Test
+  public void testTakenHintCanStillBeCancelled() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000);
+        OpenAiService service = server.createService()) {
+      HintPrefetcher prefetcher = new HintPrefetcher();
+      ChatCompletionRequest conversation = new ChatCompletionRequest(service);
+
+      prefetcher.prefetch(AppUi.OFFICE, conversation, "Give a hint");
+      HintPrefetcher.Prefetch hint = prefetcher.take(AppUi.OFFICE, conversation, "Give a hint");
+      Thread.sleep(200);
+      assertEquals(1, service.getScheduler().getRunningCount());
+
+      // The player stopped waiting on the hint, so its call is stopped too
+      hint.cancel();
+      for (int i = 0; i < 50 && service.getScheduler().getRunningCount() > 0; i++) {
+        Thread.sleep(20);
+      }
+      assertTrue(hint.reply().isCancelled());
+      assertEquals(0, service.getScheduler().getRunningCount());
+    }
+  }
+}
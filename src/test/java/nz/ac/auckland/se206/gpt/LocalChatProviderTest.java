@@ -0,0 +1,106 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
+import nz.ac.auckland.se206.gpt.openai.ApiProxyConfig;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import nz.ac.auckland.se206.gpt.openai.ProxyChatProvider;
+import org.junit.jupiter.api.Test;
+
+public class LocalChatProviderTest {
+
+  private static String getContent(ChatCompletionResult result) {
+    return result.getChoice(0).getChatMessage().getContent();
+  }
+
+  @Test
+  public void testRiddleIsAnsweredWithoutTheNetwork() throws Exception {
+    // Nothing listens on this endpoint, so any call to the proxy would fail
+    ApiProxyConfig config = ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key");
+    UsageLedger ledger = new UsageLedger(null);
+    try (OpenAiService service = new OpenAiService(config, "http://localhost:1/chat")) {
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service)
+              .setProvider(LocalChatProvider.getDefault())
+              .setUsageLedger(ledger)
+              .setCaller(Caller.RIDDLE)
+              .addMessage("user", GptPromptEngineering.getRiddlePuzzle("Privacy"));
+
+      ChatCompletionResult result = request.executeAsync().get(1, TimeUnit.SECONDS);
+      Riddle riddle = Riddle.fromResponse("Privacy", getContent(result), request);
+      assertTrue(
+          List.of(riddle.answer1(), riddle.answer2(), riddle.answer3()).contains("Privacy"));
+      assertEquals(LocalChatProvider.MODEL, result.getModel());
+
+      // The player's guesses are checked against the concept
+      request.addMessage(result.getChoice(0).getChatMessage());
+      assertTrue(
+          getContent(request.copy().addMessage("user", "Is it Privacy").execute())
+              .startsWith("Yes!"));
+      assertTrue(
+          getContent(request.copy().addMessage("user", "Is it Fame").execute())
+              .startsWith("Hmm"));
+
+      // Local calls cost no tokens
+      assertEquals(3, ledger.getTotals().calls());
+      assertEquals(0, ledger.getTotals().proxyCalls());
+      assertEquals(0, ledger.getTotals().getTotalTokens());
+    }
+  }
+
+  @Test
+  public void testSeveralRiddlesAreWrittenInOneReply() throws Exception {
+    List<String> concepts = List.of("Privacy", "Human Rights", "Bias");
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(ChatCompletionRequest.getDefaultService())
+            .setProvider(LocalChatProvider.getDefault())
+            .addMessage("user", GptPromptEngineering.getRiddlePuzzles(concepts));
+
+    List<String> riddles = RiddleParser.split(getContent(request.execute()));
+    assertEquals(concepts.size(), riddles.size());
+    for (int i = 0; i < concepts.size(); i++) {
+      assertTrue(RiddleParser.parse(riddles.get(i)).getOptions().contains(concepts.get(i)));
+    }
+  }
+
+  @Test
+  public void testSameConversationGetsSameReply() throws Exception {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(ChatCompletionRequest.getDefaultService())
+            .setProvider(LocalChatProvider.getDefault())
+            .addMessage("assistant", GptPromptEngineering.getResponse())
+            .addMessage("user", "Who are you?");
+
+    StringBuilder tokens = new StringBuilder();
+    ChatCompletionResult streamed = request.executeStreaming(tokens::append);
+    assertEquals(getContent(streamed), tokens.toString());
+    assertEquals(getContent(streamed), getContent(request.copy().execute()));
+
+    // Hints are reworded rather than made up
+    String hint = GptPromptEngineering.getOfficeRoomHint().trim();
+    request.addMessage("assistant", GptPromptEngineering.addGetHint(hint));
+    assertTrue(getContent(request.execute()).endsWith(hint));
+  }
+
+  @Test
+  public void testProviderIsChosenPerCall() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("From the proxy", 0);
+        OpenAiService service = server.createService()) {
+      ChatCompletionRequest request = new ChatCompletionRequest(service).addMessage("user", "Hi");
+
+      // Filler goes local, and the next turn of the same conversation goes to the proxy
+      request.setProvider(LocalChatProvider.getDefault()).execute();
+      assertEquals(0, server.getRequestCount());
+      request.setProvider(ProxyChatProvider.getDefault());
+      assertEquals("From the proxy", getContent(request.execute()));
+      assertEquals(1, server.getRequestCount());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResponseCacheTest {
+
+  @TempDir File directory;
+
+  @Test
+  public void testMemoryTierEvictsLeastRecentlyUsed() {
+    ResponseCache cache = new ResponseCache(null, 2);
+    cache.put("a", new byte[] {1});
+    cache.put("b", new byte[] {2});
+
+    // Touch 'a' so that 'b' is the least recently used
+    cache.get("a");
+    cache.put("c", new byte[] {3});
+
+    assertNull(cache.get("b"));
+    assertArrayEquals(new byte[] {1}, cache.get("a"));
+    assertArrayEquals(new byte[] {3}, cache.get("c"));
+  }
+
+  @Test
+  public void testDiskTierSurvivesRestart() {
+    new ResponseCache(directory, 2).put("hint", new byte[] {4, 2});
+
+    ResponseCache restarted = new ResponseCache(directory, 2);
+
+    assertArrayEquals(new byte[] {4, 2}, restarted.get("hint"));
+    assertNull(restarted.get("missing"));
+    assertEquals(1, restarted.getHits());
+    assertEquals(1, restarted.getMisses());
+    assertEquals(0.5, restarted.getHitRate());
+    assertEquals(2, restarted.getBytesSaved());
+  }
+}
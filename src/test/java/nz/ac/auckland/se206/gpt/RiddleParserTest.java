@@ -0,0 +1,99 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import nz.ac.auckland.se206.gpt.openai.ApiProxyConfig;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import org.junit.jupiter.api.Test;
+
+public class RiddleParserTest {
+
+  private static final String RIDDLE = "Riddle: I keep what is yours. ^ {Privacy}{Fame}{Gossip}";
+
+  @Test
+  public void testRiddleIsReadAsItStreams() {
+    RiddleParser parser = new RiddleParser();
+    String response = RIDDLE + "\nThe answer is Privacy, because";
+    for (int i = 0; i < response.length() && !parser.isDone(); i++) {
+      parser.onToken(response.substring(i, i + 1));
+
+      // The parser is done the moment the third option closes, and not before
+      assertEquals(i == RIDDLE.length() - 1, parser.isDone());
+    }
+
+    assertTrue(parser.isComplete());
+    assertEquals(" I keep what is yours. ", parser.getText());
+    assertEquals(List.of("Privacy", "Fame", "Gossip"), parser.getOptions());
+  }
+
+  @Test
+  public void testDriftFromTheFormatIsRepaired() {
+    // Options on their own lines, with no '^' before them
+    RiddleParser parser = RiddleParser.parse("Riddle: Mine alone.\n{Privacy}\n{ Fame }\n{Gossip}");
+    assertEquals(" Mine alone.\n", parser.getText());
+    assertEquals(List.of("Privacy", "Fame", "Gossip"), parser.getOptions());
+
+    // Too few options, with an empty one and one left open
+    parser = RiddleParser.parse("Riddle: Mine alone. ^ {Fame}{}{Gossip");
+    assertFalse(parser.isComplete());
+    assertEquals(List.of("Fame"), parser.getOptions());
+
+    // The missing options and the concept are filled in, and the riddle can still be solved
+    Riddle riddle = Riddle.fromResponse("Privacy", "Riddle: Mine alone. ^ {Fame}{}{Gossip", null);
+    Set<String> answers = Set.of(riddle.answer1(), riddle.answer2(), riddle.answer3());
+    assertEquals(3, answers.size());
+    assertTrue(answers.contains("Privacy"));
+    assertTrue(answers.contains("Fame"));
+
+    // A response that is not a riddle at all gets the riddle the local provider would write
+    riddle = Riddle.fromResponse("Privacy", "I'm sorry, I can't help with that.", null);
+    assertTrue(riddle.text().contains("'P'"));
+    assertTrue(Set.of(riddle.answer1(), riddle.answer2(), riddle.answer3()).contains("Privacy"));
+  }
+
+  @Test
+  public void testStreamIsCutOffOnceTheOptionsClose() throws Exception {
+    for (ApiProxyConfig.Transport transport : ApiProxyConfig.Transport.values()) {
+      try (LocalProxyServer server =
+              new LocalProxyServer(RIDDLE + " Let me explain why each of these fits so well.", 0);
+          OpenAiService service = server.createService(transport)) {
+        server.setTokenDelay(100);
+        ChatCompletionRequest request =
+            new ChatCompletionRequest(service)
+                .setStop(RiddleParser.STOP_SEQUENCES.toArray(String[]::new))
+                .addMessage("user", GptPromptEngineering.getRiddlePuzzle("Privacy"));
+
+        // The riddle takes 8 tokens, and the explanation after it another 10
+        long[] firstTokenNanos = new long[1];
+        RiddleParser parser =
+            new RiddleParser() {
+              @Override
+              public void onToken(String token) {
+                if (firstTokenNanos[0] == 0) {
+                  firstTokenNanos[0] = System.nanoTime();
+                }
+                super.onToken(token);
+              }
+            };
+        ChatCompletionResult result = request.executeStreaming(parser);
+        long streamedMillis = (System.nanoTime() - firstTokenNanos[0]) / 1_000_000;
+
+        System.out.println(transport + " riddle streamed in " + streamedMillis + "ms");
+        assertEquals(RIDDLE + " ", result.getChoice(0).getChatMessage().getContent());
+        assertTrue(streamedMillis < 1200, "took " + streamedMillis + "ms");
+        assertTrue(server.getLastRequest().contains("\"stop\":[\"\\nRiddle:\",\" Riddle:\"]"));
+
+        // The connection that was cut off is not reused, and the next request goes through
+        server.setTokenDelay(0);
+        assertTrue(request.execute().getChoice(0).getChatMessage().getContent().endsWith("well."));
+      }
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class RiddlePoolTest {
+
+  private static final String RIDDLE =
+      "Riddle: I keep what is yours to yourself.^ {Openness}{Fame}{Gossip}";
+  private static final String RIDDLES = String.join("\n", RIDDLE, RIDDLE, RIDDLE);
+
+  @Test
+  public void testParsesRiddleAndOptions() {
+    Riddle riddle =
+        Riddle.fromResponse(
+            "Privacy", "Riddle: I keep what is yours.^ {Privacy}{Openness}{Fame}", null);
+
+    assertEquals(" I keep what is yours.", riddle.text());
+    assertEquals(
+        Set.of("Privacy", "Openness", "Fame"),
+        Set.of(riddle.answer1(), riddle.answer2(), riddle.answer3()));
+  }
+
+  @Test
+  public void testFallbackRiddleCanBeSolved() {
+    for (String concept : RiddlePool.CONCEPTS) {
+      Riddle riddle =
+          Riddle.fromResponse(concept, RiddlePool.getFallbackRiddle(concept), null);
+      List<String> answers = List.of(riddle.answer1(), riddle.answer2(), riddle.answer3());
+
+      // The answers are all different, and only the concept starts with its first letter
+      assertTrue(answers.contains(concept));
+      assertTrue(riddle.text().contains("'" + concept.charAt(0) + "'"));
+      assertEquals(
+          1, answers.stream().filter(answer -> answer.charAt(0) == concept.charAt(0)).count());
+      assertEquals(3, Set.copyOf(answers).size());
+    }
+  }
+
+  @Test
+  public void testRiddlesAreGeneratedInOneRequestAtStart() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer(RIDDLES, 300);
+        OpenAiService service = server.createService()) {
+      RiddlePool pool = new RiddlePool(() -> new ChatCompletionRequest(service));
+
+      long start = System.nanoTime();
+      pool.startGame();
+      Set<String> concepts = new HashSet<>();
+      for (int i = 0; i < RiddlePool.RIDDLES_PER_GAME; i++) {
+        Riddle riddle = pool.take().get(5, TimeUnit.SECONDS);
+        concepts.add(riddle.concept());
+
+        // The concept is always one of the answers, and the guesses carry on the conversation
+        assertTrue(
+            List.of(riddle.answer1(), riddle.answer2(), riddle.answer3())
+                .contains(riddle.concept()));
+        assertEquals(2, riddle.conversation().getMessages().size());
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // Three riddles arrive together from a single 300ms call
+      assertEquals(RiddlePool.RIDDLES_PER_GAME, concepts.size());
+      assertEquals(1, server.getRequestCount());
+      assertTrue(millis < 800, "took " + millis + "ms");
+    }
+  }
+
+  @Test
+  public void testFailedRiddleIsReplaced() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer(RIDDLES, 0);
+        OpenAiService service = server.createService()) {
+      server.rejectNextRequests(1, "Invalid access token");
+      UsageLedger ledger = new UsageLedger(null);
+      RiddlePool pool =
+          new RiddlePool(() -> new ChatCompletionRequest(service).setUsageLedger(ledger));
+      pool.startGame();
+
+      // Wait for the request at the start to fail, taking every riddle of the game with it
+      for (int i = 0; i < 100 && ledger.getTotals().failures() < 1; i++) {
+        Thread.sleep(20);
+      }
+      Thread.sleep(50);
+
+      // The first riddle is generated on demand, and the other two together in the background
+      Set<String> concepts = new HashSet<>();
+      for (int i = 0; i < RiddlePool.RIDDLES_PER_GAME; i++) {
+        concepts.add(pool.take().get(5, TimeUnit.SECONDS).concept());
+      }
+      assertEquals(RiddlePool.RIDDLES_PER_GAME, concepts.size());
+      assertEquals(3, server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testRiddleMissingFromBatchIsReplaced() throws Exception {
+    // The first request at the start only has two of the three riddles
+    try (LocalProxyServer server = new LocalProxyServer(RIDDLE, 0);
+        OpenAiService service = server.createService()) {
+      server.setReplies("Here are your riddles!\n" + RIDDLE + "\n\n" + RIDDLE);
+      RiddlePool pool = new RiddlePool(() -> new ChatCompletionRequest(service));
+      pool.startGame();
+      for (int i = 0; i < 50 && server.getRequestCount() < 1; i++) {
+        Thread.sleep(20);
+      }
+      Thread.sleep(100);
+
+      Set<String> concepts = new HashSet<>();
+      for (int i = 0; i < RiddlePool.RIDDLES_PER_GAME; i++) {
+        Riddle riddle = pool.take().get(5, TimeUnit.SECONDS);
+        concepts.add(riddle.concept());
+        assertEquals(" I keep what is yours to yourself.", riddle.text());
+      }
+      assertEquals(RiddlePool.RIDDLES_PER_GAME, concepts.size());
+      assertEquals(2, server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testRiddlePutBackIsTakenNext() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer(RIDDLES, 300);
+        OpenAiService service = server.createService()) {
+      RiddlePool pool = new RiddlePool(() -> new ChatCompletionRequest(service));
+      pool.startGame();
+
+      // The player leaves while the first riddle is still loading
+      CompletableFuture<Riddle> first = pool.take();
+      assertFalse(first.isDone());
+      pool.putBack(first);
+      assertEquals(RiddlePool.RIDDLES_PER_GAME, pool.size());
+
+      // The same riddle is handed out again, and no more are generated
+      assertSame(first, pool.take());
+      Set<String> concepts = new HashSet<>();
+      concepts.add(first.get(5, TimeUnit.SECONDS).concept());
+      for (int i = 1; i < RiddlePool.RIDDLES_PER_GAME; i++) {
+        concepts.add(pool.take().get(5, TimeUnit.SECONDS).concept());
+      }
+      assertEquals(RiddlePool.RIDDLES_PER_GAME, concepts.size());
+      assertEquals(1, server.getRequestCount());
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkBatchedRiddles() throws Exception {
+    List<String> concepts = RiddlePool.CONCEPTS.subList(0, RiddlePool.RIDDLES_PER_GAME);
+    try (LocalProxyServer server = new LocalProxyServer(RIDDLE, 800);
+        OpenAiService service = server.createService()) {
+      // Before: a call for each riddle, one after another
+      UsageLedger before = new UsageLedger(null);
+      long start = System.nanoTime();
+      for (String concept : concepts) {
+        new ChatCompletionRequest(service)
+            .setUsageLedger(before)
+            .addMessage("user", GptPromptEngineering.getRiddlePuzzle(concept))
+            .execute();
+      }
+      long beforeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // After: every riddle from a single call
+      server.setReplies(RIDDLES);
+      UsageLedger after = new UsageLedger(null);
+      start = System.nanoTime();
+      new ChatCompletionRequest(service)
+          .setUsageLedger(after)
+          .addMessage("user", GptPromptEngineering.getRiddlePuzzles(concepts))
+          .execute();
+      long afterMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      System.out.println("call per riddle:  " + summarise(before, beforeMillis));
+      System.out.println("one call for all: " + summarise(after, afterMillis));
+      assertTrue(after.getTotals().getTotalTokens() < before.getTotals().getTotalTokens());
+    }
+  }
+
+  private static String summarise(UsageLedger ledger, long millis) {
+    UsageLedger.Totals totals = ledger.getTotals();
+    return String.format(
+        "%d calls, %d prompt + %d completion tokens, %dms",
+        totals.calls(), totals.promptTokens(), totals.completionTokens(), millis);
+  }
+}
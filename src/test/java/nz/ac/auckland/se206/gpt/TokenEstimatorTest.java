@@ -0,0 +1,64 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import nz.ac.auckland.se206.SceneManager.AppUi;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class TokenEstimatorTest {
+
+  @Test
+  public void testSplitsLikeTheTokenizer() {
+    assertEquals(0, TokenEstimator.count(""));
+    assertEquals(2, TokenEstimator.count("Hello world"));
+    assertEquals(3, TokenEstimator.count("You're here"));
+    assertEquals(2, TokenEstimator.count("123456"));
+    assertEquals(4, TokenEstimator.count("Line one.\nTwo"));
+  }
+
+  @Test
+  public void testEstimateIsCloseForPrompts() {
+    // 'There is nothing left to interact with in the OFFICE room. ' is 13 tokens in cl100k
+    int tokens = TokenEstimator.count(GptPromptEngineering.getNoMoreHints(AppUi.OFFICE));
+    assertTrue(Math.abs(tokens - 13) <= 2, "estimated " + tokens);
+  }
+
+  @Test
+  public void testCachedCountMatches() {
+    String prompt = GptPromptEngineering.getOfficeRoomHint();
+    assertEquals(TokenEstimator.count(prompt), TokenEstimator.countCached(prompt));
+    assertEquals(TokenEstimator.count(prompt), TokenEstimator.countCached(prompt));
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkTokensPerSecond() {
+    String prompt = GptPromptEngineering.initializeLogicGateResponse();
+    int tokensPerPrompt = TokenEstimator.count(prompt);
+
+    // Warm up, then time a fixed number of estimates
+    long sink = 0;
+    for (int i = 0; i < 100_000; i++) {
+      sink += TokenEstimator.count(prompt);
+    }
+    int iterations = 500_000;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink += TokenEstimator.count(prompt);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long cachedStart = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink += TokenEstimator.countCached(prompt);
+    }
+    double cachedSeconds = (System.nanoTime() - cachedStart) / 1e9;
+
+    System.out.printf(
+        "estimate: %.1fM tokens/s, cached: %.1fM tokens/s%n",
+        tokensPerPrompt * iterations / seconds / 1e6,
+        tokensPerPrompt * iterations / cachedSeconds / 1e6);
+    assertTrue(sink > 0);
+  }
+}
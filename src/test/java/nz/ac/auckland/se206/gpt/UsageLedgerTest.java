@@ -0,0 +1,66 @@
+package nz.ac.auckland.se206.gpt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
+import nz.ac.auckland.se206.gpt.UsageLedger.Source;
+import nz.ac.auckland.se206.gpt.UsageLedger.Totals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class UsageLedgerTest {
+
+  @TempDir File directory;
+
+  @Test
+  public void testCountsEachCallerSeparately() {
+    UsageLedger ledger = new UsageLedger(null);
+    ledger.startSession();
+    ledger.recordCall(Caller.RIDDLE, Source.PROXY, 120, 30, 900);
+    ledger.recordCall(Caller.RIDDLE, Source.PROXY, 100, 20, 700);
+    ledger.recordCall(Caller.ROOM_CHAT, Source.CACHE, 500, 50, 1);
+    ledger.recordFailure(Caller.ROOM_CHAT, 15000);
+
+    assertEquals(new Totals(2, 2, 0, 220, 50, 1600, 900), ledger.getSessionTotals(Caller.RIDDLE));
+    assertEquals(800, ledger.getSessionTotals(Caller.RIDDLE).getAverageLatencyMillis());
+
+    // Cached calls use no tokens
+    Totals roomChat = ledger.getSessionTotals(Caller.ROOM_CHAT);
+    assertEquals(1, roomChat.calls());
+    assertEquals(1, roomChat.failures());
+    assertEquals(0, roomChat.getTotalTokens());
+
+    assertEquals(270, ledger.getSessionTotals().getTotalTokens());
+    assertEquals(Totals.NONE, ledger.getSessionTotals(Caller.DECRYPTION_HINT));
+  }
+
+  @Test
+  public void testEndedSessionIsWrittenAndCleared() throws Exception {
+    File file = new File(directory, "usage.log");
+    UsageLedger ledger = new UsageLedger(file);
+
+    ledger.startSession();
+    ledger.recordCall(Caller.LOGIC_GATE_CHAT, Source.PROXY, 40, 10, 300);
+    Totals first = ledger.endSession("WINNING");
+    ledger.startSession();
+    ledger.recordCall(Caller.DECRYPTION_HINT, Source.PROXY, 60, 15, 400);
+    ledger.endSession("LOSING");
+
+    // Ending a session that was never started writes nothing
+    ledger.endSession("QUIT");
+
+    assertEquals(50, first.getTotalTokens());
+    assertEquals(Totals.NONE, ledger.getSessionTotals());
+    assertEquals(125, ledger.getTotals().getTotalTokens());
+
+    List<String> lines = Files.readAllLines(file.toPath());
+    assertEquals(2, lines.size());
+    assertTrue(lines.get(0).startsWith("{\"session\":1,\"outcome\":\"WINNING\""), lines.get(0));
+    assertTrue(lines.get(0).contains("\"LOGIC_GATE_CHAT\":{\"calls\":1,"), lines.get(0));
+    assertTrue(lines.get(1).contains("\"prompt_tokens\":60"), lines.get(1));
+  }
+}
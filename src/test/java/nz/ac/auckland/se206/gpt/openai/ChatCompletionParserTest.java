@@ -0,0 +1,145 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.apache.http.client.ClientProtocolException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class ChatCompletionParserTest {
+
+  private static final String THREE_CHOICES =
+      "{\"success\":true,\"code\":0,\"message\":\"\",\"chat_completion\":{"
+          + "\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1697000000,"
+          + "\"model\":\"gpt-3.5-turbo-0613\",\"choices\":["
+          + "{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"First\"},"
+          + "\"finish_reason\":\"stop\"},"
+          + "{\"index\":1,\"message\":{\"role\":\"assistant\",\"content\":\"Second\"},"
+          + "\"finish_reason\":\"stop\"},"
+          + "{\"index\":2,\"message\":{\"role\":\"assistant\",\"content\":\"Third\"},"
+          + "\"finish_reason\":\"length\"}],"
+          + "\"usage\":{\"prompt_tokens\":42,\"completion_tokens\":7,\"total_tokens\":49}}}";
+
+  private static ChatCompletionResult parse(String json, boolean isFirstChoiceOnly)
+      throws Exception {
+    return ChatCompletionParser.parseResponse(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), isFirstChoiceOnly);
+  }
+
+  @Test
+  public void testParsesEnvelopeIntoTypedResult() throws Exception {
+    ChatCompletionResult result = parse(THREE_CHOICES, false);
+
+    assertEquals("gpt-3.5-turbo-0613", result.getModel());
+    assertEquals(1697000000, result.getCreated());
+    assertEquals(new ChatCompletionResult.Usage(42, 7, 49), result.getUsage());
+    assertEquals(3, result.getNumChoices());
+    assertEquals("Third", result.getChoice(2).getChatMessage().getContent());
+    assertEquals("length", result.getChoice(2).getFinishReason());
+  }
+
+  @Test
+  public void testStopsAfterFirstChoice() throws Exception {
+    ChatCompletionResult result = parse(THREE_CHOICES, true);
+
+    assertEquals(1, result.getNumChoices());
+    assertEquals("First", result.getChoice(0).getChatMessage().getContent());
+    assertEquals(49, result.getUsageTotalTokens());
+  }
+
+  @Test
+  public void testUnsuccessfulEnvelopeIsAnError() {
+    assertThrows(
+        ClientProtocolException.class,
+        () -> parse(LocalProxyServer.errorEnvelope(401, "Invalid access token"), false));
+  }
+
+  @Test
+  public void testWrittenResultReadsBack() throws Exception {
+    ChatCompletionResult result = parse(THREE_CHOICES, false);
+
+    byte[] json = ChatCompletionParser.write(result);
+    ChatCompletionResult readBack = ChatCompletionParser.parseChatCompletion(json);
+
+    assertEquals(result.getModel(), readBack.getModel());
+    assertEquals(result.getCreated(), readBack.getCreated());
+    assertEquals(result.getUsage(), readBack.getUsage());
+    assertEquals(3, readBack.getNumChoices());
+    assertEquals("Second", readBack.getChoice(1).getChatMessage().getContent());
+    assertEquals("assistant", readBack.getChoice(1).getChatMessage().getRole());
+    assertEquals("length", readBack.getChoice(2).getFinishReason());
+  }
+
+  @Test
+  public void testParsesStreamedChunk() throws Exception {
+    ChatCompletionParser.Chunk chunk =
+        ChatCompletionParser.parseChunk(
+            "{\"model\":\"m\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hi\"},"
+                + "\"finish_reason\":null}]}");
+
+    assertEquals("m", chunk.model());
+    assertNull(chunk.role());
+    assertEquals("Hi", chunk.content());
+    assertNull(chunk.finishReason());
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkParsing() throws Exception {
+    byte[] json = THREE_CHOICES.getBytes(StandardCharsets.UTF_8);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    int iterations = 50_000;
+
+    // The old path: a new mapper per call, a map of the whole response, then casts
+    Runnable mapPath =
+        () -> {
+          try {
+            ResponseChatCompletion response =
+                new ObjectMapper().readValue(json, ResponseChatCompletion.class);
+            new ChatCompletionResult(response.chatCompletion).getChoice(0);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        };
+    Runnable typedPath =
+        () -> {
+          try {
+            ChatCompletionParser.parseResponse(new ByteArrayInputStream(json), true).getChoice(0);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        };
+
+    for (Runnable path : new Runnable[] {mapPath, typedPath}) {
+      for (int i = 0; i < iterations; i++) {
+        path.run();
+      }
+    }
+    for (Runnable path : new Runnable[] {mapPath, typedPath}) {
+      long bytesBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        path.run();
+      }
+      long nanosPerOp = (System.nanoTime() - start) / iterations;
+      long bytesPerOp =
+          (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore)
+              / iterations;
+      System.out.println(
+          (path == mapPath ? "map path:   " : "typed path: ")
+              + nanosPerOp
+              + " ns/op, "
+              + bytesPerOp
+              + " B/op");
+    }
+    assertTrue(iterations > 0);
+  }
+}
@@ -0,0 +1,377 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.Cassette;
+import nz.ac.auckland.se206.gpt.ResponseCache;
+import nz.ac.auckland.se206.gpt.SingleFlight;
+import nz.ac.auckland.se206.gpt.UsageLedger;
+import nz.ac.auckland.se206.gpt.UsageLedger.Caller;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChatCompletionRequestTest {
+
+  @TempDir File directory;
+
+  @Test
+  public void testExecuteAsync() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0);
+        OpenAiService service = server.createService()) {
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", "What's one city there?");
+
+      ChatCompletionResult result = request.executeAsync().get(5, TimeUnit.SECONDS);
+
+      assertEquals("Auckland", result.getChoice(0).getChatMessage().getContent());
+    }
+  }
+
+  @Test
+  public void testExecutorWorkersAreNamed() throws Exception {
+    String threadName =
+        ChatCompletionExecutor.getExecutor()
+            .submit(() -> Thread.currentThread().getName())
+            .get(5, TimeUnit.SECONDS);
+
+    assertTrue(threadName.startsWith("gpt-worker-"));
+  }
+
+  @Test
+  public void testStreamingDeliversFirstTokenEarly() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland is the largest city.", 0);
+        OpenAiService service = server.createService()) {
+      server.setTokenDelay(100);
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", "What's one city there?");
+
+      List<String> tokens = new ArrayList<>();
+      long[] firstTokenNanos = new long[1];
+      long start = System.nanoTime();
+      ChatCompletionResult result =
+          request.executeStreaming(
+              token -> {
+                if (tokens.isEmpty()) {
+                  firstTokenNanos[0] = System.nanoTime() - start;
+                }
+                tokens.add(token);
+              });
+      long totalNanos = System.nanoTime() - start;
+
+      System.out.println(
+          "time to first token: "
+              + firstTokenNanos[0] / 1_000_000
+              + "ms, total: "
+              + totalNanos / 1_000_000
+              + "ms");
+      assertEquals(5, tokens.size());
+      assertEquals("Auckland is the largest city.", String.join("", tokens));
+      assertEquals(String.join("", tokens), result.getChoice(0).getChatMessage().getContent());
+      assertEquals("stop", result.getChoice(0).getFinishReason());
+      assertTrue(firstTokenNanos[0] + TimeUnit.MILLISECONDS.toNanos(300) < totalNanos);
+    }
+  }
+
+  @Test
+  public void testStreamingFallsBackToCompleteResponse() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0);
+        OpenAiService service = server.createService()) {
+      server.setStreamingSupported(false);
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", "What's one city there?");
+
+      List<String> tokens = new ArrayList<>();
+      ChatCompletionResult result = request.executeStreaming(tokens::add);
+
+      assertEquals(List.of("Auckland"), tokens);
+      assertEquals("Auckland", result.getChoice(0).getChatMessage().getContent());
+    }
+  }
+
+  @Test
+  public void testRepeatRequestIsServedFromCache() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Hint: check the loop bound", 50);
+        OpenAiService service = server.createService()) {
+      ResponseCache cache = new ResponseCache(null, 8);
+
+      ChatCompletionResult first =
+          new ChatCompletionRequest(service).setCache(cache).addMessage("user", "hint").execute();
+      new ChatCompletionRequest(service).setCache(cache).addMessage("user", "hint").execute();
+      long start = System.nanoTime();
+      ChatCompletionResult second =
+          new ChatCompletionRequest(service).setCache(cache).addMessage("user", "hint").execute();
+      long repeatMicros = (System.nanoTime() - start) / 1000;
+      System.out.println("repeat hint served in " + repeatMicros + "us");
+
+      assertEquals(1, server.getRequestCount());
+      assertEquals(2, cache.getHits());
+      assertEquals(
+          first.getChoice(0).getChatMessage().getContent(),
+          second.getChoice(0).getChatMessage().getContent());
+    }
+  }
+
+  @Test
+  public void testUsageIsRecordedAgainstTheCaller() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("What has keys but no locks?", 0);
+        OpenAiService service = server.createService()) {
+      UsageLedger ledger = new UsageLedger(null);
+      ledger.startSession();
+      ResponseCache cache = new ResponseCache(null, 8);
+
+      for (int i = 0; i < 2; i++) {
+        new ChatCompletionRequest(service)
+            .setCaller(Caller.RIDDLE)
+            .setUsageLedger(ledger)
+            .setCache(cache)
+            .addMessage("user", "riddle about a piano")
+            .execute();
+      }
+      server.rejectNextRequests(1, "Invalid access token");
+      assertThrows(
+          ApiProxyException.class,
+          () ->
+              new ChatCompletionRequest(service)
+                  .setCaller(Caller.ROOM_CHAT)
+                  .setUsageLedger(ledger)
+                  .addMessage("user", "hello")
+                  .execute());
+
+      // The repeat was served from the cache, so only the first call used tokens
+      UsageLedger.Totals riddle = ledger.getSessionTotals(Caller.RIDDLE);
+      assertEquals(2, riddle.calls());
+      assertEquals(1, riddle.proxyCalls());
+      assertTrue(riddle.promptTokens() > 0);
+      assertTrue(riddle.completionTokens() > 0);
+      assertEquals(1, ledger.getSessionTotals(Caller.ROOM_CHAT).failures());
+    }
+  }
+
+  @Test
+  public void testIdenticalConcurrentRequestsShareOneCall() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Welcome to the escape room", 200);
+        OpenAiService service = server.createService()) {
+      SingleFlight<ChatCompletionResult, ApiProxyException> singleFlight =
+          ChatCompletionRequest.getSingleFlight();
+      long collapsedBefore = singleFlight.getCollapsedCount();
+
+      // Each room greets the player with the same prompt at the same time
+      List<CompletableFuture<ChatCompletionResult>> greetings = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        greetings.add(
+            new ChatCompletionRequest(service).addMessage("assistant", "greeting").executeAsync());
+      }
+      for (CompletableFuture<ChatCompletionResult> greeting : greetings) {
+        assertEquals(
+            "Welcome to the escape room",
+            greeting.get(5, TimeUnit.SECONDS).getChoice(0).getChatMessage().getContent());
+      }
+
+      assertEquals(1, server.getRequestCount());
+      assertEquals(2, singleFlight.getCollapsedCount() - collapsedBefore);
+    }
+  }
+
+  @Test
+  public void testRetriesWhenProxyIsOverloaded() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0)) {
+      ApiProxyConfig config =
+          ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key").setRetryBackoffMillis(10);
+      server.failNextRequests(2);
+
+      try (OpenAiService service = new OpenAiService(config, server.getEndpoint())) {
+        ChatCompletionResult result =
+            new ChatCompletionRequest(service).addMessage("user", "retry").execute();
+
+        assertEquals("Auckland", result.getChoice(0).getChatMessage().getContent());
+        assertEquals(3, server.getRequestCount());
+      }
+    }
+  }
+
+  @Test
+  public void testDeadlineStopsHungRequest() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000)) {
+      ApiProxyConfig config =
+          ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key").setRequestDeadlineMillis(300);
+
+      try (OpenAiService service = new OpenAiService(config, server.getEndpoint())) {
+        long start = System.nanoTime();
+        assertThrows(
+            ApiProxyException.class,
+            () -> new ChatCompletionRequest(service).addMessage("user", "hang").execute());
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+      }
+    }
+  }
+
+  @Test
+  public void testAbortStopsRequestInFlight() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000);
+        OpenAiService service = server.createService()) {
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", "abandoned");
+      CompletableFuture<ChatCompletionResult> result =
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return request.execute();
+                } catch (ApiProxyException e) {
+                  return null;
+                }
+              });
+      Thread.sleep(200);
+
+      long start = System.nanoTime();
+      request.abort();
+      assertEquals(null, result.get(2, TimeUnit.SECONDS));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+      // The abort was not retried, and does not count against the proxy
+      assertEquals(1, server.getRequestCount());
+      assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+
+      // Later executions of the request are sent as normal
+      server.setLatency(0, 0);
+      assertEquals("Too late", request.execute().getChoice(0).getChatMessage().getContent());
+    }
+  }
+
+  @Test
+  public void testRateLimitedRequestsQueueRatherThanFail() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0)) {
+      ApiProxyConfig config =
+          ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key").setMaxRequestsPerSecond(10);
+
+      try (OpenAiService service = new OpenAiService(config, server.getEndpoint())) {
+        long start = System.nanoTime();
+        List<CompletableFuture<ChatCompletionResult>> results = new ArrayList<>();
+        for (int i = 0; i < 13; i++) {
+          ChatCompletionRequest request =
+              new ChatCompletionRequest(service).addMessage("user", "q" + i);
+          results.add(request.executeAsync());
+        }
+        for (CompletableFuture<ChatCompletionResult> result : results) {
+          result.get(5, TimeUnit.SECONDS);
+        }
+
+        // The burst goes through at once, and the last three are spaced out over 300ms
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(13, server.getRequestCount());
+        assertEquals(10, service.getRateLimiter().getWaitHistogram()[0]);
+      }
+    }
+  }
+
+  @Test
+  public void testCircuitBreakerFailsFastWhileProxyIsDown() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0)) {
+      ApiProxyConfig config =
+          ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key")
+              .setMaxRetries(0)
+              .setCircuitFailureThreshold(2)
+              .setCircuitOpenMillis(200);
+      server.failNextRequests(2);
+
+      try (OpenAiService service = new OpenAiService(config, server.getEndpoint())) {
+        for (int i = 0; i < 3; i++) {
+          assertThrows(
+              ApiProxyException.class,
+              () -> new ChatCompletionRequest(service).addMessage("user", "down").execute());
+        }
+
+        // The third request was never sent
+        assertEquals(2, server.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+        // Once the breaker has been open for long enough, a trial request closes it again
+        Thread.sleep(250);
+        new ChatCompletionRequest(service).addMessage("user", "up").execute();
+        assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+      }
+    }
+  }
+
+  @Test
+  public void testAbortedTrialDoesNotWedgeTheBreaker() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 0)) {
+      ApiProxyConfig config =
+          ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key")
+              .setMaxRetries(0)
+              .setCircuitFailureThreshold(1)
+              .setCircuitOpenMillis(200);
+      server.failNextRequests(1);
+
+      try (OpenAiService service = new OpenAiService(config, server.getEndpoint())) {
+        assertThrows(
+            ApiProxyException.class,
+            () -> new ChatCompletionRequest(service).addMessage("user", "down").execute());
+        assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+        // The trial request is abandoned before the proxy answers it
+        Thread.sleep(250);
+        server.setLatency(5_000, 0);
+        ChatCompletionRequest trial = new ChatCompletionRequest(service).addMessage("user", "t");
+        CompletableFuture<ChatCompletionResult> result = trial.executeAsync();
+        Thread.sleep(200);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, service.getCircuitBreaker().getState());
+        trial.abort();
+        assertThrows(Exception.class, () -> result.get(2, TimeUnit.SECONDS));
+
+        // The next request becomes the trial, and closes the breaker again
+        server.setLatency(0, 0);
+        assertEquals(
+            "Auckland",
+            new ChatCompletionRequest(service)
+                .addMessage("user", "up")
+                .execute()
+                .getChoice(0)
+                .getChatMessage()
+                .getContent());
+        assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+      }
+    }
+  }
+
+  @Test
+  public void testCassetteReplaysRecordedSession() throws Exception {
+    File file = new File(directory, "session.cassette");
+    Cassette recorder = new Cassette(Cassette.Mode.RECORD, file);
+    try (LocalProxyServer server = new LocalProxyServer("Unused", 0);
+        OpenAiService service = server.createService()) {
+      server.setReplies("Riddle one", "Hint one", "Hint two");
+      newRequest(service, recorder, "riddle").execute();
+      newRequest(service, recorder, "hint").execute();
+      newRequest(service, recorder, "hint").executeStreaming(token -> {});
+    }
+
+    // Play the session back with no proxy running at all
+    Cassette player = new Cassette(Cassette.Mode.REPLAY, file);
+    OpenAiService offline =
+        new OpenAiService("test@aucklanduni.ac.nz", "test-key", "http://localhost:1");
+    assertEquals("Riddle one", replay(offline, player, "riddle"));
+    assertEquals("Hint one", replay(offline, player, "hint"));
+    assertEquals("Hint two", replay(offline, player, "hint"));
+    assertEquals("Hint two", replay(offline, player, "hint"));
+    assertThrows(ApiProxyException.class, () -> replay(offline, player, "unrecorded"));
+  }
+
+  private static String replay(OpenAiService service, Cassette cassette, String message)
+      throws ApiProxyException {
+    ChatCompletionResult result = newRequest(service, cassette, message).execute();
+    return result.getChoice(0).getChatMessage().getContent();
+  }
+
+  private static ChatCompletionRequest newRequest(
+      OpenAiService service, Cassette cassette, String message) {
+    return new ChatCompletionRequest(service).setCassette(cassette).addMessage("user", message);
+  }
+}
@@ -1,7 +1,11 @@
 package nz.ac.auckland.se206.gpt.openai;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 import nz.ac.auckland.se206.gpt.ChatMessage;
@@ -12,8 +16,45 @@ public class ChatCompletionServiceTest {
 
   @Test
   public void testGptAuckland() {
-    OpenAiService openAiService = new OpenAiService("apiproxy.config");
+    // The live proxy can only be called with credentials
+    assumeTrue(new File("apiproxy.config").exists(), "apiproxy.config is missing");
 
+    assertAuckland(new OpenAiService("apiproxy.config"));
+  }
+
+  @Test
+  public void testGptAucklandOffline() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Auckland", 20)) {
+      server.setReplyTemplate("{message} Auckland is the largest city in New Zealand.");
+      assertAuckland(server.createService());
+    }
+  }
+
+  @Test
+  public void testScriptedRepliesAndRejection() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Fallback", 0);
+        OpenAiService service = server.createService()) {
+      server.setReplies("First", "Second");
+
+      assertEquals("First", reply(service));
+      assertEquals("Second", reply(service));
+      assertEquals("Fallback", reply(service));
+
+      // An unsuccessful envelope is an error, and is not retried
+      server.rejectNextRequests(1, "Invalid access token");
+      ApiProxyException error = assertThrows(ApiProxyException.class, () -> reply(service));
+      assertTrue(error.getMessage().contains("Invalid access token"));
+      assertEquals(4, server.getRequestCount());
+    }
+  }
+
+  private static String reply(OpenAiService service) throws ApiProxyException {
+    ChatCompletionResult result =
+        new ChatCompletionRequest(service).addMessage("user", "Hello").execute();
+    return result.getChoice(0).getChatMessage().getContent();
+  }
+
+  private static void assertAuckland(OpenAiService openAiService) {
     ChatCompletionRequest chatCompletionRequest = new ChatCompletionRequest(openAiService);
 
     chatCompletionRequest
@@ -0,0 +1,154 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import nz.ac.auckland.se206.gpt.ChatMessage;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class ChatRequestSerializerTest {
+
+  private static final String EMAIL = "upi123@aucklanduni.ac.nz";
+  private static final String TOKEN = "token";
+
+  private static byte[] toBytes(HttpEntity entity) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    return out.toByteArray();
+  }
+
+  /** Builds a request body the way it was built before, as a tree of javax.json builders. */
+  private static HttpEntity buildWithJsonBuilders(List<ChatMessage> messages) {
+    JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
+    for (ChatMessage message : messages) {
+      jsonMessages.add(
+          Json.createObjectBuilder()
+              .add("role", message.getRole())
+              .add("content", message.getContent()));
+    }
+    String json =
+        Json.createObjectBuilder()
+            .add("email", EMAIL)
+            .add("access_token", TOKEN)
+            .add("messages", jsonMessages)
+            .add("temperature", 0.2)
+            .build()
+            .toString();
+    return new StringEntity(json, StandardCharsets.UTF_8);
+  }
+
+  private static List<ChatMessage> conversation(int size) {
+    List<ChatMessage> messages = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      messages.add(
+          new ChatMessage(
+              (i % 2 == 0) ? "user" : "assistant",
+              "Message " + i + ": where is the key? I looked under the desk and in the drawer."));
+    }
+    return messages;
+  }
+
+  @Test
+  public void testMatchesJsonBuilders() throws Exception {
+    List<ChatMessage> messages = new ArrayList<>();
+    messages.add(new ChatMessage("system", "Say \"hi\"\n\tthen a backslash \\ and \u0001"));
+    messages.add(new ChatMessage("user", "Café, 中文 and an emoji 🔑"));
+
+    HttpEntity body =
+        new ChatRequestSerializer().serialize(EMAIL, TOKEN, messages, ",\"temperature\":0.2");
+
+    ObjectMapper mapper = new ObjectMapper();
+    byte[] bytes = toBytes(body);
+    assertEquals(bytes.length, body.getContentLength());
+    assertEquals(
+        mapper.readTree(toBytes(buildWithJsonBuilders(messages))), mapper.readTree(bytes));
+  }
+
+  @Test
+  public void testOnlyNewMessagesAreEncoded() throws Exception {
+    ChatRequestSerializer serializer = new ChatRequestSerializer();
+    List<ChatMessage> messages = conversation(3);
+    byte[] first = toBytes(serializer.serialize(EMAIL, TOKEN, messages, ""));
+    int encodedLength = serializer.getEncodedLength();
+
+    // A new turn adds to the encoded messages rather than starting again
+    messages.add(new ChatMessage("user", "And now?"));
+    byte[] second = toBytes(serializer.serialize(EMAIL, TOKEN, messages, ""));
+    assertTrue(serializer.getEncodedLength() > encodedLength);
+    assertEquals(
+        new String(first, StandardCharsets.UTF_8).replace("]}", ""),
+        new String(second, 0, first.length - 2, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testEarlierBodiesAreNotWrittenOver() throws Exception {
+    ChatRequestSerializer serializer = new ChatRequestSerializer();
+    List<ChatMessage> messages = conversation(4);
+    HttpEntity first = serializer.serialize(EMAIL, TOKEN, messages, "");
+    byte[] firstBytes = toBytes(first);
+
+    // Replacing an earlier message, as the conversation window does, re-encodes from there
+    messages.set(1, new ChatMessage("system", "A summary of the earlier turns."));
+    HttpEntity second = serializer.serialize(EMAIL, TOKEN, messages, "");
+
+    assertArrayEquals(firstBytes, toBytes(first));
+    assertEquals(
+        new ObjectMapper().readTree(toBytes(buildWithJsonBuilders(messages))).get("messages"),
+        new ObjectMapper().readTree(toBytes(second)).get("messages"));
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkSerializing() throws Exception {
+    OutputStream sink = OutputStream.nullOutputStream();
+    for (int size : new int[] {5, 50, 500}) {
+      List<ChatMessage> messages = conversation(size);
+      ChatMessage[] turns = {
+        new ChatMessage("user", "Is it behind the painting?"),
+        new ChatMessage("user", "Is it inside the clock?")
+      };
+      ChatRequestSerializer serializer = new ChatRequestSerializer();
+      int iterations = 100_000 / size;
+
+      // Each operation builds the body for a conversation that has just had a new turn
+      long builderNanos = 0;
+      long serializerNanos = 0;
+      for (int round = 0; round < 2; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          messages.set(size - 1, turns[i % 2]);
+          buildWithJsonBuilders(messages).writeTo(sink);
+        }
+        builderNanos = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          messages.set(size - 1, turns[i % 2]);
+          serializer.serialize(EMAIL, TOKEN, messages, ",\"temperature\":0.2").writeTo(sink);
+        }
+        serializerNanos = (System.nanoTime() - start) / iterations;
+      }
+
+      System.out.println(
+          size
+              + " messages: json builders "
+              + builderNanos
+              + " ns/op, serializer "
+              + serializerNanos
+              + " ns/op");
+      assertTrue(serializerNanos > 0);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.openai.ApiProxyConfig.Transport;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class ChatTransportTest {
+
+  @Test
+  public void testEveryTransportStreamsTokens() throws Exception {
+    for (Transport transport : Transport.values()) {
+      try (LocalProxyServer server = new LocalProxyServer("Auckland is the largest city.", 0);
+          OpenAiService service = server.createService(transport)) {
+        server.setTokenDelay(20);
+        List<String> tokens = new ArrayList<>();
+        ChatCompletionResult result =
+            new ChatCompletionRequest(service)
+                .addMessage("user", "What's one city there?")
+                .executeStreaming(tokens::add);
+
+        assertEquals(5, tokens.size(), transport.name());
+        assertEquals("Auckland is the largest city.", String.join("", tokens));
+        assertEquals("stop", result.getChoice(0).getFinishReason());
+      }
+    }
+  }
+
+  @Test
+  public void testEveryTransportRetriesAndAborts() throws Exception {
+    for (Transport transport : Transport.values()) {
+      try (LocalProxyServer server = new LocalProxyServer("Too late", 0);
+          OpenAiService service = server.createService(transport)) {
+        // An overloaded proxy is retried
+        server.failNextRequests(1);
+        ChatCompletionRequest request =
+            new ChatCompletionRequest(service).addMessage("user", "abandoned");
+        assertEquals("Too late", request.execute().getChoice(0).getChatMessage().getContent());
+        assertEquals(2, server.getRequestCount(), transport.name());
+
+        // A request in flight stops as soon as it is aborted
+        server.setLatency(5_000, 0);
+        ChatCompletionRequest slowRequest =
+            new ChatCompletionRequest(service).addMessage("user", "slow");
+        CompletableFuture<ChatCompletionResult> result =
+            CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    return slowRequest.execute();
+                  } catch (ApiProxyException e) {
+                    return null;
+                  }
+                });
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        slowRequest.abort();
+        assertNull(result.get(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), transport.name());
+        assertEquals(3, server.getRequestCount());
+      }
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkConcurrentThroughput() throws Exception {
+    int requests = 400;
+    int concurrency = 16;
+    try (LocalProxyServer server = new LocalProxyServer("Riddle", 20)) {
+      for (Transport transport : Transport.values()) {
+        ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+        try (OpenAiService service = server.createService(transport)) {
+          // Warm up the client and its connections before timing
+          runConcurrently(service, callers, concurrency, "warm-up");
+
+          long start = System.nanoTime();
+          runConcurrently(service, callers, requests, transport.name());
+          double seconds = (System.nanoTime() - start) / 1e9;
+          System.out.printf(
+              "%s: %d requests, %d at once, %.0f requests/s%n",
+              transport, requests, concurrency, requests / seconds);
+        } finally {
+          callers.shutdown();
+        }
+      }
+    }
+  }
+
+  private static void runConcurrently(
+      OpenAiService service, ExecutorService callers, int requests, String prefix)
+      throws Exception {
+    List<Future<ChatCompletionResult>> results = new ArrayList<>();
+    for (int i = 0; i < requests; i++) {
+      // Each request is different, so none are shared or served from a cache
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", prefix + " " + i);
+      results.add(callers.submit(request::execute));
+    }
+    for (Future<ChatCompletionResult> result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.openai.Hedger.Path;
+import org.junit.jupiter.api.Test;
+
+public class HedgerTest {
+
+  private static ApiProxyConfig createConfig(int hedgeAfterMillis, int fallbackAfterMillis) {
+    return ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key")
+        .setHedgeAfterMillis(hedgeAfterMillis)
+        .setFallbackAfterMillis(fallbackAfterMillis);
+  }
+
+  private static String getContent(ChatCompletionResult result) {
+    return result.getChoice(0).getChatMessage().getContent();
+  }
+
+  @Test
+  public void testFastCallIsNotHedged() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Look under the desk.", 0);
+        OpenAiService service = server.createService()) {
+      Hedger hedger = new Hedger(createConfig(1_000, 5_000));
+      ChatCompletionRequest request = new ChatCompletionRequest(service).addMessage("user", "Hint");
+
+      ChatCompletionResult result =
+          hedger.execute(request, () -> "Fallback").get(5, TimeUnit.SECONDS);
+      assertEquals("Look under the desk.", getContent(result));
+      assertEquals(1, server.getRequestCount());
+      assertEquals(1, hedger.getWins(Path.PRIMARY));
+      assertEquals(0, hedger.getWins(Path.HEDGE));
+    }
+  }
+
+  @Test
+  public void testSlowCallIsBeatenByTheHedge() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("unused", 2_000);
+        OpenAiService service = server.createService()) {
+      server.setReplyTemplate("Reply {request}");
+      Hedger hedger = new Hedger(createConfig(200, 5_000));
+      ChatCompletionRequest request = new ChatCompletionRequest(service).addMessage("user", "Hint");
+      long start = System.nanoTime();
+      CompletableFuture<ChatCompletionResult> result =
+          hedger.execute(request, () -> "Fallback");
+
+      // Only the first call is slow to answer
+      while (server.getRequestCount() == 0) {
+        Thread.sleep(5);
+      }
+      Thread.sleep(50);
+      server.setLatency(0, 0);
+
+      assertEquals("Reply 2", getContent(result.get(5, TimeUnit.SECONDS)));
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_500);
+      assertEquals(1, hedger.getWins(Path.HEDGE));
+      assertEquals(0, hedger.getWins(Path.PRIMARY));
+    }
+  }
+
+  @Test
+  public void testFallbackAnswersOnceTheBudgetRunsOut() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 2_000);
+        OpenAiService service = server.createService()) {
+      Hedger hedger = new Hedger(createConfig(100, 400));
+      ChatCompletionRequest request = new ChatCompletionRequest(service).addMessage("user", "Hint");
+
+      ChatCompletionResult result =
+          hedger.execute(request, () -> "Check the bookshelf.").get(5, TimeUnit.SECONDS);
+      assertEquals("Check the bookshelf.", getContent(result));
+      assertEquals(Hedger.FALLBACK_MODEL, result.getModel());
+      assertEquals(1, hedger.getWins(Path.FALLBACK));
+
+      // Without a fallback, the failure is passed on once both copies have failed
+      server.setLatency(0, 0);
+      assertThrows(
+          ExecutionException.class,
+          () -> {
+            server.failNextRequests(100);
+            hedger.execute(request.copy(), () -> null).get(10, TimeUnit.SECONDS);
+          });
+    }
+  }
+
+  @Test
+  public void testStreamedAnswerIsNotReplacedOnceStarted() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("One two three four five", 0);
+        OpenAiService service = server.createService()) {
+      server.setTokenDelay(150);
+      Hedger hedger = new Hedger(createConfig(150, 250));
+      ChatCompletionRequest request = new ChatCompletionRequest(service).addMessage("user", "Hint");
+      StringBuilder tokens = new StringBuilder();
+
+      // Open a connection first, so the first token arrives well before the hedge is due
+      service.openConnection();
+
+      ChatCompletionResult result =
+          hedger
+              .executeStreaming(request, tokens::append, () -> "Fallback")
+              .get(5, TimeUnit.SECONDS);
+      assertEquals("One two three four five", getContent(result));
+      assertEquals("One two three four five", tokens.toString());
+      assertEquals(1, server.getRequestCount());
+      assertEquals(1, hedger.getWins(Path.PRIMARY));
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.ac.auckland.se206.gpt.TokenEstimator;
+
+/**
+ * A local stand-in for the API proxy, so the client can be tested and benchmarked offline. It
+ * answers chat completion requests in the proxy's response envelope ({@code success}, {@code
+ * code}, {@code message}, {@code chat_completion}). Replies can be fixed, scripted one per request,
+ * or templated on the latest message. Latency, jitter and errors can be injected. Requests asking
+ * for a stream are answered with chunked server-sent events, one word at a time.
+ */
+public class LocalProxyServer implements AutoCloseable {
+
+  /** The placeholder in a reply template that is replaced with the latest message. */
+  public static final String MESSAGE_PLACEHOLDER = "{message}";
+
+  /** The placeholder in a reply template that is replaced with the number of the request. */
+  public static final String REQUEST_PLACEHOLDER = "{request}";
+
+  static {
+    // Avoid Nagle's algorithm delaying replies on kept-alive connections
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String reply;
+  private final Queue<String> scriptedReplies = new ConcurrentLinkedQueue<>();
+  private volatile String replyTemplate;
+  private volatile long latencyMillis;
+  private volatile long jitterMillis;
+  private volatile long tokenDelayMillis;
+  private volatile double errorRate;
+  private volatile boolean isStreamingSupported = true;
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private final AtomicInteger failuresLeft = new AtomicInteger();
+  private final AtomicInteger rejectionsLeft = new AtomicInteger();
+  private volatile String rejectionMessage;
+  private volatile int lastRequestBytes;
+  private volatile String lastRequest;
+  private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Starts a stand-in proxy on a free local port.
+   *
+   * @param reply the assistant reply returned for every request
+   * @param latencyMillis the artificial processing time of each request
+   * @throws IOException if the server could not be started
+   */
+  public LocalProxyServer(String reply, long latencyMillis) throws IOException {
+    this.reply = reply;
+    this.latencyMillis = latencyMillis;
+
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(16);
+    server.setExecutor(executor);
+    server.createContext("/proxy/openai-chat-completion", this::handle);
+    server.start();
+  }
+
+  /**
+   * Returns the chat completion endpoint of this server.
+   *
+   * @return the endpoint URL
+   */
+  public String getEndpoint() {
+    return "http://localhost:"
+        + server.getAddress().getPort()
+        + "/proxy/openai-chat-completion";
+  }
+
+  /**
+   * Returns a service pointing at this server. The server has no rate limits, so the service does
+   * not limit its requests either.
+   *
+   * @return the service
+   */
+  public OpenAiService createService() {
+    return createService(ApiProxyConfig.Transport.APACHE);
+  }
+
+  /**
+   * Returns a service pointing at this server over the given transport, without rate limits.
+   *
+   * @param transport the HTTP client to send requests with
+   * @return the service
+   */
+  public OpenAiService createService(ApiProxyConfig.Transport transport) {
+    ApiProxyConfig config =
+        ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key")
+            .setMaxRequestsPerSecond(0)
+            .setMaxTokensPerMinute(0)
+            .setTransport(transport);
+    return new OpenAiService(config, getEndpoint());
+  }
+
+  /**
+   * Scripts the replies to the next requests, one per request in order. Once they run out, the
+   * template or fixed reply is used again.
+   *
+   * @param replies the replies
+   */
+  public void setReplies(String... replies) {
+    scriptedReplies.clear();
+    scriptedReplies.addAll(Arrays.asList(replies));
+  }
+
+  /**
+   * Sets a template for the reply, in which {@link #MESSAGE_PLACEHOLDER} is replaced with the
+   * content of the latest message and {@link #REQUEST_PLACEHOLDER} with the number of the request.
+   *
+   * @param replyTemplate the template, or null to use the fixed reply
+   */
+  public void setReplyTemplate(String replyTemplate) {
+    this.replyTemplate = replyTemplate;
+  }
+
+  /**
+   * Sets the artificial processing time of each request, which varies uniformly by up to the
+   * jitter either way.
+   *
+   * @param latencyMillis the average latency in milliseconds
+   * @param jitterMillis the most the latency varies by in milliseconds
+   */
+  public void setLatency(long latencyMillis, long jitterMillis) {
+    this.latencyMillis = latencyMillis;
+    this.jitterMillis = jitterMillis;
+  }
+
+  /**
+   * Sets the delay between the tokens of a streamed reply.
+   *
+   * @param tokenDelayMillis the delay in milliseconds
+   */
+  public void setTokenDelay(long tokenDelayMillis) {
+    this.tokenDelayMillis = tokenDelayMillis;
+  }
+
+  /**
+   * Sets whether requests asking for a stream are streamed, or answered with a complete envelope.
+   *
+   * @param isStreamingSupported whether to stream
+   */
+  public void setStreamingSupported(boolean isStreamingSupported) {
+    this.isStreamingSupported = isStreamingSupported;
+  }
+
+  /**
+   * Answers a random share of requests with HTTP 500, as a flaky proxy would.
+   *
+   * @param errorRate the share of requests to fail, from 0 to 1
+   */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * Answers the next requests with HTTP 503, as an overloaded proxy would.
+   *
+   * @param count the number of requests to fail
+   */
+  public void failNextRequests(int count) {
+    failuresLeft.set(count);
+  }
+
+  /**
+   * Answers the next requests with an unsuccessful envelope, as the proxy does for bad credentials.
+   *
+   * @param count the number of requests to reject
+   * @param message the error message in the envelope
+   */
+  public void rejectNextRequests(int count, String message) {
+    rejectionMessage = message;
+    rejectionsLeft.set(count);
+  }
+
+  /**
+   * Returns the number of requests served so far.
+   *
+   * @return the request count
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns the size of the body of the last request served.
+   *
+   * @return the size in bytes
+   */
+  public int getLastRequestBytes() {
+    return lastRequestBytes;
+  }
+
+  /**
+   * Returns the body of the last request served.
+   *
+   * @return the JSON request body
+   */
+  public String getLastRequest() {
+    return lastRequest;
+  }
+
+  /**
+   * Returns the number of distinct client connections seen so far.
+   *
+   * @return the connection count
+   */
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int requestNumber = requestCount.incrementAndGet();
+    connections.add(exchange.getRemoteAddress());
+
+    // Drain the request body so the connection can be reused
+    String request;
+    try (InputStream body = exchange.getRequestBody()) {
+      byte[] bytes = body.readAllBytes();
+      lastRequestBytes = bytes.length;
+      request = new String(bytes, StandardCharsets.UTF_8);
+      lastRequest = request;
+    }
+
+    // Take a while to answer, varying by the jitter
+    long jitter = 0;
+    if (jitterMillis > 0) {
+      jitter = ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+    }
+    sleep(latencyMillis + jitter);
+
+    // Inject server errors
+    if (failuresLeft.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+      sendStatus(exchange, 503);
+      return;
+    }
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      sendStatus(exchange, 500);
+      return;
+    }
+    if (rejectionsLeft.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+      sendJson(exchange, 401, errorEnvelope(401, rejectionMessage));
+      return;
+    }
+
+    JsonNode json = mapper.readTree(request);
+    String content = nextReply(json, requestNumber);
+    if (isStreamingSupported && json.path("stream").asBoolean(false)) {
+      stream(exchange, content);
+      return;
+    }
+
+    sendJson(exchange, 200, envelope(content, countPromptTokens(json)));
+  }
+
+  private String nextReply(JsonNode request, int requestNumber) {
+    String scriptedReply = scriptedReplies.poll();
+    if (scriptedReply != null) {
+      return scriptedReply;
+    }
+
+    String template = replyTemplate;
+    if (template == null) {
+      return reply;
+    }
+    JsonNode messages = request.path("messages");
+    String latestMessage = messages.path(messages.size() - 1).path("content").asText("");
+    return template
+        .replace(MESSAGE_PLACEHOLDER, latestMessage)
+        .replace(REQUEST_PLACEHOLDER, String.valueOf(requestNumber));
+  }
+
+  private static int countPromptTokens(JsonNode request) {
+    int tokens = 3;
+    for (JsonNode message : request.path("messages")) {
+      tokens += TokenEstimator.TOKENS_PER_MESSAGE;
+      tokens += TokenEstimator.count(message.path("content").asText(""));
+    }
+    return tokens;
+  }
+
+  private void stream(HttpExchange exchange, String content) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.sendResponseHeaders(200, 0);
+
+    try (OutputStream out = exchange.getResponseBody()) {
+      // Send the reply one word at a time, flushing each chunk as it is written
+      String[] words = content.split("(?<= )");
+      for (int i = 0; i < words.length; i++) {
+        if (i > 0) {
+          sleep(tokenDelayMillis);
+        }
+        String role = (i == 0) ? "\"role\":\"assistant\"," : "";
+        writeEvent(
+            out,
+            "{\"model\":\"gpt-3.5-turbo-local\",\"choices\":[{\"index\":0,\"delta\":{"
+                + role
+                + "\"content\":\""
+                + escape(words[i])
+                + "\"},\"finish_reason\":null}]}");
+      }
+      writeEvent(out, "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}");
+      writeEvent(out, "[DONE]");
+    }
+  }
+
+  private static void sendStatus(HttpExchange exchange, int status) throws IOException {
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] response = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, response.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(response);
+    }
+  }
+
+  private static void writeEvent(OutputStream out, String data) throws IOException {
+    out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private static String escape(String content) {
+    return content.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Wraps an assistant reply in the proxy's response envelope.
+   *
+   * @param content the assistant reply
+   * @return the JSON envelope
+   */
+  static String envelope(String content) {
+    return envelope(content, 10);
+  }
+
+  /**
+   * Wraps an assistant reply in the proxy's response envelope, reporting the given prompt usage.
+   *
+   * @param content the assistant reply
+   * @param promptTokens the number of prompt tokens to report
+   * @return the JSON envelope
+   */
+  static String envelope(String content, int promptTokens) {
+    int completionTokens = TokenEstimator.count(content);
+    return "{\"success\":true,\"code\":0,\"message\":\"\",\"chat_completion\":{"
+        + "\"model\":\"gpt-3.5-turbo-local\",\"created\":0,"
+        + "\"usage\":{\"prompt_tokens\":"
+        + promptTokens
+        + ",\"completion_tokens\":"
+        + completionTokens
+        + ",\"total_tokens\":"
+        + (promptTokens + completionTokens)
+        + "},\"choices\":[{\"index\":0,\"finish_reason\":\"stop\","
+        + "\"message\":{\"role\":\"assistant\",\"content\":\""
+        + escape(content)
+        + "\"}}]}}";
+  }
+
+  /**
+   * Creates an unsuccessful proxy response envelope.
+   *
+   * @param code the error code
+   * @param message the error message
+   * @return the JSON envelope
+   */
+  static String errorEnvelope(int code, String message) {
+    return "{\"success\":false,\"code\":"
+        + code
+        + ",\"message\":\""
+        + escape(message)
+        + "\",\"chat_completion\":null}";
+  }
+
+  private static void sleep(long millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,91 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OpenAiServiceTest {
+
+  @TempDir File directory;
+
+  private static ChatCompletionRequest newRequest(OpenAiService service) {
+    return new ChatCompletionRequest(service)
+        .addMessage("user", "Where is New Zealand?")
+        .setN(1)
+        .setMaxTokens(100);
+  }
+
+  @Test
+  public void testEndpointIsConfigurable() throws Exception {
+    File config = new File(directory, "apiproxy.config");
+    Files.writeString(
+        config.toPath(),
+        "email: \"upi123@aucklanduni.ac.nz\"\napiKey: \"key\"\nendpoint: \"http://localhost:1\"\n");
+
+    assertEquals("http://localhost:1", new OpenAiService(config.getPath()).getEndpoint());
+
+    // The system property takes precedence over the file
+    System.setProperty(OpenAiService.ENDPOINT_PROPERTY, "http://localhost:2");
+    try {
+      assertEquals("http://localhost:2", new OpenAiService(config.getPath()).getEndpoint());
+    } finally {
+      System.clearProperty(OpenAiService.ENDPOINT_PROPERTY);
+    }
+  }
+
+  @Test
+  public void testPooledClientReusesConnection() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("In the Pacific.", 0);
+        OpenAiService service = server.createService()) {
+      for (int i = 0; i < 10; i++) {
+        newRequest(service).execute();
+      }
+
+      assertEquals(10, server.getRequestCount());
+      assertEquals(1, server.getConnectionCount());
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkLatencyPerCall() throws Exception {
+    int calls = 200;
+    try (LocalProxyServer server = new LocalProxyServer("In the Pacific.", 0)) {
+      // Before: a fresh client (and connection) for every call
+      long[] before = new long[calls];
+      for (int i = 0; i < calls; i++) {
+        try (OpenAiService service = server.createService()) {
+          long start = System.nanoTime();
+          newRequest(service).execute();
+          before[i] = System.nanoTime() - start;
+        }
+      }
+
+      // After: one pooled client shared by every call
+      long[] after = new long[calls];
+      try (OpenAiService service = server.createService()) {
+        for (int i = 0; i < calls; i++) {
+          long start = System.nanoTime();
+          newRequest(service).execute();
+          after[i] = System.nanoTime() - start;
+        }
+      }
+
+      System.out.println("client per call: " + summarise(before));
+      System.out.println("pooled client:   " + summarise(after));
+    }
+  }
+
+  private static String summarise(long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    double p50 = sorted[sorted.length / 2] / 1e6;
+    double p99 = sorted[(int) (sorted.length * 0.99)] / 1e6;
+    return String.format("p50=%.3fms p99=%.3fms", p50, p99);
+  }
+}
@@ -0,0 +1,62 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+  @Test
+  public void testRequestsOverTheRateWaitTheirTurn() {
+    RateLimiter limiter = new RateLimiter(20, 0);
+
+    // A second's worth goes straight through, then the rest are spaced 50ms apart
+    long start = System.nanoTime();
+    for (int i = 0; i < 25; i++) {
+      assertTrue(limiter.acquire(0, 5_000, () -> false));
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    System.out.println(limiter.getStatistics());
+
+    assertTrue(millis >= 200 && millis < 1_000, "took " + millis + "ms");
+    long[] histogram = limiter.getWaitHistogram();
+    assertEquals(20, histogram[0]);
+    assertEquals(25, sum(histogram));
+    assertEquals(50, limiter.getWaitPercentileMillis(0.99));
+  }
+
+  @Test
+  public void testTokensAreSettledOnceUsageIsKnown() {
+    RateLimiter limiter = new RateLimiter(0, 600);
+
+    // The request used far fewer tokens than it took, so the rest are given back
+    assertTrue(limiter.acquire(600, 0, () -> false));
+    limiter.settle(600, 100);
+    assertTrue(limiter.acquire(400, 0, () -> false));
+
+    // Another 200 would take ten seconds to come back, longer than the request may wait
+    assertFalse(limiter.acquire(200, 100, () -> false));
+  }
+
+  @Test
+  public void testCancelledRequestStopsWaiting() {
+    RateLimiter limiter = new RateLimiter(1, 0);
+    assertTrue(limiter.acquire(0, 0, () -> false));
+
+    long start = System.nanoTime();
+    long cancelAt = start + TimeUnit.MILLISECONDS.toNanos(100);
+    assertFalse(limiter.acquire(0, 5_000, () -> System.nanoTime() > cancelAt));
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+  }
+
+  private static long sum(long[] histogram) {
+    long sum = 0;
+    for (long count : histogram) {
+      sum += count;
+    }
+    return sum;
+  }
+}
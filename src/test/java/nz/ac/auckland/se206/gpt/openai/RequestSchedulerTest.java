@@ -0,0 +1,109 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.openai.RequestScheduler.Priority;
+import org.junit.jupiter.api.Test;
+
+public class RequestSchedulerTest {
+
+  @Test
+  public void testMostUrgentCallIsSentFirst() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    // Hold the only slot while the other calls queue up
+    CompletableFuture<Void> release = new CompletableFuture<>();
+    scheduler.submit(Priority.INTERACTIVE, () -> block(release), () -> {});
+    CompletableFuture<?> background =
+        scheduler.submit(Priority.BACKGROUND, () -> record(order, "prefetch"), () -> {});
+    CompletableFuture<?> chat =
+        scheduler.submit(Priority.INTERACTIVE, () -> record(order, "chat"), () -> {});
+    CompletableFuture<?> hint =
+        scheduler.submit(Priority.PLAYER_BLOCKING, () -> record(order, "hint"), () -> {});
+    assertEquals(3, scheduler.getQueuedCount());
+
+    release.complete(null);
+    CompletableFuture.allOf(background, chat, hint).get(5, TimeUnit.SECONDS);
+
+    assertEquals(List.of("hint", "chat", "prefetch"), order);
+  }
+
+  @Test
+  public void testBackgroundWorkLeavesASlotFree() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Hint", 300);
+        OpenAiService service = server.createService()) {
+      RequestScheduler scheduler = new RequestScheduler(2);
+
+      // Background work fills every slot but one
+      for (int i = 0; i < 3; i++) {
+        ChatCompletionRequest prefetch =
+            new ChatCompletionRequest(service).addMessage("user", "prefetch " + i);
+        scheduler.submit(Priority.BACKGROUND, prefetch::execute, prefetch::abort);
+      }
+      assertEquals(1, scheduler.getRunningCount());
+
+      // So the player's hint is sent straight away
+      long start = System.nanoTime();
+      ChatCompletionRequest hint = new ChatCompletionRequest(service).addMessage("user", "hint");
+      scheduler
+          .submit(Priority.PLAYER_BLOCKING, hint::execute, hint::abort)
+          .get(5, TimeUnit.SECONDS);
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue(millis < 550, "took " + millis + "ms");
+    }
+  }
+
+  @Test
+  public void testBackgroundWorkIsDroppedWhenTimeIsCritical() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000);
+        OpenAiService service = server.createService()) {
+      RequestScheduler scheduler = new RequestScheduler(2);
+      ChatCompletionRequest sent = new ChatCompletionRequest(service).addMessage("user", "sent");
+      ChatCompletionRequest queued =
+          new ChatCompletionRequest(service).addMessage("user", "queued");
+      CompletableFuture<ChatCompletionResult> inFlight =
+          scheduler.submit(Priority.BACKGROUND, sent::execute, sent::abort);
+      CompletableFuture<ChatCompletionResult> waiting =
+          scheduler.submit(Priority.BACKGROUND, queued::execute, queued::abort);
+      Thread.sleep(200);
+
+      long start = System.nanoTime();
+      scheduler.setCritical(true);
+
+      // Both fail straight away, and the one in flight gives up its slot once aborted
+      assertThrows(ExecutionException.class, () -> inFlight.get(1, TimeUnit.SECONDS));
+      assertThrows(ExecutionException.class, () -> waiting.get(1, TimeUnit.SECONDS));
+      for (int i = 0; i < 50 && scheduler.getRunningCount() > 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(0, scheduler.getRunningCount());
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+      assertEquals(1, server.getRequestCount());
+
+      // New background work is not sent until time is no longer critical
+      assertThrows(
+          ExecutionException.class,
+          () -> scheduler.submit(Priority.BACKGROUND, sent::execute, sent::abort).get());
+      assertEquals(1, server.getRequestCount());
+    }
+  }
+
+  private static ChatCompletionResult block(CompletableFuture<Void> release) {
+    release.join();
+    return null;
+  }
+
+  private static ChatCompletionResult record(List<String> order, String name) {
+    order.add(name);
+    return null;
+  }
+}
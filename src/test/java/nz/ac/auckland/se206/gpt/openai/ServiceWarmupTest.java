@@ -0,0 +1,51 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.gpt.openai.ServiceWarmup.Step;
+import org.junit.jupiter.api.Test;
+
+public class ServiceWarmupTest {
+
+  @Test
+  public void testFirstRequestUsesTheWarmConnection() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Ready", 0);
+        OpenAiService service = server.createService()) {
+      ServiceWarmup warmup = new ServiceWarmup(() -> service);
+      List<Step> steps = warmup.start().get(5, TimeUnit.SECONDS);
+      assertSame(warmup.start().get(), steps);
+
+      // Every step ran, and nothing was sent to the proxy
+      assertEquals(
+          List.of("config", "client stack", "dns", "connection"),
+          steps.stream().map(Step::name).toList());
+      assertTrue(steps.stream().allMatch(Step::isSuccess));
+      assertEquals(0, server.getRequestCount());
+      assertEquals(1, service.getIdleConnectionCount());
+
+      // The request goes over the connection already open, rather than opening another
+      new ChatCompletionRequest(service).addMessage("user", "Are you there?").execute();
+      assertEquals(1, server.getRequestCount());
+      assertEquals(1, service.getIdleConnectionCount());
+    }
+  }
+
+  @Test
+  public void testUnreachableProxyIsReportedNotThrown() throws Exception {
+    ApiProxyConfig config =
+        ApiProxyConfig.create("test@aucklanduni.ac.nz", "test-key").setConnectTimeoutMillis(500);
+    try (OpenAiService service = new OpenAiService(config, "http://localhost:1/chat")) {
+      List<Step> steps = new ServiceWarmup(() -> service).start().get(5, TimeUnit.SECONDS);
+
+      assertEquals(4, steps.size());
+      assertTrue(steps.get(2).isSuccess());
+      assertFalse(steps.get(3).isSuccess());
+      assertEquals(0, service.getIdleConnectionCount());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package nz.ac.auckland.se206.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.se206.SceneManager.AppUi;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionRequest;
+import nz.ac.auckland.se206.gpt.openai.ChatCompletionResult;
+import nz.ac.auckland.se206.gpt.openai.LocalProxyServer;
+import nz.ac.auckland.se206.gpt.openai.OpenAiService;
+import org.junit.jupiter.api.Test;
+
+public class TaskScopeTest {
+
+  @Test
+  public void testClosingSceneAbortsItsRequests() throws Exception {
+    try (LocalProxyServer server = new LocalProxyServer("Too late", 5_000);
+        OpenAiService service = server.createService()) {
+      TaskScope scope = TaskScope.of(AppUi.LOGIC_PUZZLE);
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(service).addMessage("user", "abandoned");
+      CompletableFuture<ChatCompletionResult> result =
+          scope.track(request, request.executeAsync());
+      CompletableFuture<String> other =
+          TaskScope.of(AppUi.DECRYPTION).track(new CompletableFuture<>());
+      Thread.sleep(200);
+      assertEquals(1, scope.getActiveCount());
+
+      scope.close();
+
+      // The scene hears straight away, and only its own work is stopped
+      assertThrows(CancellationException.class, () -> result.get(1, TimeUnit.SECONDS));
+      assertEquals(0, scope.getActiveCount());
+      assertFalse(other.isDone());
+    }
+  }
+
+  @Test
+  public void testFinishedWorkLeavesTheScope() throws Exception {
+    TaskScope scope = TaskScope.of(AppUi.RIDDLE);
+    CompletableFuture<String> future = scope.track(new CompletableFuture<>());
+    assertEquals(1, scope.getActiveCount());
+
+    future.complete("done");
+    assertEquals(0, scope.getActiveCount());
+  }
+
+  @Test
+  public void testMainRoomsShareAScope() {
+    assertSame(TaskScope.of(AppUi.OFFICE), TaskScope.of(AppUi.BREAKER));
+    assertSame(TaskScope.of(AppUi.OFFICE), TaskScope.of(AppUi.CONTROL));
+  }
+}